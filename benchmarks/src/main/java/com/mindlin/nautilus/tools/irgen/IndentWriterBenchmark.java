@@ -0,0 +1,70 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mindlin.nautilus.tools.irgen.bench.SyntheticCorpus;
+
+/**
+ * {@link IndentWriter#write(String)}: {@code size} blocks of single & multi-line text, nested up to
+ * {@code depth} levels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndentWriterBenchmark {
+	private static final String LINE = "return this.value;";
+	private static final String BLOCK = "if (this == other)\n\treturn true;\nreturn super.equivalentTo(other)\n\t\t&& (this.getValue() == other.getValue());";
+	
+	@Param({"100", "1000", "10000"})
+	public int size;
+	
+	@Param({"1", "4", "16"})
+	public int depth;
+	
+	protected void writeTo(IndentWriter writer) {
+		for (int i = 0; i < this.size; i++) {
+			int indent = i % this.depth;
+			writer.pushIndent(indent);
+			writer.print("int x = ");
+			writer.print(i);
+			writer.println(';');
+			writer.println(LINE);
+			writer.write(BLOCK);
+			writer.println();
+			writer.popIndent(indent);
+		}
+		writer.flush();
+	}
+	
+	@Benchmark
+	public IndentWriter write() {
+		IndentWriter writer = new IndentWriter(new SyntheticCorpus.NullWriter());
+		this.writeTo(writer);
+		return writer;
+	}
+	
+	/**
+	 * Same as {@link #write()}, but into a {@link StringWriter} (like {@code ClassSpec#writeMP()})
+	 */
+	@Benchmark
+	public String writeString() {
+		StringWriter out = new StringWriter();
+		this.writeTo(new IndentWriter(out));
+		return out.toString();
+	}
+}
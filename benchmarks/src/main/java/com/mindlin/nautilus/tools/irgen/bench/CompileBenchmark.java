@@ -0,0 +1,52 @@
+package com.mindlin.nautilus.tools.irgen.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH version of {@link CompileHarness} (e.g., for use with {@code -prof gc}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompileBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int size;
+	
+	@Param({"4"})
+	public int depth;
+	
+	@Param({"5"})
+	public int getters;
+	
+	protected SyntheticCorpus corpus;
+	
+	@Setup
+	public void setup() {
+		this.corpus = new SyntheticCorpus(this.size, this.depth, this.getters);
+	}
+	
+	@Benchmark
+	public MemoryFileManager compile() {
+		return this.corpus.compile(new SyntheticCorpus.BaseProcessor());
+	}
+	
+	@Benchmark
+	public MemoryFileManager processOnly() {
+		return this.corpus.compile(new SyntheticCorpus.BaseProcessor(), "-proc:only");
+	}
+}
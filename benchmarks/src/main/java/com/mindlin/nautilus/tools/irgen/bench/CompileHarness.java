@@ -0,0 +1,183 @@
+package com.mindlin.nautilus.tools.irgen.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.tools.JavaFileObject.Kind;
+
+import com.mindlin.nautilus.tools.irgen.codegen.RenderBufferPool;
+import com.mindlin.nautilus.tools.irgen.ir.ClassSpec.OutputInfo;
+import com.mindlin.nautilus.tools.irgen.ir.TreeImplSpec;
+
+/**
+ * End-to-end benchmark: compile {@link SyntheticCorpus}es in-process (with the processor, and
+ * outputs kept in memory), and report wall time, allocation, and output size for each corpus size.
+ * <p>
+ * Usage: {@code CompileHarness [options] [size...]} (default sizes: 100 1000 10000), with options
+ * {@code --depth N}, {@code --getters N}, {@code --warmup N}, {@code --iterations N},
+ * {@code --proc-only} (don't compile the generated impls), and {@code -A...} (passed to the processor).
+ * </p>
+ * Allocation is measured per-thread (javac's thread, build/analyze workers & render workers), so it needs a JVM that
+ * supports {@code com.sun.management.ThreadMXBean}.
+ */
+public class CompileHarness {
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	
+	protected static long allocatedBytes() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	protected int depth = 4;
+	protected int getters = SyntheticCorpus.DEFAULT_GETTERS;
+	protected int warmup = 1;
+	protected int iterations = 3;
+	protected boolean procOnly = false;
+	protected final List<String> options = new ArrayList<>();
+	protected final List<Integer> sizes = new ArrayList<>();
+	
+	protected void parse(String...args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			switch (arg) {
+				case "--depth":
+					this.depth = Integer.parseInt(args[++i]);
+					break;
+				case "--getters":
+					this.getters = Integer.parseInt(args[++i]);
+					break;
+				case "--warmup":
+					this.warmup = Integer.parseInt(args[++i]);
+					break;
+				case "--iterations":
+					this.iterations = Integer.parseInt(args[++i]);
+					break;
+				case "--proc-only":
+					this.procOnly = true;
+					break;
+				default:
+					if (arg.startsWith("-A"))
+						this.options.add(arg);
+					else if (arg.startsWith("-"))
+						throw new IllegalArgumentException("Unknown option: " + arg);
+					else
+						this.sizes.add(Integer.parseInt(arg));
+			}
+		}
+		if (this.sizes.isEmpty()) {
+			this.sizes.add(100);
+			this.sizes.add(1000);
+			this.sizes.add(10000);
+		}
+	}
+	
+	/**
+	 * Compile corpus once
+	 */
+	protected Sample run(SyntheticCorpus corpus) {
+		MeasuringProcessor processor = new MeasuringProcessor();
+		String[] options = this.options.toArray(new String[this.options.size()]);
+		if (this.procOnly) {
+			options = this.options.toArray(new String[this.options.size() + 1]);
+			options[options.length - 1] = "-proc:only";
+		}
+		
+		System.gc();
+		long startBytes = allocatedBytes();
+		long start = System.nanoTime();
+		MemoryFileManager outputs = corpus.compile(processor, options);
+		Sample result = new Sample();
+		result.nanos = System.nanoTime() - start;
+		result.allocated = allocatedBytes() - startBytes + processor.workerBytes.sum();
+		result.sources = outputs.getCount(Kind.SOURCE);
+		result.sourceBytes = outputs.getBytes(Kind.SOURCE);
+		result.classes = outputs.getCount(Kind.CLASS);
+		result.classBytes = outputs.getBytes(Kind.CLASS);
+		return result;
+	}
+	
+	public void run() {
+		System.out.printf("depth=%d getters=%d warmup=%d iterations=%d%s%n", this.depth, this.getters, this.warmup, this.iterations, this.procOnly ? " (proc-only)" : "");
+		System.out.printf("%8s %10s %10s %12s %8s %12s %8s %12s%n", "trees", "best ms", "mean ms", "alloc MB", "sources", "source B", "classes", "class B");
+		for (int size : this.sizes) {
+			SyntheticCorpus corpus = new SyntheticCorpus(size, this.depth, this.getters);
+			for (int i = 0; i < this.warmup; i++)
+				this.run(corpus);
+			
+			Sample last = null;
+			long best = Long.MAX_VALUE;
+			long total = 0;
+			long allocated = 0;
+			for (int i = 0; i < this.iterations; i++) {
+				last = this.run(corpus);
+				best = Math.min(best, last.nanos);
+				total += last.nanos;
+				allocated += last.allocated;
+			}
+			if (last == null)
+				continue;
+			System.out.printf("%8d %10.1f %10.1f %12.1f %8d %12d %8d %12d%n", size, best / 1e6, total / 1e6 / this.iterations,
+					allocated / (double) this.iterations / (1 << 20), last.sources, last.sourceBytes, last.classes, last.classBytes);
+		}
+	}
+	
+	protected static class Sample {
+		long nanos;
+		long allocated;
+		int sources;
+		long sourceBytes;
+		int classes;
+		long classBytes;
+	}
+	
+	/**
+	 * Processor that counts allocations on its worker threads (javac's thread is measured by the harness)
+	 */
+	protected static class MeasuringProcessor extends SyntheticCorpus.BaseProcessor {
+		final LongAdder workerBytes = new LongAdder();
+		
+		@Override
+		protected <T> void invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) {
+			if (pool == null) {
+				super.invokeAll(pool, tasks);
+				return;
+			}
+			// The calling thread may run some of the tasks itself, and those are already counted
+			Thread caller = Thread.currentThread();
+			List<Callable<T>> measured = new ArrayList<>(tasks.size());
+			for (Callable<T> task : tasks) {
+				measured.add(() -> {
+					if (Thread.currentThread() == caller)
+						return task.call();
+					long start = allocatedBytes();
+					try {
+						return task.call();
+					} finally {
+						this.workerBytes.add(allocatedBytes() - start);
+					}
+				});
+			}
+			super.invokeAll(pool, measured);
+		}
+		
+		@Override
+		protected OutputInfo render(TreeImplSpec impl, RenderBufferPool buffers) throws IOException, InterruptedException {
+			long start = allocatedBytes();
+			try {
+				return super.render(impl, buffers);
+			} finally {
+				this.workerBytes.add(allocatedBytes() - start);
+			}
+		}
+	}
+	
+	public static void main(String...args) {
+		CompileHarness harness = new CompileHarness();
+		harness.parse(args);
+		harness.run();
+	}
+}
@@ -0,0 +1,141 @@
+package com.mindlin.nautilus.tools.irgen.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+
+/**
+ * File manager that keeps all outputs (generated sources & resources, and class files) in memory.
+ * Inputs are read through the delegate.
+ */
+public class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+	protected final List<MemoryFile> outputs = new ArrayList<>();
+	
+	public MemoryFileManager(StandardJavaFileManager delegate) {
+		super(delegate);
+	}
+	
+	protected synchronized MemoryFile addOutput(String path, Kind kind) {
+		MemoryFile result = new MemoryFile(URI.create("mem:///" + path), kind);
+		this.outputs.add(result);
+		return result;
+	}
+	
+	@Override
+	public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind, FileObject sibling) {
+		return this.addOutput(location.getName() + "/" + className.replace('.', '/') + kind.extension, kind);
+	}
+	
+	@Override
+	public FileObject getFileForOutput(Location location, String packageName, String relativeName, FileObject sibling) {
+		String path = packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + "/" + relativeName;
+		return this.addOutput(location.getName() + "/" + path, Kind.OTHER);
+	}
+	
+	public synchronized List<MemoryFile> getOutputs() {
+		return Collections.unmodifiableList(new ArrayList<>(this.outputs));
+	}
+	
+	/**
+	 * @return Last output of kind that was written to path (relative to its location), or null
+	 */
+	public synchronized MemoryFile getOutput(Kind kind, String path) {
+		for (int i = this.outputs.size() - 1; i >= 0; i--) {
+			MemoryFile output = this.outputs.get(i);
+			if (output.getKind() == kind && output.toUri().getPath().endsWith("/" + path))
+				return output;
+		}
+		return null;
+	}
+	
+	/**
+	 * Class loader for the compiled classes (e.g., to run generated impls). Classes that weren't compiled
+	 * are loaded by parent.
+	 */
+	public ClassLoader newClassLoader(ClassLoader parent) {
+		return new ClassLoader(parent) {
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException {
+				MemoryFile file = MemoryFileManager.this.getOutput(Kind.CLASS, name.replace('.', '/') + Kind.CLASS.extension);
+				if (file == null)
+					throw new ClassNotFoundException(name);
+				byte[] bytes = file.toByteArray();
+				return this.defineClass(name, bytes, 0, bytes.length);
+			}
+		};
+	}
+	
+	/**
+	 * @return Number of output files of kind
+	 */
+	public synchronized int getCount(Kind kind) {
+		int result = 0;
+		for (MemoryFile output : this.outputs)
+			if (output.getKind() == kind)
+				result++;
+		return result;
+	}
+	
+	/**
+	 * @return Total size of output files of kind
+	 */
+	public synchronized long getBytes(Kind kind) {
+		long result = 0;
+		for (MemoryFile output : this.outputs)
+			if (output.getKind() == kind)
+				result += output.size();
+		return result;
+	}
+	
+	public static class MemoryFile extends SimpleJavaFileObject {
+		protected final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		
+		protected MemoryFile(URI uri, Kind kind) {
+			super(uri, kind);
+		}
+		
+		public int size() {
+			return this.content.size();
+		}
+		
+		public byte[] toByteArray() {
+			return this.content.toByteArray();
+		}
+		
+		@Override
+		public OutputStream openOutputStream() {
+			this.content.reset();
+			return this.content;
+		}
+		
+		@Override
+		public Writer openWriter() {
+			return new OutputStreamWriter(this.openOutputStream(), StandardCharsets.UTF_8);
+		}
+		
+		@Override
+		public InputStream openInputStream() {
+			return new ByteArrayInputStream(this.content.toByteArray());
+		}
+		
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return new String(this.content.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,414 @@
+package com.mindlin.nautilus.tools.irgen.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.mindlin.nautilus.tools.irgen.IRAnnotationProcessor;
+import com.mindlin.nautilus.tools.irgen.ir.TreeImplSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TreeSpec;
+
+/**
+ * Generates a synthetic tree hierarchy, and runs the processor over it (in memory) to capture the
+ * specs it builds.
+ * <p>
+ * The hierarchy is a chain of {@code depth} ADTs ({@code Node0 <- Node1 <- ...}), and {@code size}
+ * impls spread over the chain. Every third impl extends the previous impl instead, so there are
+ * impl-of-impl chains too. Each impl declares {@code getters} getters, cycling through primitive &
+ * object properties, children, and child lists, with {@code @Ordering} constraints between them.
+ * Stubs for the runtime types the processor references are included, so the corpus doesn't need
+ * anything on the classpath.
+ * </p>
+ */
+public class SyntheticCorpus {
+	public static final String PACKAGE = "com.mindlin.nautilus.tree";
+	public static final int DEFAULT_GETTERS = 5;
+	/** Cap on Tree.Kind constants (a huge enum initializer won't compile) */
+	private static final int MAX_KINDS = 64;
+	
+	/** Sources for the runtime types (other than {@code Tree}), as {qualified name, source} */
+	protected static final String[][] RUNTIME = {
+		{"com.mindlin.nautilus.fs.SourcePosition",
+			"package com.mindlin.nautilus.fs;\n"
+			+ "public class SourcePosition {\n"
+			+ "\tpublic final long offset;\n"
+			+ "\tpublic SourcePosition(long offset) { this.offset = offset; }\n"
+			+ "\tpublic long getOffset() { return offset; }\n"
+			+ "}\n"},
+		{"com.mindlin.nautilus.fs.SourceRange",
+			"package com.mindlin.nautilus.fs;\n"
+			+ "public class SourceRange {\n"
+			+ "\tfinal SourcePosition start, end;\n"
+			+ "\tpublic SourceRange(SourcePosition start, SourcePosition end) { this.start = start; this.end = end; }\n"
+			+ "\tpublic SourcePosition getStart() { return start; }\n"
+			+ "\tpublic SourcePosition getEnd() { return end; }\n"
+			+ "}\n"},
+		{"com.mindlin.nautilus.tree.annotations.NonNull",
+			"package com.mindlin.nautilus.tree.annotations;\n"
+			+ "import java.lang.annotation.*;\n"
+			+ "@Target({ElementType.TYPE_USE}) public @interface NonNull {}\n"},
+		{"com.mindlin.nautilus.tree.annotations.Nullable",
+			"package com.mindlin.nautilus.tree.annotations;\n"
+			+ "import java.lang.annotation.*;\n"
+			+ "@Target({ElementType.TYPE_USE}) public @interface Nullable {}\n"},
+		{"com.mindlin.nautilus.tree.annotations.Optional",
+			"package com.mindlin.nautilus.tree.annotations;\n"
+			+ "public @interface Optional {}\n"},
+		{"com.mindlin.nautilus.tree.annotations.Ordering",
+			"package com.mindlin.nautilus.tree.annotations;\n"
+			+ "public @interface Ordering {\n"
+			+ "\tint value() default -1;\n"
+			+ "\t@interface First {}\n"
+			+ "\t@interface Last {}\n"
+			+ "\t@interface Before { String value(); }\n"
+			+ "\t@interface After { String value(); }\n"
+			+ "}\n"},
+		{"com.mindlin.nautilus.tree.impl.AbstractTree",
+			"package com.mindlin.nautilus.tree.impl;\n"
+			+ "import com.mindlin.nautilus.fs.SourceRange;\n"
+			+ "import com.mindlin.nautilus.tree.Tree;\n"
+			+ "public abstract class AbstractTree implements Tree {\n"
+			+ "\tprotected final SourceRange range;\n"
+			+ "\tprotected AbstractTree(SourceRange range) { this.range = range; }\n"
+			+ "\t@Override public SourceRange getRange() { return range; }\n"
+			+ "\tprotected int hash() { return getClass().hashCode(); }\n"
+			+ "\t@Override public boolean equivalentTo(Tree other) { return other != null && other.getClass() == getClass(); }\n"
+			+ "}\n"},
+	};
+	
+	protected final int size;
+	protected final int depth;
+	protected final int getters;
+	/** Sources, by qualified name */
+	protected final Map<String, String> sources = new LinkedHashMap<>();
+	
+	public SyntheticCorpus(int size, int depth) {
+		this(size, depth, DEFAULT_GETTERS);
+	}
+	
+	public SyntheticCorpus(int size, int depth, int getters) {
+		if (size < 1 || depth < 1 || getters < 0)
+			throw new IllegalArgumentException(String.format("Illegal corpus size=%d depth=%d getters=%d", size, depth, getters));
+		this.size = size;
+		this.depth = depth;
+		this.getters = getters;
+		for (String[] runtime : RUNTIME)
+			this.sources.put(runtime[0], runtime[1]);
+		this.sources.put(PACKAGE + ".Tree", this.generateTree());
+		for (int i = 0; i < depth; i++)
+			this.sources.put(PACKAGE + ".Node" + i, this.generateNode(i));
+		for (int i = 0; i < size; i++)
+			this.sources.put(PACKAGE + ".Impl" + i + "Tree", this.generateImpl(i));
+	}
+	
+	protected String generateTree() {
+		StringBuilder sb = new StringBuilder()
+				.append("package ").append(PACKAGE).append(";\n")
+				.append("import java.lang.annotation.*;\n")
+				.append("import java.util.*;\n")
+				.append("import com.mindlin.nautilus.fs.SourceRange;\n")
+				.append("public interface Tree {\n")
+				.append("\tenum Kind {");
+		for (int i = 0; i < this.getKindCount(); i++)
+			sb.append(i == 0 ? " " : ", ").append("K").append(i);
+		return sb.append(" }\n")
+				.append("\t@Retention(RetentionPolicy.CLASS) @interface Impl { Kind[] value() default {}; }\n")
+				.append("\t@Retention(RetentionPolicy.CLASS) @interface ADT { Kind[] value() default {}; }\n")
+				.append("\t@Retention(RetentionPolicy.CLASS) @interface NoImpl { Kind[] value() default {}; }\n")
+				.append("\t@Retention(RetentionPolicy.CLASS) @interface Property { String name() default \"__infer__\"; boolean hash() default true; boolean compare() default true; }\n")
+				.append("\t@Retention(RetentionPolicy.CLASS) @interface Child { String name() default \"__infer__\"; boolean hash() default true; boolean compare() default true; }\n")
+				.append("\t@Retention(RetentionPolicy.CLASS) @interface Children { String name() default \"__infer__\"; boolean hash() default true; boolean compare() default true; }\n")
+				.append("\tSourceRange getRange();\n")
+				.append("\tboolean equivalentTo(Tree other);\n")
+				.append("\tstatic boolean equivalentTo(Tree a, Tree b) { return a == b || (a != null && b != null && a.equivalentTo(b)); }\n")
+				.append("\tstatic boolean equivalentTo(Collection<? extends Tree> a, Collection<? extends Tree> b) { return Objects.equals(a, b); }\n")
+				.append("\tstatic boolean equivalentToUnordered(Collection<? extends Tree> a, Collection<? extends Tree> b) { return Objects.equals(a, b); }\n")
+				.append("}\n")
+				.toString();
+	}
+	
+	protected String generateNode(int level) {
+		return new StringBuilder()
+				.append("package ").append(PACKAGE).append(";\n")
+				.append("@Tree.ADT\n")
+				.append("public interface Node").append(level).append(" extends ").append(level == 0 ? "Tree" : "Node" + (level - 1)).append(" {\n")
+				.append("\t@Tree.Property\n")
+				.append("\tint getWeight").append(level).append("();\n")
+				.append("}\n")
+				.toString();
+	}
+	
+	protected int getKindCount() {
+		return Math.min(this.size, MAX_KINDS);
+	}
+	
+	/**
+	 * Name of getter {@code j} of impl {@code i}
+	 */
+	protected static String getGetterName(int i, int j) {
+		switch (j % 4) {
+			case 0:
+				return "value" + i + "_" + j;
+			case 1:
+				return "label" + i + "_" + j;
+			case 2:
+				return "child" + i + "_" + j;
+			case 3:
+			default:
+				return "items" + i + "_" + j;
+		}
+	}
+	
+	protected String generateImpl(int i) {
+		String parent = (i % 3 == 2) ? "Impl" + (i - 1) + "Tree" : "Node" + (i % this.depth);
+		StringBuilder sb = new StringBuilder()
+				.append("package ").append(PACKAGE).append(";\n")
+				.append("import java.util.List;\n")
+				.append("import com.mindlin.nautilus.tree.annotations.NonNull;\n")
+				.append("import com.mindlin.nautilus.tree.annotations.Ordering;\n")
+				.append("@Tree.Impl({Tree.Kind.K").append(i % this.getKindCount()).append("})\n")
+				.append("public interface Impl").append(i).append("Tree extends ").append(parent).append(" {\n");
+		for (int j = 0; j < this.getters; j++) {
+			String name = getGetterName(i, j);
+			String getter = "get" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+			
+			if (j == 0)
+				sb.append("\t@Ordering.First\n");
+			else if (j % 3 == 1)
+				sb.append("\t@Ordering.After(\"").append(getGetterName(i, j - 1)).append("\")\n");
+			else if (j % 3 == 2 && j + 1 < this.getters)
+				sb.append("\t@Ordering.Before(\"").append(getGetterName(i, j + 1)).append("\")\n");
+			
+			switch (j % 4) {
+				case 0:
+					sb.append("\t@Tree.Property\n\tlong ");
+					break;
+				case 1:
+					sb.append("\t@Tree.Property\n\t@NonNull String ");
+					break;
+				case 2:
+					sb.append("\t@Tree.Child\n\tNode0 ");
+					break;
+				case 3:
+				default:
+					sb.append("\t@Tree.Children\n\tList<? extends Node0> ");
+					break;
+			}
+			sb.append(getter).append("();\n");
+		}
+		return sb.append("}\n").toString();
+	}
+	
+	public int getSize() {
+		return this.size;
+	}
+	
+	public int getDepth() {
+		return this.depth;
+	}
+	
+	public int getGetters() {
+		return this.getters;
+	}
+	
+	/**
+	 * @return Generated sources, by qualified name
+	 */
+	public Map<String, String> getSources() {
+		return Collections.unmodifiableMap(this.sources);
+	}
+	
+	public List<JavaFileObject> getFileObjects() {
+		List<JavaFileObject> result = new ArrayList<>(this.sources.size());
+		for (Map.Entry<String, String> source : this.sources.entrySet())
+			result.add(new StringSource(source.getKey(), source.getValue()));
+		return result;
+	}
+	
+	/**
+	 * Run the processor over the corpus (annotation processing only), and capture the specs it
+	 * builds instead of writing them.
+	 * <p>
+	 * The captured specs still reference javac's elements, which stay usable (for rendering) after
+	 * the compilation is done.
+	 * </p>
+	 * @param options Extra javac options (e.g., {@code -Airgen.verbose})
+	 * @throws IllegalStateException If processing failed
+	 */
+	public Result process(String...options) {
+		JavaCompiler compiler = getCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		CapturingProcessor processor = new CapturingProcessor();
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
+			this.call(compiler, fileManager, diagnostics, processor, "-proc:only", options);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return new Result(processor.specs, processor.impls);
+	}
+	
+	/**
+	 * Compile the corpus (including the generated impls) in memory.
+	 * @param processor Processor to run (e.g., a {@link BaseProcessor})
+	 * @param options Extra javac options
+	 * @return File manager, holding the outputs
+	 * @throws IllegalStateException If compilation failed
+	 */
+	public MemoryFileManager compile(Processor processor, String...options) {
+		JavaCompiler compiler = getCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		try (MemoryFileManager fileManager = new MemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null))) {
+			this.call(compiler, fileManager, diagnostics, processor, null, options);
+			return fileManager;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	protected static JavaCompiler getCompiler() {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null)
+			throw new IllegalStateException("No system Java compiler (are you running on a JRE?)");
+		return compiler;
+	}
+	
+	protected void call(JavaCompiler compiler, JavaFileManager fileManager, DiagnosticCollector<JavaFileObject> diagnostics, Processor processor, String mode, String...options) {
+		List<String> args = new ArrayList<>();
+		if (mode != null)
+			args.add(mode);
+		args.addAll(Arrays.asList("-nowarn", "-Airgen.logLevel=error"));
+		args.addAll(Arrays.asList(options));
+		
+		JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, args, null, this.getFileObjects());
+		task.setProcessors(Collections.singletonList(processor));
+		if (!task.call()) {
+			StringBuilder sb = new StringBuilder("Error compiling synthetic corpus:");
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+				if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+					sb.append('\n').append(diagnostic);
+			throw new IllegalStateException(sb.toString());
+		}
+	}
+	
+	public static class Result {
+		/** All specs, by qualified name */
+		public final Map<String, TreeSpec> specs;
+		/** Impls, in the order they were built */
+		public final List<TreeImplSpec> impls;
+		
+		protected Result(Map<String, TreeSpec> specs, List<TreeImplSpec> impls) {
+			this.specs = Collections.unmodifiableMap(specs);
+			this.impls = Collections.unmodifiableList(impls);
+		}
+	}
+	
+	/**
+	 * {@link IRAnnotationProcessor}, for subclassing (its processor annotations aren't inherited)
+	 */
+	public static class BaseProcessor extends IRAnnotationProcessor {
+		@Override
+		public Set<String> getSupportedAnnotationTypes() {
+			return new HashSet<>(Arrays.asList(IRAnnotationProcessor.class.getAnnotation(SupportedAnnotationTypes.class).value()));
+		}
+		
+		@Override
+		public Set<String> getSupportedOptions() {
+			return new HashSet<>(Arrays.asList(IRAnnotationProcessor.class.getAnnotation(SupportedOptions.class).value()));
+		}
+		
+		@Override
+		public SourceVersion getSupportedSourceVersion() {
+			return SourceVersion.latestSupported();
+		}
+	}
+	
+	/**
+	 * Processor that keeps the specs it builds, instead of writing them
+	 */
+	protected static class CapturingProcessor extends BaseProcessor {
+		final Map<String, TreeSpec> specs = new LinkedHashMap<>();
+		final List<TreeImplSpec> impls = new ArrayList<>();
+		
+		@Override
+		protected Map<String, TreeImplSpec> processImplOutputs(TypeElement annotation, Map<String, TreeSpec> specs) {
+			this.specs.putAll(specs);
+			return super.processImplOutputs(annotation, specs);
+		}
+		
+		@Override
+		protected void writeOutputsMP(Collection<TreeImplSpec> impls) {
+			this.impls.addAll(impls);
+		}
+	}
+	
+	protected static class StringSource extends SimpleJavaFileObject {
+		protected final String content;
+		
+		public StringSource(String className, String content) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.content = content;
+		}
+		
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return this.content;
+		}
+	}
+	
+	/**
+	 * Writer that discards its output
+	 */
+	public static class NullWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+		
+		@Override
+		public void write(String str, int off, int len) {
+		}
+		
+		@Override
+		public void flush() {
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+	
+	public static void main(String...args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int getters = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_GETTERS;
+		Result result = new SyntheticCorpus(size, depth, getters).process();
+		System.out.printf("%d specs, %d impls%n", result.specs.size(), result.impls.size());
+		if (!result.impls.isEmpty()) {
+			Writer out = new java.io.OutputStreamWriter(System.out);
+			result.impls.get(result.impls.size() - 1).write(out);
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.mindlin.nautilus.tools.irgen.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mindlin.nautilus.tools.irgen.bench.SyntheticCorpus;
+import com.mindlin.nautilus.tools.irgen.ir.ClassName;
+
+/**
+ * {@link CodeWriter#emit(Template, Object...)}: {@code size} statements (half of them referencing
+ * imported classes) at {@code depth} levels of indentation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeWriterBenchmark {
+	private static final String PATTERN = "this.$N = $T.requireNonNull($N, $L);";
+	private static final Template TEMPLATE = Template.compile(PATTERN);
+	
+	@Param({"100", "1000", "10000"})
+	public int size;
+	
+	@Param({"1", "4"})
+	public int depth;
+	
+	protected List<ClassName> types;
+	protected List<String> names;
+	
+	@Setup
+	public void setup() {
+		this.types = new ArrayList<>(this.size);
+		this.names = new ArrayList<>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			this.types.add(new ClassName("com.example.p" + (i % 8), "Type" + i));
+			this.names.add("field" + i);
+		}
+	}
+	
+	protected CodeWriter newWriter() {
+		CodeWriter writer = new CodeWriter(new SyntheticCorpus.NullWriter());
+		writer.setPackage("com.example.p0");
+		for (int i = 0; i < this.size; i += 2)
+			writer.addImport(this.types.get(i));
+		writer.pushIndent(this.depth);
+		return writer;
+	}
+	
+	@Benchmark
+	public CodeWriter emitTemplate() {
+		CodeWriter writer = this.newWriter();
+		for (int i = 0; i < this.size; i++) {
+			writer.emit(TEMPLATE, this.names.get(i), this.types.get(i), this.names.get(i), i);
+			writer.println();
+		}
+		writer.flush();
+		return writer;
+	}
+	
+	/**
+	 * Same as {@link #emitTemplate()}, but looking up the template on every call
+	 */
+	@Benchmark
+	public CodeWriter emitPattern() {
+		CodeWriter writer = this.newWriter();
+		for (int i = 0; i < this.size; i++) {
+			writer.emit(PATTERN, this.names.get(i), this.types.get(i), this.names.get(i), i);
+			writer.println();
+		}
+		writer.flush();
+		return writer;
+	}
+}
@@ -0,0 +1,95 @@
+package com.mindlin.nautilus.tools.irgen.ir;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.mindlin.nautilus.tools.irgen.bench.SyntheticCorpus;
+import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.codegen.RenderBuffer;
+import com.mindlin.nautilus.tools.irgen.codegen.RenderBufferPool;
+
+/**
+ * Rendering the impls of a {@link SyntheticCorpus} of {@code size} trees, with an ADT chain
+ * {@code depth} deep. The corpus is run through the processor once per trial, so only rendering
+ * is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeImplSpecBenchmark {
+	@Param({"100", "1000"})
+	public int size;
+	
+	@Param({"2", "8"})
+	public int depth;
+	
+	protected List<TreeImplSpec> impls;
+	protected final RenderBufferPool buffers = new RenderBufferPool(1 << 20);
+	
+	@Setup
+	public void setup() {
+		this.impls = new SyntheticCorpus(this.size, this.depth).process().impls;
+	}
+	
+	/**
+	 * {@link ClassSpec#writeImports(CodeWriter)} for every impl
+	 */
+	@Benchmark
+	public void writeImports(Blackhole bh) {
+		for (TreeImplSpec impl : this.impls) {
+			CodeWriter writer = new CodeWriter(new SyntheticCorpus.NullWriter());
+			writer.setPackage(impl.getPackage());
+			impl.writeImports(writer);
+			writer.flush();
+			bh.consume(writer);
+		}
+	}
+	
+	/**
+	 * Full {@link TreeImplSpec#write(java.io.Writer)} for every impl
+	 */
+	@Benchmark
+	public void write() throws IOException {
+		SyntheticCorpus.NullWriter out = new SyntheticCorpus.NullWriter();
+		for (TreeImplSpec impl : this.impls)
+			impl.write(out);
+	}
+	
+	/**
+	 * {@link ClassSpec#writeMP()} (rendering to a string) for every impl
+	 */
+	@Benchmark
+	public void writeMP(Blackhole bh) throws IOException {
+		for (TreeImplSpec impl : this.impls)
+			bh.consume(impl.writeMP());
+	}
+	
+	/**
+	 * {@link ClassSpec#writeMP(RenderBuffer)} (rendering into a pooled buffer) for every impl
+	 */
+	@Benchmark
+	public void writeMPPooled(Blackhole bh) throws IOException, InterruptedException {
+		for (TreeImplSpec impl : this.impls) {
+			RenderBuffer buffer = this.buffers.acquire();
+			bh.consume(impl.writeMP(buffer));
+			this.buffers.release(buffer);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.mindlin.nautilus.tools.irgen.ir;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.ParameterizedTypeName;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.WildcardTypeName;
+
+/**
+ * {@link TypeName#equals(Object)} & {@link TypeName#hashCode()} on {@code size} distinct names, each
+ * nested {@code depth} levels deep ({@code Map<String, List<? extends Map<String, ... Type0>>>}).
+ * <p>
+ * Every name is built twice, so equality checks compare equal (but not identical) structures.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeNameBenchmark {
+	private static final ClassName MAP = ClassName.get(Map.class);
+	private static final ClassName LIST = ClassName.get(List.class);
+	private static final ClassName STRING = ClassName.get(String.class);
+	
+	@Param({"100", "1000"})
+	public int size;
+	
+	@Param({"1", "4", "16"})
+	public int depth;
+	
+	protected TypeName[] names;
+	/** Equal to {@link #names}, but different instances */
+	protected TypeName[] copies;
+	protected Set<TypeName> set;
+	
+	protected static TypeName build(int i, int depth) {
+		TypeName result = new ClassName("com.example.p" + (i % 8), "Type" + i);
+		for (int level = 0; level < depth; level++) {
+			if (level % 2 == 0)
+				result = new ParameterizedTypeName(null, MAP, Arrays.asList(STRING, result), Collections.emptyList());
+			else
+				result = new ParameterizedTypeName(null, LIST, Arrays.asList(new WildcardTypeName(null, result, Collections.emptyList())), Collections.emptyList());
+		}
+		return result;
+	}
+	
+	@Setup
+	public void setup() {
+		this.names = new TypeName[this.size];
+		this.copies = new TypeName[this.size];
+		for (int i = 0; i < this.size; i++) {
+			this.names[i] = build(i, this.depth);
+			this.copies[i] = build(i, this.depth);
+		}
+		this.set = new HashSet<>(Arrays.asList(this.names));
+	}
+	
+	@Benchmark
+	public void hashCodes(Blackhole bh) {
+		for (TypeName name : this.copies)
+			bh.consume(name.hashCode());
+	}
+	
+	@Benchmark
+	public void equalsEqual(Blackhole bh) {
+		for (int i = 0; i < this.size; i++)
+			bh.consume(this.names[i].equals(this.copies[i]));
+	}
+	
+	@Benchmark
+	public void equalsDifferent(Blackhole bh) {
+		for (int i = 0; i < this.size; i++)
+			bh.consume(this.names[i].equals(this.copies[(i + 1) % this.size]));
+	}
+	
+	@Benchmark
+	public void setLookup(Blackhole bh) {
+		for (TypeName name : this.copies)
+			bh.consume(this.set.contains(name));
+	}
+}
@@ -0,0 +1,105 @@
+package com.mindlin.nautilus.tools.irgen.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Orderable#sorted(java.util.Collection)} over a layered DAG: {@code size} nodes in
+ * {@code depth} layers, where each node has to come after (up to) two nodes in the previous layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderableBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int size;
+	
+	@Param({"4", "16"})
+	public int depth;
+	
+	protected List<Node> nodes;
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(this.size * 31 + this.depth);
+		this.nodes = new ArrayList<>(this.size);
+		int layerSize = Math.max(1, this.size / this.depth);
+		for (int i = 0; i < this.size; i++) {
+			Node node = new Node("n" + i);
+			int layer = i / layerSize;
+			if (layer > 0) {
+				int base = (layer - 1) * layerSize;
+				node.before.add("n" + (base + random.nextInt(layerSize)));
+				node.before.add("n" + (base + random.nextInt(layerSize)));
+			}
+			this.nodes.add(node);
+		}
+		// Don't hand the sort its answer
+		Collections.shuffle(this.nodes, random);
+	}
+	
+	@Benchmark
+	public List<Node> sorted() {
+		return Orderable.sorted(this.nodes);
+	}
+	
+	@Benchmark
+	public List<Node> sortedBy() {
+		return Orderable.sortedBy(this.nodes, Comparator.comparing(Node::getOrderName));
+	}
+	
+	protected static class Node implements Orderable<String> {
+		final String name;
+		final Set<String> before = new HashSet<>();
+		
+		Node(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public boolean isFirst() {
+			return false;
+		}
+		
+		@Override
+		public boolean isLast() {
+			return false;
+		}
+		
+		@Override
+		public Set<String> getBefore() {
+			return this.before;
+		}
+		
+		@Override
+		public Set<String> getAfter() {
+			return Collections.emptySet();
+		}
+		
+		@Override
+		public String getOrderName() {
+			return this.name;
+		}
+	}
+}
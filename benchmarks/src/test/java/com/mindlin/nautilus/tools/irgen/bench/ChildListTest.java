@@ -0,0 +1,80 @@
+package com.mindlin.nautilus.tools.irgen.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the generated {@code ChildList}, and impls that copy into it
+ */
+public class ChildListTest {
+	protected static RuntimeCorpus corpus() {
+		return new RuntimeCorpus()
+				.add("NameTree",
+						"@Tree.Impl({Tree.Kind.NAME})",
+						"public interface NameTree extends Tree {",
+						"	@Tree.Property",
+						"	String getName();",
+						"}")
+				.add("ListTree",
+						"@Tree.Impl({Tree.Kind.LIST})",
+						"public interface ListTree extends Tree {",
+						"	@Tree.Children",
+						"	List<? extends Tree> getElements();",
+						"}")
+				.add("Driver",
+						"public class Driver {",
+						"	static final SourceRange RANGE = new SourceRange(null, null);",
+						"	public static List<Object> copyOf() {",
+						"		List<Tree> elements = new ArrayList<>();",
+						"		elements.add(new NameTreeImpl(RANGE, \"a\"));",
+						"		elements.add(null);",
+						"		ChildList<Tree> copy = ChildList.copyOf(elements);",
+						"		elements.add(new NameTreeImpl(RANGE, \"b\"));",
+						"		boolean immutable;",
+						"		try {",
+						"			copy.add(null);",
+						"			immutable = false;",
+						"		} catch (UnsupportedOperationException e) {",
+						"			immutable = true;",
+						"		}",
+						"		return Arrays.asList(",
+						"				ChildList.copyOf(null) == null,",
+						"				ChildList.copyOf(copy) == copy,",
+						"				ChildList.copyOf(Collections.emptyList()) == ChildList.copyOf(new ArrayList<>()),",
+						"				copy.size(),",
+						"				copy.equals(elements.subList(0, 2)) && copy.hashCode() == elements.subList(0, 2).hashCode(),",
+						"				immutable);",
+						"	}",
+						"	public static List<Object> impl() {",
+						"		List<Tree> elements = new ArrayList<>();",
+						"		elements.add(new NameTreeImpl(RANGE, \"a\"));",
+						"		ListTree tree = new ListTreeImpl(RANGE, elements);",
+						"		elements.add(new NameTreeImpl(RANGE, \"b\"));",
+						"		ChildList<Tree> copy = ChildList.copyOf(elements);",
+						"		return Arrays.asList(",
+						"				tree.getElements() instanceof ChildList,",
+						"				tree.getElements().size(),",
+						"				new ListTreeImpl(RANGE, copy).getElements() == copy,",
+						"				(Object) new ListTreeImpl(RANGE, Collections.emptyList()).getElements() == ChildList.copyOf(Collections.emptyList()));",
+						"	}",
+						"}");
+	}
+	
+	@Test
+	public void testCopyOf() throws Throwable {
+		ClassLoader loader = corpus().compile("-Airgen.childLists=true");
+		List<Object> expected = Arrays.asList(true, true, true, 2, true, true);
+		assertEquals(expected, RuntimeCorpus.invoke(loader, "Driver", "copyOf"));
+	}
+	
+	@Test
+	public void testImplCopies() throws Throwable {
+		ClassLoader loader = corpus().compile("-Airgen.childLists=true");
+		List<Object> expected = Arrays.asList(true, 1, true, true);
+		assertEquals(expected, RuntimeCorpus.invoke(loader, "Driver", "impl"));
+	}
+}
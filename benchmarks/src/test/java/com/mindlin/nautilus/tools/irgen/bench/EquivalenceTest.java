@@ -0,0 +1,77 @@
+package com.mindlin.nautilus.tools.irgen.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs generated {@code equivalentTo()}, with iterative equivalence (and memoized hashes)
+ */
+public class EquivalenceTest {
+	protected static RuntimeCorpus corpus() {
+		return new RuntimeCorpus()
+				.add("NameTree",
+						"@Tree.Impl({Tree.Kind.NAME})",
+						"public interface NameTree extends Tree {",
+						"	@Tree.Property",
+						"	String getName();",
+						"}")
+				.add("BlockTree",
+						"@Tree.Impl({Tree.Kind.BLOCK})",
+						"public interface BlockTree extends Tree {",
+						"	@Tree.Property",
+						"	String getLabel();",
+						"	@Tree.Children",
+						"	Collection<? extends Tree> getStatements();",
+						"}")
+				.add("Driver",
+						"public class Driver {",
+						"	static final SourceRange RANGE = new SourceRange(null, null);",
+						"	static Tree name(String name) {",
+						"		return new NameTreeImpl(RANGE, name);",
+						"	}",
+						"	static Tree block(String label, Tree...statements) {",
+						"		Tree result = new BlockTreeImpl(RANGE, label, Arrays.asList(statements));",
+						"		// Memoize the hash (if it's cached)",
+						"		result.hashCode();",
+						"		return result;",
+						"	}",
+						"	public static List<Boolean> compare() {",
+						"		Tree tree = block(\"x\", name(\"a\"), name(\"b\"), block(\"y\", name(\"c\")));",
+						"		return Arrays.asList(",
+						"				tree.equivalentTo(block(\"x\", name(\"a\"), name(\"b\"), block(\"y\", name(\"c\")))),",
+						"				tree.equivalentTo(block(\"x\", block(\"y\", name(\"c\")), name(\"b\"), name(\"a\"))),",
+						"				tree.equivalentTo(block(\"z\", name(\"a\"), name(\"b\"), block(\"y\", name(\"c\")))),",
+						"				tree.equivalentTo(block(\"x\", name(\"a\"), name(\"b\"), block(\"y\", name(\"d\")))),",
+						"				tree.equivalentTo(block(\"x\", name(\"a\"), name(\"b\"))));",
+						"	}",
+						"}");
+	}
+	
+	protected static void check(String...options) throws Throwable {
+		ClassLoader loader = corpus().compile(options);
+		List<Boolean> expected = Arrays.asList(true, true, false, false, false);
+		assertEquals(expected, RuntimeCorpus.invoke(loader, "Driver", "compare"));
+	}
+	
+	@Test
+	public void testRecursive() throws Throwable {
+		check();
+	}
+	
+	@Test
+	public void testIterative() throws Throwable {
+		check("-Airgen.iterativeEquivalence=true");
+	}
+	
+	/**
+	 * Unordered children are hashed in order (& through a wrapper), so the hashes of equivalent trees can differ
+	 */
+	@Test
+	public void testIterativeCachedHashUnordered() throws Throwable {
+		check("-Airgen.iterativeEquivalence=true", "-Airgen.cacheHash=true");
+	}
+}
@@ -0,0 +1,63 @@
+package com.mindlin.nautilus.tools.irgen.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the generated {@code TreeFactory}
+ */
+public class FactoryTest {
+	protected static RuntimeCorpus corpus() {
+		return new RuntimeCorpus()
+				.add("NameTree",
+						"@Tree.Impl({Tree.Kind.NAME})",
+						"public interface NameTree extends Tree {",
+						"	@Tree.Property",
+						"	String getName();",
+						"}")
+				.add("ListTree",
+						"@Tree.Impl({Tree.Kind.LIST})",
+						"public interface ListTree extends Tree {",
+						"	@Tree.Children",
+						"	List<? extends Tree> getElements();",
+						"}")
+				.add("Driver",
+						"public class Driver {",
+						"	static final SourceRange RANGE = new SourceRange(null, null);",
+						"	static List<Tree> names(String...names) {",
+						"		List<Tree> result = new ArrayList<>();",
+						"		for (String name : names)",
+						"			result.add(TreeFactory.createName(RANGE, name));",
+						"		return result;",
+						"	}",
+						"	public static List<Object> intern() {",
+						"		List<Tree> elements = names(\"a\", \"b\");",
+						"		ListTree tree = TreeFactory.createList(RANGE, elements);",
+						"		// Modifying the caller's list shouldn't modify the (shared) tree",
+						"		elements.add(TreeFactory.createName(RANGE, \"c\"));",
+						"		ListTree other = TreeFactory.createList(RANGE, names(\"a\", \"b\"));",
+						"		ListTree different = TreeFactory.createList(RANGE, names(\"a\", \"c\"));",
+						"		return Arrays.asList(tree.getElements().size(), tree == other, tree == different,",
+						"				TreeFactory.createName(RANGE, \"a\") == TreeFactory.createName(RANGE, \"a\"));",
+						"	}",
+						"}");
+	}
+	
+	@Test
+	public void testInternCopiesLists() throws Throwable {
+		ClassLoader loader = corpus().compile("-Airgen.factory=intern");
+		List<Object> expected = Arrays.asList(2, true, false, true);
+		assertEquals(expected, RuntimeCorpus.invoke(loader, "Driver", "intern"));
+	}
+	
+	@Test
+	public void testInternCopiesChildLists() throws Throwable {
+		ClassLoader loader = corpus().compile("-Airgen.factory=intern", "-Airgen.childLists=true");
+		List<Object> expected = Arrays.asList(2, true, false, true);
+		assertEquals(expected, RuntimeCorpus.invoke(loader, "Driver", "intern"));
+	}
+}
@@ -0,0 +1,86 @@
+package com.mindlin.nautilus.tools.irgen.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs impls that store positions instead of a {@code SourceRange} (and pass null to {@code AbstractTree})
+ */
+public class LazyRangeTest {
+	protected static RuntimeCorpus corpus() {
+		return new RuntimeCorpus()
+				.add("NameTree",
+						"@Tree.Impl({Tree.Kind.NAME})",
+						"public interface NameTree extends Tree {",
+						"	@Tree.Property",
+						"	String getName();",
+						"}")
+				.add("QualifiedNameTree",
+						"@Tree.Impl({Tree.Kind.PAIR})",
+						"public interface QualifiedNameTree extends NameTree {",
+						"	@Tree.Property",
+						"	String getQualifier();",
+						"}")
+				.add("Driver",
+						"public class Driver {",
+						"	static final SourcePosition START = new SourcePosition(3), END = new SourcePosition(7);",
+						"	static List<Object> range(Tree tree) {",
+						"		SourceRange range = tree.getRange();",
+						"		return Arrays.asList(range.getStart() == START, range.getEnd() == END);",
+						"	}",
+						"	public static List<Object> roundTrip() {",
+						"		List<Object> result = new ArrayList<>();",
+						"		result.addAll(range(new NameTreeImpl(new SourceRange(START, END), \"a\")));",
+						"		result.addAll(range(new NameTreeImpl(START, END, \"a\")));",
+						"		// Subclasses inherit the positions",
+						"		Tree qualified = new QualifiedNameTreeImpl(new SourceRange(START, END), \"a\", \"b\");",
+						"		result.add(qualified instanceof NameTreeImpl);",
+						"		result.addAll(range(qualified));",
+						"		return result;",
+						"	}",
+						"	public static List<Object> abstractTree() {",
+						"		Tree tree = new QualifiedNameTreeImpl(new SourceRange(START, END), \"a\", \"b\");",
+						"		Tree other = new QualifiedNameTreeImpl(new SourceRange(END, START), \"a\", \"b\");",
+						"		Tree different = new QualifiedNameTreeImpl(new SourceRange(START, END), \"a\", \"c\");",
+						"		boolean rejectsNull;",
+						"		try {",
+						"			new NameTreeImpl((SourceRange) null, \"a\");",
+						"			rejectsNull = false;",
+						"		} catch (NullPointerException e) {",
+						"			rejectsNull = true;",
+						"		}",
+						"		// AbstractTree's hash() & equivalentTo() still work with a null range",
+						"		return Arrays.asList(",
+						"				tree.hashCode() == other.hashCode(),",
+						"				tree.equivalentTo(other),",
+						"				tree.equivalentTo(different),",
+						"				rejectsNull);",
+						"	}",
+						"}");
+	}
+	
+	@Test
+	public void testRoundTrip() throws Throwable {
+		ClassLoader loader = corpus().compile("-Airgen.lazyRange=true");
+		List<Object> expected = Arrays.asList(true, true, true, true, true, true, true);
+		assertEquals(expected, RuntimeCorpus.invoke(loader, "Driver", "roundTrip"));
+	}
+	
+	@Test
+	public void testNullAbstractTreeRange() throws Throwable {
+		ClassLoader loader = corpus().compile("-Airgen.lazyRange=true");
+		List<Object> expected = Arrays.asList(true, true, false, true);
+		assertEquals(expected, RuntimeCorpus.invoke(loader, "Driver", "abstractTree"));
+	}
+	
+	@Test
+	public void testNullAbstractTreeRangeCachedHash() throws Throwable {
+		ClassLoader loader = corpus().compile("-Airgen.lazyRange=true", "-Airgen.cacheHash=true", "-Airgen.iterativeEquivalence=true");
+		List<Object> expected = Arrays.asList(true, true, false, true);
+		assertEquals(expected, RuntimeCorpus.invoke(loader, "Driver", "abstractTree"));
+	}
+}
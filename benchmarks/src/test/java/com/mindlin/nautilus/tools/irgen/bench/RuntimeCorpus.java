@@ -0,0 +1,149 @@
+package com.mindlin.nautilus.tools.irgen.bench;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+
+/**
+ * Hand-written trees (and code that uses them), compiled in memory with the processor, so tests can run the
+ * generated impls.
+ * <p>
+ * Includes the runtime stubs from {@link SyntheticCorpus}, a {@code Tree} whose unordered comparison
+ * actually ignores order, and an {@code AbstractTree} that's hashed with {@code hash()}. Sources are added to {@link SyntheticCorpus#PACKAGE}, with {@code java.util},
+ * the {@code fs} & {@code annotations} packages, and the impl package imported.
+ * </p>
+ */
+public class RuntimeCorpus {
+	protected static final String IMPL_PACKAGE = "com.mindlin.nautilus.tree.impl";
+	
+	protected static final String IMPORTS = "import java.util.*;\n"
+			+ "import com.mindlin.nautilus.fs.*;\n"
+			+ "import com.mindlin.nautilus.tree.annotations.*;\n"
+			+ "import " + IMPL_PACKAGE + ".*;\n";
+	
+	protected static final String TREE = "package " + SyntheticCorpus.PACKAGE + ";\n"
+			+ "import java.lang.annotation.*;\n"
+			+ "import java.util.*;\n"
+			+ "import com.mindlin.nautilus.fs.SourceRange;\n"
+			+ "public interface Tree {\n"
+			+ "\tenum Kind { NAME, LIST, BLOCK, PAIR }\n"
+			+ "\t@Retention(RetentionPolicy.CLASS) @interface Impl { Kind[] value() default {}; }\n"
+			+ "\t@Retention(RetentionPolicy.CLASS) @interface ADT { Kind[] value() default {}; }\n"
+			+ "\t@Retention(RetentionPolicy.CLASS) @interface NoImpl { Kind[] value() default {}; }\n"
+			+ "\t@Retention(RetentionPolicy.CLASS) @interface Property { String name() default \"__infer__\"; boolean hash() default true; boolean compare() default true; }\n"
+			+ "\t@Retention(RetentionPolicy.CLASS) @interface Child { String name() default \"__infer__\"; boolean hash() default true; boolean compare() default true; }\n"
+			+ "\t@Retention(RetentionPolicy.CLASS) @interface Children { String name() default \"__infer__\"; boolean hash() default true; boolean compare() default true; }\n"
+			+ "\tSourceRange getRange();\n"
+			+ "\tboolean equivalentTo(Tree other);\n"
+			+ "\tstatic boolean equivalentTo(Tree a, Tree b) { return a == b || (a != null && b != null && a.equivalentTo(b)); }\n"
+			+ "\tstatic boolean equivalentTo(Collection<? extends Tree> a, Collection<? extends Tree> b) {\n"
+			+ "\t\tif (a == b) return true;\n"
+			+ "\t\tif (a == null || b == null || a.size() != b.size()) return false;\n"
+			+ "\t\tIterator<? extends Tree> i = a.iterator(), j = b.iterator();\n"
+			+ "\t\twhile (i.hasNext()) if (!equivalentTo(i.next(), j.next())) return false;\n"
+			+ "\t\treturn true;\n"
+			+ "\t}\n"
+			+ "\tstatic boolean equivalentToUnordered(Collection<? extends Tree> a, Collection<? extends Tree> b) {\n"
+			+ "\t\tif (a == b) return true;\n"
+			+ "\t\tif (a == null || b == null || a.size() != b.size()) return false;\n"
+			+ "\t\tList<Tree> rest = new ArrayList<>(b);\n"
+			+ "\t\tnext: for (Tree x : a) {\n"
+			+ "\t\t\tfor (Iterator<Tree> i = rest.iterator(); i.hasNext();)\n"
+			+ "\t\t\t\tif (equivalentTo(x, i.next())) { i.remove(); continue next; }\n"
+			+ "\t\t\treturn false;\n"
+			+ "\t\t}\n"
+			+ "\t\treturn true;\n"
+			+ "\t}\n"
+			+ "}\n";
+	
+	protected static final String ABSTRACT_TREE = "package " + IMPL_PACKAGE + ";\n"
+			+ "import com.mindlin.nautilus.fs.SourceRange;\n"
+			+ "import " + SyntheticCorpus.PACKAGE + ".Tree;\n"
+			+ "public abstract class AbstractTree implements Tree {\n"
+			+ "\tprotected final SourceRange range;\n"
+			+ "\tprotected AbstractTree(SourceRange range) { this.range = range; }\n"
+			+ "\t@Override public SourceRange getRange() { return range; }\n"
+			+ "\tprotected int hash() { return getClass().hashCode(); }\n"
+			+ "\t@Override public int hashCode() { return hash(); }\n"
+			+ "\t@Override public boolean equivalentTo(Tree other) { return other != null && other.getClass() == getClass(); }\n"
+			+ "}\n";
+	
+	/** Sources, by qualified name */
+	protected final Map<String, String> sources = new LinkedHashMap<>();
+	
+	public RuntimeCorpus() {
+		for (String[] runtime : SyntheticCorpus.RUNTIME)
+			this.sources.put(runtime[0], runtime[1]);
+		this.sources.put(SyntheticCorpus.PACKAGE + ".Tree", TREE);
+		this.sources.put(IMPL_PACKAGE + ".AbstractTree", ABSTRACT_TREE);
+	}
+	
+	/**
+	 * Add a source (declaring a tree, or code that uses them)
+	 * @param simpleName Name of the (top-level) class it declares
+	 * @param lines Source, without the package declaration & imports
+	 */
+	public RuntimeCorpus add(String simpleName, String...lines) {
+		StringBuilder sb = new StringBuilder()
+				.append("package ").append(SyntheticCorpus.PACKAGE).append(";\n")
+				.append(IMPORTS);
+		for (String line : lines)
+			sb.append(line).append('\n');
+		this.sources.put(SyntheticCorpus.PACKAGE + "." + simpleName, sb.toString());
+		return this;
+	}
+	
+	/**
+	 * Compile the sources (and the impls generated for them) in memory
+	 * @param options Extra javac options (e.g., {@code -Airgen.childLists=true})
+	 * @return Loader for the compiled classes
+	 * @throws IllegalStateException If compilation failed
+	 */
+	public ClassLoader compile(String...options) {
+		JavaCompiler compiler = SyntheticCorpus.getCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		List<JavaFileObject> files = new ArrayList<>(this.sources.size());
+		for (Map.Entry<String, String> source : this.sources.entrySet())
+			files.add(new SyntheticCorpus.StringSource(source.getKey(), source.getValue()));
+		
+		List<String> args = new ArrayList<>(Arrays.asList("-nowarn", "-Airgen.logLevel=error"));
+		args.addAll(Arrays.asList(options));
+		
+		try (MemoryFileManager fileManager = new MemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null))) {
+			JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, args, null, files);
+			task.setProcessors(Collections.singletonList(new SyntheticCorpus.BaseProcessor()));
+			if (!task.call()) {
+				StringBuilder sb = new StringBuilder("Error compiling runtime corpus:");
+				for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+					if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+						sb.append('\n').append(diagnostic);
+				throw new IllegalStateException(sb.toString());
+			}
+			// Only the compiled classes & the JDK (there might be other runtime types on the classpath)
+			return fileManager.newClassLoader(null);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Invoke a static, no-arg method of a compiled class
+	 */
+	public static Object invoke(ClassLoader loader, String simpleName, String method) throws Throwable {
+		try {
+			return loader.loadClass(SyntheticCorpus.PACKAGE + "." + simpleName).getMethod(method).invoke(null);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
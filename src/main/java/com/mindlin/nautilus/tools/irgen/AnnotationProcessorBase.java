@@ -12,14 +12,20 @@ import javax.lang.model.type.DeclaredType;
 public class AnnotationProcessorBase {
 	final DeclaredType annotation;
 	final ProcessingEnvironment procEnv;
+	final Logger logger;
 	
 	public AnnotationProcessorBase(ProcessingEnvironment procEnv, DeclaredType annotation) {
+		this(procEnv, annotation, new Logger(procEnv.getMessager()));
+	}
+	
+	public AnnotationProcessorBase(ProcessingEnvironment procEnv, DeclaredType annotation, Logger logger) {
 		this.annotation = annotation;
 		this.procEnv = procEnv;
+		this.logger = Objects.requireNonNull(logger);
 	}
 	
 	protected Logger getLogger() {
-		return new Logger(this.procEnv.getMessager());
+		return this.logger;
 	}
 	
 	/**
@@ -0,0 +1,135 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import java.lang.reflect.Modifier;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.ir.ClassName;
+import com.mindlin.nautilus.tools.irgen.ir.ClassSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName;
+
+/**
+ * {@code ChildList}, an immutable array-backed list.
+ * <p>
+ * If enabled, impls copy collections of children (& collection properties) into a {@code ChildList} once,
+ * when they're constructed, so their getters can return the field instead of wrapping it on every call.
+ * </p>
+ */
+public class ChildListSpec extends ClassSpec {
+	/**
+	 * If fields of a type can hold a {@code ChildList} (only {@link java.util.List} & {@link java.util.Collection};
+	 * sets & maps are still wrapped by their getters)
+	 */
+	public static boolean isSupported(TypeName type) {
+		switch (IRTypes.withoutGenerics(type).toString()) {
+			case IRTypes.LIST:
+			case IRTypes.COLLECTION:
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	public ChildListSpec() {
+	}
+	
+	@Override
+	protected String getSimpleName() {
+		return IRTypes.CHILD_LIST.getSimpleName();
+	}
+	
+	@Override
+	protected String getPackage() {
+		return IRTypes.CHILD_LIST.getPackageName();
+	}
+	
+	@Override
+	protected int getModifiers() {
+		return Modifier.PUBLIC | Modifier.FINAL;
+	}
+	
+	@Override
+	protected void getImports(Collection<? super ClassName> result) {
+		super.getImports(result);
+		result.add(ClassName.get(AbstractList.class));
+		result.add(ClassName.get(Collection.class));
+		result.add(ClassName.get(RandomAccess.class));
+		result.add(ClassName.get(Consumer.class));
+	}
+	
+	@Override
+	protected void writeTypeParameters(CodeWriter writer) {
+		writer.print("<E>");
+	}
+	
+	@Override
+	protected void writeHeritage(CodeWriter writer) {
+		writer.emit("extends $T<E> implements $T ", AbstractList.class, RandomAccess.class);
+	}
+	
+	@Override
+	protected void writeBody(CodeWriter out) {
+		out.println("@SuppressWarnings(\"rawtypes\")");
+		out.println("private static final ChildList EMPTY = new ChildList<>(new Object[0]);");
+		out.println();
+		out.println("private final Object[] elements;");
+		out.println();
+		out.println("private ChildList(Object[] elements) {");
+		out.indentln("this.elements = elements;");
+		out.println("}");
+		out.println();
+		
+		out.println("/**");
+		out.println(" * Immutable copy of {@code elements} (or {@code elements} itself, if it's already a ChildList).");
+		out.println(" * Null stays null.");
+		out.println(" */");
+		out.println("@SuppressWarnings(\"unchecked\")");
+		out.emit("public static <E> ChildList<E> copyOf(final $T<? extends E> elements) {", Collection.class);
+		out.println();
+		out.pushIndent();
+		out.println("if (elements == null)");
+		out.indentln("return null;");
+		out.println("if (elements instanceof ChildList)");
+		out.indentln("return (ChildList<E>) elements;");
+		out.println("if (elements.isEmpty())");
+		out.indentln("return (ChildList<E>) EMPTY;");
+		out.println("return new ChildList<>(elements.toArray());");
+		out.popIndent();
+		out.println("}");
+		out.println();
+		
+		out.println("@Override");
+		out.println("@SuppressWarnings(\"unchecked\")");
+		out.println("public E get(final int index) {");
+		out.indentln("return (E) this.elements[index];");
+		out.println("}");
+		out.println();
+		
+		out.println("@Override");
+		out.println("public int size() {");
+		out.indentln("return this.elements.length;");
+		out.println("}");
+		out.println();
+		
+		out.println("@Override");
+		out.println("public Object[] toArray() {");
+		out.indentln("return this.elements.clone();");
+		out.println("}");
+		out.println();
+		
+		out.println("@Override");
+		out.println("@SuppressWarnings(\"unchecked\")");
+		out.emit("public void forEach(final $T<? super E> action) {", Consumer.class);
+		out.println();
+		out.pushIndent();
+		out.println("for (Object element : this.elements)");
+		out.indentln("action.accept((E) element);");
+		out.popIndent();
+		out.print("}");
+		out.setEOL();
+		out.println();
+	}
+}
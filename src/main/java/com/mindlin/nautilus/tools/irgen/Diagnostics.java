@@ -0,0 +1,200 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic.Kind;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Messager that filters, deduplicates, and batches diagnostics before passing them to javac.
+ * <p>
+ * Messages below the configured level are dropped. Identical messages (same kind, text, and
+ * position) are only reported once, with a repeat count. Messages are held until {@link #flush()},
+ * which the processor calls at the end of each phase.
+ * </p>
+ * Thread-safe.
+ */
+@NonNullByDefault
+public class Diagnostics implements Messager {
+	/**
+	 * Parse a level name (e.g., {@code "warning"}).
+	 * @return Level, or {@code defaultValue} if the name isn't recognized
+	 */
+	public static Kind parseLevel(@Nullable String name, Kind defaultValue) {
+		if (name == null || name.isEmpty())
+			return defaultValue;
+		switch (name.trim().toLowerCase(Locale.ROOT)) {
+			case "error":
+				return Kind.ERROR;
+			case "warn":
+			case "warning":
+				return Kind.WARNING;
+			case "mandatory_warning":
+				return Kind.MANDATORY_WARNING;
+			case "note":
+			case "info":
+				return Kind.NOTE;
+			case "all":
+			case "other":
+				return Kind.OTHER;
+			default:
+				return defaultValue;
+		}
+	}
+	
+	/**
+	 * Severity of kind (higher is more severe)
+	 */
+	protected static int severity(Kind kind) {
+		switch (kind) {
+			case ERROR:
+				return 4;
+			case WARNING:
+				return 3;
+			case MANDATORY_WARNING:
+				return 2;
+			case NOTE:
+				return 1;
+			case OTHER:
+			default:
+				return 0;
+		}
+	}
+	
+	protected final Messager delegate;
+	/** Minimum severity to report */
+	protected final int threshold;
+	/** Report extra notes (see {@link ProcessorOptions#VERBOSE}) */
+	protected final boolean verbose;
+	/** Pending messages (deduplicated), in the order they were first reported */
+	protected final Map<Message, Message> pending = new LinkedHashMap<>();
+	
+	public Diagnostics(Messager delegate, Kind level) {
+		this(delegate, level, false);
+	}
+	
+	public Diagnostics(Messager delegate, Kind level, boolean verbose) {
+		this.delegate = Objects.requireNonNull(delegate);
+		// Errors are always reported, because they fail the build
+		this.threshold = Math.min(severity(level), severity(Kind.ERROR));
+		this.verbose = verbose;
+	}
+	
+	public boolean isEnabled(Kind kind) {
+		return severity(kind) >= this.threshold;
+	}
+	
+	public boolean isVerbose() {
+		return this.verbose;
+	}
+	
+	protected void enqueue(Kind kind, CharSequence msg, @Nullable Element e, @Nullable AnnotationMirror a, @Nullable AnnotationValue v) {
+		if (!this.isEnabled(kind))
+			return;
+		Message message = new Message(kind, msg.toString(), e, a, v);
+		synchronized (this) {
+			Message existing = this.pending.putIfAbsent(message, message);
+			if (existing != null)
+				existing.count++;
+		}
+	}
+	
+	@Override
+	public void printMessage(@Nullable Kind kind, @Nullable CharSequence msg) {
+		this.enqueue(Objects.requireNonNull(kind), Objects.requireNonNull(msg), null, null, null);
+	}
+	
+	@Override
+	public void printMessage(@Nullable Kind kind, @Nullable CharSequence msg, @Nullable Element e) {
+		this.enqueue(Objects.requireNonNull(kind), Objects.requireNonNull(msg), e, null, null);
+	}
+	
+	@Override
+	public void printMessage(@Nullable Kind kind, @Nullable CharSequence msg, @Nullable Element e, @Nullable AnnotationMirror a) {
+		this.enqueue(Objects.requireNonNull(kind), Objects.requireNonNull(msg), e, a, null);
+	}
+	
+	@Override
+	public void printMessage(@Nullable Kind kind, @Nullable CharSequence msg, @Nullable Element e, @Nullable AnnotationMirror a, @Nullable AnnotationValue v) {
+		this.enqueue(Objects.requireNonNull(kind), Objects.requireNonNull(msg), e, a, v);
+	}
+	
+	/**
+	 * Report all pending messages to javac
+	 */
+	public void flush() {
+		List<Message> batch;
+		synchronized (this) {
+			if (this.pending.isEmpty())
+				return;
+			batch = new ArrayList<>(this.pending.values());
+			this.pending.clear();
+		}
+		
+		for (Message message : batch) {
+			String text = message.count == 1 ? message.msg : String.format("%s (repeated %d times)", message.msg, message.count);
+			
+			if (message.value != null)
+				this.delegate.printMessage(message.kind, text, message.element, message.annotation, message.value);
+			else if (message.annotation != null)
+				this.delegate.printMessage(message.kind, text, message.element, message.annotation);
+			else if (message.element != null)
+				this.delegate.printMessage(message.kind, text, message.element);
+			else
+				this.delegate.printMessage(message.kind, text);
+		}
+	}
+	
+	protected static class Message {
+		final Kind kind;
+		final String msg;
+		final @Nullable Element element;
+		final @Nullable AnnotationMirror annotation;
+		final @Nullable AnnotationValue value;
+		/** Number of times this message was reported (not part of identity) */
+		int count = 1;
+		
+		Message(Kind kind, String msg, @Nullable Element element, @Nullable AnnotationMirror annotation, @Nullable AnnotationValue value) {
+			this.kind = kind;
+			this.msg = msg;
+			this.element = element;
+			this.annotation = annotation;
+			this.value = value;
+		}
+		
+		@Override
+		public int hashCode() {
+			// Elements & mirrors don't always override hashCode, so use identity
+			int h = this.kind.hashCode();
+			h = 31 * h + this.msg.hashCode();
+			h = 31 * h + System.identityHashCode(this.element);
+			h = 31 * h + System.identityHashCode(this.annotation);
+			return 31 * h + System.identityHashCode(this.value);
+		}
+		
+		@Override
+		public boolean equals(@Nullable Object obj) {
+			if (obj == this)
+				return true;
+			if (!(obj instanceof Message))
+				return false;
+			Message other = (Message) obj;
+			return this.kind == other.kind
+					&& this.element == other.element
+					&& this.annotation == other.annotation
+					&& this.value == other.value
+					&& this.msg.equals(other.msg);
+		}
+	}
+}
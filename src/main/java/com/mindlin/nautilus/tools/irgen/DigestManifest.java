@@ -0,0 +1,122 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.Properties;
+
+import javax.annotation.processing.Filer;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.mindlin.nautilus.tools.irgen.ir.ClassSpec.OutputInfo;
+
+/**
+ * Digests of the generated sources, persisted between builds.
+ * <p>
+ * The manifest ({@value #MANIFEST_PATH}) maps each generated class to a digest of its source, so tools can
+ * tell which outputs actually changed. In {@link #MODE_SKIP skip} mode, sources whose digest matches the
+ * last build (and are still on disk) aren't rewritten at all; that only works if the build tool keeps
+ * generated sources between builds (e.g., Maven without {@code clean}), so it's opt-in.
+ * </p>
+ * Digests are computed on the render threads; everything else has to be called from the processor thread.
+ */
+public class DigestManifest {
+	public static final String MANIFEST_PATH = "META-INF/nautilus-irgen/digests.properties";
+	/** Only write the manifest */
+	public static final String MODE_MANIFEST = "manifest";
+	/** Write the manifest, and skip rewriting unchanged sources */
+	public static final String MODE_SKIP = "skip";
+	
+	/**
+	 * Load manifest from the last build, if {@link ProcessorOptions#DIGESTS} is set
+	 * @return Manifest, or null if digests are disabled
+	 */
+	public static DigestManifest load(Filer filer, Logger logger, ProcessorOptions options) {
+		String mode = options.getString(ProcessorOptions.DIGESTS);
+		if (mode == null || "false".equalsIgnoreCase(mode))
+			return null;
+		boolean skip = MODE_SKIP.equalsIgnoreCase(mode);
+		if (!skip && !mode.isEmpty() && !MODE_MANIFEST.equalsIgnoreCase(mode) && !"true".equalsIgnoreCase(mode))
+			logger.warn("Unknown value for %s: '%s' (expected %s or %s)", ProcessorOptions.DIGESTS, mode, MODE_MANIFEST, MODE_SKIP);
+		
+		DigestManifest result = new DigestManifest(skip);
+		try {
+			FileObject file = filer.getResource(StandardLocation.CLASS_OUTPUT, "", MANIFEST_PATH);
+			try (InputStream is = file.openInputStream()) {
+				result.previous.load(is);
+			}
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			// First build
+		} catch (IOException | IllegalArgumentException e) {
+			logger.warn("Unable to read digest manifest (%s); rewriting everything", e.getLocalizedMessage());
+			result.previous.clear();
+		}
+		// Outputs that aren't rendered this round (e.g., in incremental mode) keep their digests
+		result.next.putAll(result.previous);
+		return result;
+	}
+	
+	/**
+	 * Digest of generated source. Thread-safe.
+	 */
+	public static String digest(CharSequence source) {
+		MessageDigest digest = IncrementalCache.newDigest();
+		digest.update(StandardCharsets.UTF_8.encode(CharBuffer.wrap(source)));
+		return Utils.toHex(digest.digest());
+	}
+	
+	protected final boolean skip;
+	/** Digests from the last build */
+	protected final Properties previous = new Properties();
+	/** Digests to be written at the end of this build */
+	protected final Properties next = new Properties();
+	protected int reused = 0;
+	
+	protected DigestManifest(boolean skip) {
+		this.skip = skip;
+	}
+	
+	/**
+	 * Check if the source generated for {@code className} in the last build is still around.
+	 */
+	protected boolean hasOutput(Filer filer, String className) {
+		int split = className.lastIndexOf('.');
+		String pkg = split < 0 ? "" : className.substring(0, split);
+		return Utils.hasGeneratedSource(filer, pkg, className.substring(split + 1) + ".java");
+	}
+	
+	/**
+	 * Record the digest of a rendered output, and check if it has to be written.
+	 * @return If the output has to be written (false if it can be reused from the last build)
+	 */
+	public boolean update(Filer filer, OutputInfo info) {
+		String digest = info.digest != null ? info.digest : digest(info.getContent());
+		this.next.setProperty(info.className, digest);
+		if (this.skip && Objects.equals(this.previous.getProperty(info.className), digest) && this.hasOutput(filer, info.className)) {
+			this.reused++;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return Number of outputs that were reused (not rewritten)
+	 */
+	public int getReused() {
+		return this.reused;
+	}
+	
+	public void save(Filer filer) throws IOException {
+		FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", MANIFEST_PATH);
+		try (OutputStream os = file.openOutputStream()) {
+			this.next.store(os, "nautilus-irgen source digests");
+		}
+	}
+}
@@ -14,13 +14,12 @@ public class ElementProcessorBase extends AnnotationProcessorBase {
 	final TypeElement target;
 	
 	public ElementProcessorBase(ProcessingEnvironment procEnv, DeclaredType annotation, RoundEnvironment roundEnv, TypeElement target) {
-		super(procEnv, annotation);
-		this.target = target;
+		this(procEnv, annotation, new Logger(procEnv.getMessager()), roundEnv, target);
 	}
 	
-	@Override
-	protected Logger getLogger() {
-		return new Logger(procEnv.getMessager(), target);
+	public ElementProcessorBase(ProcessingEnvironment procEnv, DeclaredType annotation, Logger logger, RoundEnvironment roundEnv, TypeElement target) {
+		super(procEnv, annotation, logger.withTarget(target));
+		this.target = target;
 	}
 	
 	protected List<AnnotationMirror> getMirrors() {
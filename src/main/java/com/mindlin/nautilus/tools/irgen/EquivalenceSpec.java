@@ -0,0 +1,188 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.codegen.Template;
+import com.mindlin.nautilus.tools.irgen.ir.ClassName;
+import com.mindlin.nautilus.tools.irgen.ir.ClassSpec;
+
+/**
+ * {@code IterativeEquivalence}, the interface that every generated impl implements if iterative equivalence is
+ * enabled, with the work loop that they share.
+ * <p>
+ * Impls only compare their own properties (in {@code equivalentShallow}), and push the children to compare
+ * onto the work stack. Because the loop handles every generated impl (of every hierarchy & module), the stack
+ * depth doesn't depend on the depth of the trees, even if they mix types from different hierarchies.
+ * </p>
+ */
+public class EquivalenceSpec extends ClassSpec {
+	protected static final Template T_PENDING = Template.compile("$T<$T> pending = new $T<>();");
+	protected static final Template T_FALLBACK = Template.compile("if (!$T.equivalentTo(left, right))");
+	protected static final Template T_SHALLOW = Template.compile("boolean equivalentShallow($T other, $T<$T> pending);");
+	protected static final Template T_EQUIVALENT_TO = Template.compile("static boolean equivalentTo(final $T tree, final $T other) {");
+	protected static final Template T_PUSH_CHILDREN = Template.compile("static boolean pushChildren(final $T<$T> pending, final $T<? extends $T> left, final $T<? extends $T> right) {");
+	protected static final Template T_ITERATORS = Template.compile("$T<? extends $T> a = left.iterator(), b = right.iterator();");
+	
+	public EquivalenceSpec() {
+	}
+	
+	@Override
+	protected String getSimpleName() {
+		return IRTypes.EQUIVALENCE.getSimpleName();
+	}
+	
+	@Override
+	protected String getPackage() {
+		return IRTypes.EQUIVALENCE.getPackageName();
+	}
+	
+	@Override
+	protected String getKeyword() {
+		return "interface";
+	}
+	
+	@Override
+	protected int getModifiers() {
+		return Modifier.PUBLIC;
+	}
+	
+	@Override
+	protected void getImports(Collection<? super ClassName> result) {
+		super.getImports(result);
+		result.add(IRTypes.TREE);
+		result.add(ClassName.get(ArrayList.class));
+		result.add(ClassName.get(Collection.class));
+		result.add(ClassName.get(Iterator.class));
+		result.add(ClassName.get(List.class));
+	}
+	
+	@Override
+	protected void writeBody(CodeWriter out) {
+		out.println("/**");
+		out.println(" * Compare this tree's properties with {@code other}'s, and push pairs of children to compare");
+		out.println(" * (left, then right) onto {@code pending}.");
+		out.println(" * @return If the properties are equivalent");
+		out.println(" */");
+		out.emit(T_SHALLOW, IRTypes.TREE, List.class, IRTypes.TREE);
+		out.println();
+		out.println();
+		
+		out.println("/**");
+		out.println(" * Memoized hash, or 0 if it isn't known (or if trees with different hashes might be equivalent)");
+		out.println(" */");
+		out.println("default int getEquivalenceHash() {");
+		out.indentln("return 0;");
+		out.println("}");
+		out.println();
+		
+		this.writeEquivalentTo(out);
+		out.println();
+		this.writePushChildren(out);
+	}
+	
+	/**
+	 * <pre>
+	 * static boolean equivalentTo(final Tree tree, final Tree other) {
+	 * 	[push (tree, other); pop pairs until the stack is empty:]
+	 * 	[	skip identical pairs]
+	 * 	[	compare trees that weren't generated with Tree.equivalentTo(Tree, Tree)]
+	 * 	[	fail if both trees have known hashes that differ]
+	 * 	[	fail if equivalentShallow() fails (which pushes the children to compare)]
+	 * }
+	 * </pre>
+	 */
+	protected void writeEquivalentTo(CodeWriter out) {
+		String self = this.getSimpleName();
+		
+		out.println("/**");
+		out.println(" * Check if two trees are structurally equivalent, without recursing into their children");
+		out.println(" */");
+		out.emit(T_EQUIVALENT_TO, IRTypes.TREE, IRTypes.TREE);
+		out.println();
+		out.pushIndent();
+		out.println("if (tree == other)");
+		out.indentln("return true;");
+		out.emit(T_PENDING, List.class, IRTypes.TREE, ArrayList.class);
+		out.println();
+		out.emit("$T left = tree, right = other;", IRTypes.TREE);
+		out.println();
+		out.println("while (true) {");
+		out.pushIndent();
+		out.println("if (left != right) {");
+		out.pushIndent();
+		out.emit("if (!(left instanceof $N)) {", self);
+		out.println();
+		out.pushIndent();
+		// Not generated
+		out.emit(T_FALLBACK, IRTypes.TREE);
+		out.println();
+		out.indentln("return false;");
+		out.popIndent();
+		out.println("} else {");
+		out.pushIndent();
+		out.emit("$N node = ($N) left;", self, self);
+		out.println();
+		out.println("if (right != null && right.getClass() == left.getClass()) {");
+		out.pushIndent();
+		out.emit("int hash = node.getEquivalenceHash(), otherHash = (($N) right).getEquivalenceHash();", self);
+		out.println();
+		out.println("if (hash != 0 && otherHash != 0 && hash != otherHash)");
+		out.indentln("return false;");
+		out.popIndent();
+		out.println("}");
+		out.println("if (!node.equivalentShallow(right, pending))");
+		out.indentln("return false;");
+		out.popIndent();
+		out.println("}");
+		out.popIndent();
+		out.println("}");
+		out.println("int size = pending.size();");
+		out.println("if (size == 0)");
+		out.indentln("return true;");
+		out.println("right = pending.remove(size - 1);");
+		out.println("left = pending.remove(size - 2);");
+		out.popIndent();
+		out.println("}");
+		out.popIndent();
+		out.println("}");
+	}
+	
+	/**
+	 * <pre>
+	 * static boolean pushChildren(final List&lt;Tree&gt; pending, final Collection&lt;? extends Tree&gt; left, final Collection&lt;? extends Tree&gt; right) {
+	 * 	[push pairs of children, if the collections are the same size]
+	 * }
+	 * </pre>
+	 */
+	protected void writePushChildren(CodeWriter out) {
+		out.println("/**");
+		out.println(" * Push pairs of children to compare");
+		out.println(" * @return If the collections can be equivalent (both null, or the same size)");
+		out.println(" */");
+		out.emit(T_PUSH_CHILDREN, List.class, IRTypes.TREE, Collection.class, IRTypes.TREE, Collection.class, IRTypes.TREE);
+		out.println();
+		out.pushIndent();
+		out.println("if (left == right)");
+		out.indentln("return true;");
+		out.println("if (left == null || right == null || left.size() != right.size())");
+		out.indentln("return false;");
+		out.emit(T_ITERATORS, Iterator.class, IRTypes.TREE);
+		out.println();
+		out.println("while (a.hasNext()) {");
+		out.pushIndent();
+		out.println("pending.add(a.next());");
+		out.println("pending.add(b.next());");
+		out.popIndent();
+		out.println("}");
+		out.println("return true;");
+		out.popIndent();
+		out.print("}");
+		out.setEOL();
+		out.println();
+	}
+}
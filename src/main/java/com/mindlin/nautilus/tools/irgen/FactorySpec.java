@@ -1,30 +1,135 @@
 package com.mindlin.nautilus.tools.irgen;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
 
 import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.codegen.Template;
+import com.mindlin.nautilus.tools.irgen.ir.ClassName;
 import com.mindlin.nautilus.tools.irgen.ir.ClassSpec;
 import com.mindlin.nautilus.tools.irgen.ir.MethodSpec;
 import com.mindlin.nautilus.tools.irgen.ir.ParameterSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TreeImplSpec;
 import com.mindlin.nautilus.tools.irgen.ir.TypeName;
 
+/**
+ * {@code TreeFactory}, with a static {@code create*} method for each generated impl.
+ * <p>
+ * If interning is enabled, trees are hash-consed through weak tables: a tree that's structurally
+ * equivalent to a live tree that was created earlier (ignoring its {@code SourceRange}) is replaced by
+ * that tree, so common subtrees share a single instance. There's a table (and a lock) per impl class,
+ * so threads that create different kinds of trees don't contend.
+ * </p>
+ * <p>
+ * Interned trees are shared, so the intern factory copies lists (& collections) of children into
+ * {@code ChildList}s before creating a tree, even if impls don't (see {@link ChildListSpec}).
+ * </p>
+ */
 public class FactorySpec extends ClassSpec {
+	/** Generate factory methods, but don't intern */
+	public static final String MODE_PLAIN = "plain";
+	/** Generate factory methods that intern the trees they create */
+	public static final String MODE_INTERN = "intern";
+	
+	protected static final Template T_CREATE = Template.compile("return new $T($,N);");
+	protected static final Template T_CREATE_INTERN = Template.compile("return intern(new $T(");
+	protected static final Template T_COPY = Template.compile("$T.copyOf($N)");
+	protected static final Template T_ENTRY_DECLARATION = Template.compile("private static final class Entry extends $T<$T> {");
+	protected static final Template T_ENTRY_CTOR = Template.compile("Entry($T tree, int hash, Entry next, $T<$T> queue) {");
+	protected static final Template T_QUEUE = Template.compile("private final $T<$T> queue = new $T<>();");
+	protected static final Template T_TABLES = Template.compile("private static final $T<InternTable> TABLES = new $T<InternTable>() {");
+	protected static final Template T_TABLE_INTERN_DECLARATION = Template.compile("synchronized <T extends $T> T intern(final T tree) {");
+	protected static final Template T_INTERN_DECLARATION = Template.compile("public static <T extends $T> T intern(final T tree) {");
+	protected static final Template T_INTERN_EXISTING = Template.compile("$T existing = entry.get();");
+	/** Default simple name of the factory */
+	public static final String DEFAULT_NAME = "TreeFactory";
+	/** Initial size of each intern table (must be a power of 2) */
+	protected static final int INITIAL_CAPACITY = 16;
+	
+	/**
+	 * Default name of the factory for a module: {@value #DEFAULT_NAME}, in the package of the module's trees
+	 * (or their closest common package), so factories of modules that extend each other don't collide
+	 * (unless their trees are in the same package).
+	 */
+	public static ClassName getDefaultName(Collection<TreeImplSpec> impls) {
+		String common = null;
+		for (TreeImplSpec impl : impls) {
+			String pkg = ((ClassName) impl.baseType).getPackageName();
+			if (common == null) {
+				common = pkg;
+			} else {
+				while (!common.isEmpty() && !(pkg.equals(common) || pkg.startsWith(common + ".")))
+					common = common.substring(0, Math.max(0, common.lastIndexOf('.')));
+			}
+		}
+		return new ClassName(common == null || common.isEmpty() ? IRTypes.IMPL_PACKAGE : common, DEFAULT_NAME);
+	}
+	
+	protected final ClassName name;
+	protected final List<TreeImplSpec> impls;
+	protected final boolean intern;
+	protected final List<MethodSpec> methods = new ArrayList<>();
 
-	public FactorySpec() {
-		// TODO Auto-generated constructor stub
+	public FactorySpec(ClassName name, Collection<TreeImplSpec> impls, boolean intern) {
+		this.name = name;
+		// Impls are built concurrently, so sort them for stable output
+		this.impls = new ArrayList<>(impls);
+		this.impls.sort(Comparator.comparing(impl -> impl.getClassName().toString()));
+		this.intern = intern;
+		
+		NameHelper names = new NameHelper();
+		names.add("intern");
+		for (TreeImplSpec impl : this.impls)
+			this.methods.add(new FactoryMethod(impl, names.add(getMethodName(impl))));
+	}
+	
+	/**
+	 * Name of factory method for impl ({@code FooTree} is created by {@code createFoo})
+	 */
+	protected static String getMethodName(TreeImplSpec impl) {
+		String name = ((ClassName) impl.baseType).getSimpleName();
+		if (name.endsWith("Tree") && name.length() > 4)
+			name = name.substring(0, name.length() - 4);
+		return "create" + name;
+	}
+	
+	@Override
+	protected Element[] getSources() {
+		// The factory aggregates all impls
+		Set<Element> result = new LinkedHashSet<>();
+		for (TreeImplSpec impl : this.impls)
+			result.addAll(impl.sources);
+		return result.toArray(new Element[result.size()]);
+	}
+	
+	@Override
+	protected void getImports(Collection<? super ClassName> result) {
+		super.getImports(result);
+		if (this.intern) {
+			result.add(ClassName.get(ClassValue.class));
+			result.add(ClassName.get(ReferenceQueue.class));
+			result.add(ClassName.get(WeakReference.class));
+			result.add(IRTypes.TREE);
+		}
 	}
 
 	@Override
 	protected String getSimpleName() {
-		return "TreeFactory";
+		return this.name.getSimpleName();
 	}
 	
 	@Override
 	protected String getPackage() {
-		return IRTypes.IMPL_PACKAGE;
+		return this.name.getPackageName();
 	}
 
 	@Override
@@ -34,39 +139,233 @@ public class FactorySpec extends ClassSpec {
 
 	@Override
 	protected Collection<MethodSpec> getMethods() {
-		List<MethodSpec> result = new ArrayList<>();
-		// TODO Auto-generated method stub
-		return result;
+		return this.methods;
 	}
 	
+	@Override
+	protected void writeBody(CodeWriter writer) {
+		if (this.intern)
+			this.writeInternTable(writer);
+		
+		writer.emit("private $N() {", this.getSimpleName());
+		writer.println();
+		writer.print("}");
+		writer.setEOL();
+		writer.println();
+		
+		if (this.intern) {
+			this.writeIntern(writer);
+			writer.println();
+		}
+		
+		for (MethodSpec method : this.methods) {
+			method.write(writer);
+			writer.println();
+			writer.setEOL();
+		}
+	}
+	
+	/**
+	 * Intern tables: a weak hash table per impl class (chained, so entries can be removed when they're cleared),
+	 * each with its own lock
+	 */
+	protected void writeInternTable(CodeWriter out) {
+		out.println("/** Weak table of interned trees of one class */");
+		out.println("private static final class InternTable {");
+		out.pushIndent();
+		out.println("/** Interned tree (chained in buckets) */");
+		out.emit(T_ENTRY_DECLARATION, WeakReference.class, IRTypes.TREE);
+		out.println();
+		out.pushIndent();
+		out.println("final int hash;");
+		out.println("Entry next;");
+		out.println();
+		out.emit(T_ENTRY_CTOR, IRTypes.TREE, ReferenceQueue.class, IRTypes.TREE);
+		out.println();
+		out.pushIndent();
+		out.println("super(tree, queue);");
+		out.println("this.hash = hash;");
+		out.println("this.next = next;");
+		out.popIndent();
+		out.println("}");
+		out.popIndent();
+		out.println("}");
+		out.println();
+		out.emit(T_QUEUE, ReferenceQueue.class, IRTypes.TREE, ReferenceQueue.class);
+		out.println();
+		out.println("private Entry[] table = new Entry[" + INITIAL_CAPACITY + "];");
+		out.println("private int size = 0;");
+		out.println();
+		this.writeTableIntern(out);
+		out.popIndent();
+		out.println("}");
+		out.println();
+		
+		out.println("/** Intern table for each impl class */");
+		out.emit(T_TABLES, ClassValue.class, ClassValue.class);
+		out.println();
+		out.pushIndent();
+		out.println("@Override");
+		out.println("protected InternTable computeValue(Class<?> type) {");
+		out.indentln("return new InternTable();");
+		out.println("}");
+		out.popIndent();
+		out.println("};");
+		out.println();
+	}
+	
+	/**
+	 * {@code InternTable.intern(T)}, plus helpers to expunge cleared entries and resize the table
+	 */
+	protected void writeTableIntern(CodeWriter out) {
+		out.println("@SuppressWarnings(\"unchecked\")");
+		out.emit(T_TABLE_INTERN_DECLARATION, IRTypes.TREE);
+		out.println();
+		out.pushIndent();
+		out.println("expunge();");
+		out.println("int hash = tree.hashCode();");
+		out.println("int index = hash & (table.length - 1);");
+		out.println("for (Entry entry = table[index]; entry != null; entry = entry.next) {");
+		out.pushIndent();
+		out.emit(T_INTERN_EXISTING, IRTypes.TREE);
+		out.println();
+		out.println("if (entry.hash == hash && existing != null && tree.equivalentTo(existing))");
+		out.indentln("return (T) existing;");
+		out.popIndent();
+		out.println("}");
+		out.println("table[index] = new Entry(tree, hash, table[index], queue);");
+		out.println("if (++size > table.length - (table.length >>> 2))");
+		out.indentln("resize();");
+		out.println("return tree;");
+		out.popIndent();
+		out.println("}");
+		out.println();
+		
+		out.println("private void expunge() {");
+		out.pushIndent();
+		out.println("Object ref;");
+		out.println("while ((ref = queue.poll()) != null) {");
+		out.pushIndent();
+		out.println("Entry cleared = (Entry) ref;");
+		out.println("int index = cleared.hash & (table.length - 1);");
+		out.println("for (Entry entry = table[index], prev = null; entry != null; prev = entry, entry = entry.next) {");
+		out.pushIndent();
+		out.println("if (entry == cleared) {");
+		out.pushIndent();
+		out.println("if (prev == null)");
+		out.indentln("table[index] = entry.next;");
+		out.println("else");
+		out.indentln("prev.next = entry.next;");
+		out.println("size--;");
+		out.println("break;");
+		out.popIndent();
+		out.println("}");
+		out.popIndent();
+		out.println("}");
+		out.popIndent();
+		out.println("}");
+		out.popIndent();
+		out.println("}");
+		out.println();
+		
+		out.println("private void resize() {");
+		out.pushIndent();
+		out.println("Entry[] old = table;");
+		out.println("table = new Entry[old.length * 2];");
+		out.println("for (Entry head : old) {");
+		out.pushIndent();
+		out.println("for (Entry entry = head, next; entry != null; entry = next) {");
+		out.pushIndent();
+		out.println("next = entry.next;");
+		out.println("int index = entry.hash & (table.length - 1);");
+		out.println("entry.next = table[index];");
+		out.println("table[index] = entry;");
+		out.popIndent();
+		out.println("}");
+		out.popIndent();
+		out.println("}");
+		out.popIndent();
+		out.println("}");
+	}
+	
+	/**
+	 * {@code intern(T)}, which interns a tree in the table for its class
+	 */
+	protected void writeIntern(CodeWriter out) {
+		out.println("/**");
+		out.println(" * Get the canonical instance of a tree: a live, structurally equivalent tree that was interned before,");
+		out.println(" * or {@code tree} itself (which is interned).");
+		out.println(" */");
+		out.emit(T_INTERN_DECLARATION, IRTypes.TREE);
+		out.println();
+		out.indentln("return TABLES.get(tree.getClass()).intern(tree);");
+		out.print("}");
+		out.setEOL();
+	}
+	
+	/**
+	 * <pre>
+	 * public static FooTree createFoo([impl c'tor params]) {
+	 * 	return intern(new FooTreeImpl([params, with lists copied into ChildLists]));
+	 * }
+	 * </pre>
+	 */
 	public class FactoryMethod extends MethodSpec {
-		final TypeName type;
-		public FactoryMethod(TypeName type, String name) {
+		final TreeImplSpec impl;
+		public FactoryMethod(TreeImplSpec impl, String name) {
 			super(name);
-			this.type = type;
+			this.impl = impl;
+		}
+		
+		@Override
+		public void getImports(Collection<? super ClassName> result) {
+			super.getImports(result);
+			// The factory isn't necessarily in the impl package
+			result.add(this.impl.getClassName());
+			result.addAll(TypeName.getImportable(this.impl.baseType));
+			for (ParameterSpec parameter : this.getParameters()) {
+				result.addAll(TypeName.getImportable(parameter.getType()));
+				if (FactorySpec.this.intern && ChildListSpec.isSupported(parameter.getType()))
+					result.add(IRTypes.CHILD_LIST);
+			}
 		}
 		
 		@Override
 		protected int getModifiers() {
-			return Modifier.PUBLIC | Modifier.FINAL | Modifier.STATIC;
+			return Modifier.PUBLIC | Modifier.STATIC;
 		}
 
 		@Override
 		public TypeName getReturnType() {
-			return this.type;
+			return this.impl.baseType;
 		}
 
 		@Override
-		protected Collection<ParameterSpec> getParameters() {
-			// TODO Auto-generated method stub
-			return null;
+		protected List<? extends ParameterSpec> getParameters() {
+			return this.impl.getConstructorParameters();
 		}
 
 		@Override
 		protected void writeBody(CodeWriter out) {
-			// TODO Auto-generated method stub
-			
+			if (!FactorySpec.this.intern) {
+				out.emit(T_CREATE, this.impl.getClassName(), this.getParameters());
+				out.setEOL();
+				return;
+			}
+			// The caller could still modify its lists after the tree is shared
+			out.emit(T_CREATE_INTERN, this.impl.getClassName());
+			boolean first = true;
+			for (ParameterSpec parameter : this.getParameters()) {
+				if (!first)
+					out.print(", ");
+				first = false;
+				if (ChildListSpec.isSupported(parameter.getType()))
+					out.emit(T_COPY, IRTypes.CHILD_LIST, parameter);
+				else
+					out.emit("$N", parameter);
+			}
+			out.print("));");
+			out.setEOL();
 		}
-		
 	}
 }
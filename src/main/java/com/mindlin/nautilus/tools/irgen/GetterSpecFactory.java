@@ -1,7 +1,6 @@
 package com.mindlin.nautilus.tools.irgen;
 
-import java.io.IOException;
-import java.io.StringWriter;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -13,6 +12,7 @@ import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.AnnotationValueVisitor;
 import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.AbstractAnnotationValueVisitor8;
@@ -20,26 +20,99 @@ import javax.lang.model.util.Elements;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 
-import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
-import com.mindlin.nautilus.tools.irgen.ir.TypeName;
+import com.mindlin.nautilus.tools.irgen.ir.NamePool;
 import com.mindlin.nautilus.tools.irgen.ir.TreeSpec.GetterSpec;
 
 public class GetterSpecFactory implements Function<ExecutableElement, GetterSpec> {
+	// Visitors are stateless, so they can be shared
+	private static final ValueToString VALUE_TO_STRING = new ValueToString();
+	private static final ValueToStream<String, Void> VALUE_TO_STRINGS = new ValueToStream<>(VALUE_TO_STRING);
+	private static final ValueToInt VALUE_TO_INT = new ValueToInt();
+	private static final ValueToBoolean VALUE_TO_BOOLEAN = new ValueToBoolean();
+	
 	protected Elements elements;
 	protected Logger baseLogger;
+	protected NamePool names;
+	/** Annotation handlers, by annotation type (built on first use) */
+	protected Map<TypeElement, AnnotationHandler> handlers;
 	
-	public GetterSpecFactory(Elements elements, Logger baseLogger) {
+	public GetterSpecFactory(Elements elements, Logger baseLogger, NamePool names) {
 		this.elements = elements;
 		this.baseLogger = baseLogger;
+		this.names = names;
 	}
 
 	protected Logger getLogger() {
 		return this.baseLogger;
 	}
 	
+	/**
+	 * Applies an annotation to a getter
+	 */
+	@FunctionalInterface
+	protected static interface AnnotationHandler {
+		/**
+		 * @return False if the method can't be a getter
+		 */
+		boolean apply(Logger logger, GetterSpec result, AnnotationMirror mirror);
+	}
+	
+	protected void addHandler(Map<TypeElement, AnnotationHandler> handlers, String annotation, AnnotationHandler handler) {
+		TypeElement element = this.elements.getTypeElement(annotation);
+		// If the annotation doesn't exist, nothing can be annotated with it
+		if (element != null)
+			handlers.put(element, handler);
+	}
+	
+	/**
+	 * Get annotation handlers, keyed by annotation type. Types are compared by identity (javac has one
+	 * element per type), so dispatching an annotation doesn't need its name.
+	 */
+	protected Map<TypeElement, AnnotationHandler> getHandlers() {
+		Map<TypeElement, AnnotationHandler> result = this.handlers;
+		if (result != null)
+			return result;
+		
+		result = new IdentityHashMap<>();
+		this.addHandler(result, IRTypes.OVERRIDE, (logger, spec, mirror) -> {
+			this.applyOverrideAnnotation(logger, spec, mirror);
+			return true;
+		});
+		this.addHandler(result, IRTypes.ORDERING, (logger, spec, mirror) -> {
+			this.applyOrderingAnnotation(logger, spec, mirror);
+			return true;
+		});
+		this.addHandler(result, IRTypes.ORDERING_BEFORE, (logger, spec, mirror) -> {
+			this.applyOrderingBeforeAnnotation(logger, spec, mirror);
+			return true;
+		});
+		this.addHandler(result, IRTypes.ORDERING_AFTER, (logger, spec, mirror) -> {
+			this.applyOrderingAfterAnnotation(logger, spec, mirror);
+			return true;
+		});
+		this.addHandler(result, IRTypes.ORDERING_FIRST, (logger, spec, mirror) -> {
+			this.applyOrderingFirstAnnotation(logger, spec, mirror);
+			return true;
+		});
+		this.addHandler(result, IRTypes.ORDERING_LAST, (logger, spec, mirror) -> {
+			this.applyOrderingLastAnnotation(logger, spec, mirror);
+			return true;
+		});
+		this.addHandler(result, IRTypes.OPTIONAL, (logger, spec, mirror) -> {
+			this.applyOptionalAnnotation(logger, spec, mirror);
+			return true;
+		});
+		this.addHandler(result, IRTypes.TREE_PROPERTY, this::applyInvokerAnnotation);
+		this.addHandler(result, IRTypes.TREE_CHILD, this::applyInvokerAnnotation);
+		this.addHandler(result, IRTypes.TREE_CHILDREN, this::applyInvokerAnnotation);
+		return this.handlers = result;
+	}
+	
+	/**
+	 * Get values of annotation, by name. Names are only resolved as they're looked up.
+	 */
 	protected Map<String, ? extends AnnotationValue> derefValues(AnnotationMirror mirror) {
-		//TODO: lazy?
-		return Utils.derefValues(mirror.getElementValues());
+		return Utils.derefValuesLazy(mirror.getElementValues());
 	}
 	
 	protected void applyOverrideAnnotation(Logger logger, GetterSpec result, AnnotationMirror mirror) {
@@ -64,7 +137,7 @@ public class GetterSpecFactory implements Function<ExecutableElement, GetterSpec
 		AnnotationValue valueVal = values.get("value");
 		if (valueVal != null) {
 			//TODO: multiple values?
-			String value = valueVal.accept(new ValueToString(), null);
+			String value = valueVal.accept(VALUE_TO_STRING, null);
 			if (value != null) {
 				result.before.add(value);
 				return;
@@ -84,7 +157,7 @@ public class GetterSpecFactory implements Function<ExecutableElement, GetterSpec
 		AnnotationValue valueVal = values.get("value");
 		if (valueVal != null) {
 			//TODO: multiple values?
-			String value = valueVal.accept(new ValueToString(), null);
+			String value = valueVal.accept(VALUE_TO_STRING, null);
 			if (value != null) {
 				result.after.add(value);
 				return;
@@ -98,7 +171,7 @@ public class GetterSpecFactory implements Function<ExecutableElement, GetterSpec
 		
 		AnnotationValue valueVal = values.get("value");
 		if (valueVal != null) {
-			int value = valueVal.accept(new ValueToInt(), null);
+			int value = valueVal.accept(VALUE_TO_INT, null);
 			if (value > -1) {
 				//TODO fix
 				logger.warn("Absolute positioning not yet supported");
@@ -106,7 +179,7 @@ public class GetterSpecFactory implements Function<ExecutableElement, GetterSpec
 		}
 		AnnotationValue firstVal = values.get("first");
 		if (firstVal != null) {
-			boolean first = firstVal.accept(new ValueToBoolean(), null);
+			boolean first = firstVal.accept(VALUE_TO_BOOLEAN, null);
 			if (first) {
 				if (result.first)
 					logger.withValue(firstVal).warn("Duplicate 'first' ordering");
@@ -117,7 +190,7 @@ public class GetterSpecFactory implements Function<ExecutableElement, GetterSpec
 		// Apply before/after values
 		AnnotationValue beforeVal = values.get("before");
 		if (beforeVal != null) {
-			List<String> beforeVals = beforeVal.accept(new ValueToStream<>(new ValueToString()), null)
+			List<String> beforeVals = beforeVal.accept(VALUE_TO_STRINGS, null)
 					.collect(Collectors.toList());
 			if (!beforeVals.isEmpty()) {
 				result.before.addAll(beforeVals);
@@ -126,7 +199,7 @@ public class GetterSpecFactory implements Function<ExecutableElement, GetterSpec
 		
 		AnnotationValue afterVal = values.get("after");
 		if (afterVal != null) {
-			List<String> afterVals = afterVal.accept(new ValueToStream<>(new ValueToString()), null)
+			List<String> afterVals = afterVal.accept(VALUE_TO_STRINGS, null)
 					.collect(Collectors.toList());
 			if (!afterVals.isEmpty()) {
 				result.before.addAll(afterVals);
@@ -142,25 +215,26 @@ public class GetterSpecFactory implements Function<ExecutableElement, GetterSpec
 			return false;
 		}
 		result.invoker = mirror;
+		result.invokerName = Utils.getName(mirror.getAnnotationType());
 		
 		Map<String, ? extends AnnotationValue> values = derefValues(mirror);
 		
 		AnnotationValue nameVal = values.get("name");
 		if (nameVal != null) {
-			String fName = nameVal.accept(new ValueToString(), null);
+			String fName = nameVal.accept(VALUE_TO_STRING, null);
 			if (fName != null && !Objects.equals("__infer__", fName))
 				result.fName = fName;
 		}
 		
 		AnnotationValue hashVal = values.get("hash");
 		if (hashVal != null) {
-			boolean hash = hashVal.accept(new ValueToBoolean(), null);
+			boolean hash = hashVal.accept(VALUE_TO_BOOLEAN, null);
 			result.hash = hash;
 		}
 		
 		AnnotationValue compareVal = values.get("hash");
 		if (compareVal != null) {
-			boolean compare = compareVal.accept(new ValueToBoolean(), null);
+			boolean compare = compareVal.accept(VALUE_TO_BOOLEAN, null);
 			result.compare = compare;
 		}
 		
@@ -171,62 +245,25 @@ public class GetterSpecFactory implements Function<ExecutableElement, GetterSpec
 	public GetterSpec apply(ExecutableElement method) {
 		GetterSpec result = new GetterSpec();
 		result.target = method;
+		result.owner = this.names.get((TypeElement) method.getEnclosingElement());
 		result.name = method.getSimpleName().toString();
 		
-		
-		for (AnnotationMirror mirror : elements.getAllAnnotationMirrors(method)) {
+		Map<TypeElement, AnnotationHandler> handlers = this.getHandlers();
+		// Method annotations aren't inherited, so there's no need for Elements#getAllAnnotationMirrors
+		for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
 			Logger logger = getLogger().withTarget(method, mirror);
-			String name = Utils.getName(mirror.getAnnotationType());
-			switch (name) {
-				case IRTypes.OVERRIDE:
-					this.applyOverrideAnnotation(logger, result, mirror);
-					continue;
-				case IRTypes.ORDERING:
-					this.applyOrderingAnnotation(logger, result, mirror);
-					break;
-				case IRTypes.ORDERING_BEFORE:
-					this.applyOrderingBeforeAnnotation(logger, result, mirror);
-					continue;
-				case IRTypes.ORDERING_AFTER:
-					this.applyOrderingAfterAnnotation(logger, result, mirror);
-					continue;
-				case IRTypes.ORDERING_FIRST:
-					this.applyOrderingFirstAnnotation(logger, result, mirror);
-					continue;
-				case IRTypes.ORDERING_LAST:
-					this.applyOrderingLastAnnotation(logger, result, mirror);
-					continue;
-				case IRTypes.OPTIONAL:
-					this.applyOptionalAnnotation(logger, result, mirror);
-					continue;
-				case IRTypes.TREE_PROPERTY:
-				case IRTypes.TREE_CHILD:
-				case IRTypes.TREE_CHILDREN:
-					if (!this.applyInvokerAnnotation(logger, result, mirror))
-						return null;
-					
-					continue;
-				default:
-					logger.error("Annotation %s", name);
-					break;
-			}
-			//getLogger().note("Got mirror %s on %s", name, method);
+			AnnotationHandler handler = handlers.get(mirror.getAnnotationType().asElement());
+			if (handler == null)
+				logger.error("Annotation %s", Utils.getName(mirror.getAnnotationType()));
+			else if (!handler.apply(logger, result, mirror))
+				return null;
 		}
 		
 		if (result.invoker == null)
 			return null;
 		
-		result.type = method.getReturnType();
-		
-		try (StringWriter out = new StringWriter(); CodeWriter cw = new CodeWriter(out)) {
-			TypeName type = TypeName.wrap(result.type);
-			cw.emit("$T", type);
-//			getLogger().withTarget(method).warn("Return type: %s (%s)", type, out.toString());
-		} catch (IOException e) {
-			// Should be impossible
-			e.printStackTrace();
-			throw new AssertionError(e);
-		}
+		// Copy the type now, so later phases don't have to go back to javac
+		result.type = this.names.wrap(method.getReturnType());
 		
 		if (!method.getParameters().isEmpty()) {
 			getLogger().withTarget(method).error("Not a getter (has %d arguments)", method.getParameters().size());
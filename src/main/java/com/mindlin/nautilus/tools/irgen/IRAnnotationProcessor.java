@@ -1,25 +1,30 @@
 package com.mindlin.nautilus.tools.irgen;
 
 import java.io.IOException;
-import java.io.PrintStream;
 import java.io.Writer;
-import java.time.Duration;
-import java.time.Instant;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Queue;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Stack;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -27,9 +32,11 @@ import java.util.stream.Collectors;
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.FilerException;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
@@ -37,11 +44,17 @@ import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.JavaFileObject;
 import javax.tools.Diagnostic.Kind;
 
+import com.mindlin.nautilus.tools.irgen.codegen.RenderBuffer;
+import com.mindlin.nautilus.tools.irgen.codegen.RenderBufferPool;
+import com.mindlin.nautilus.tools.irgen.ir.ClassName;
+import com.mindlin.nautilus.tools.irgen.ir.ClassSpec;
 import com.mindlin.nautilus.tools.irgen.ir.ClassSpec.OutputInfo;
+import com.mindlin.nautilus.tools.irgen.ir.NamePool;
 import com.mindlin.nautilus.tools.irgen.util.Orderable;
 import com.google.auto.service.AutoService;
 import com.mindlin.nautilus.tools.irgen.ir.TreeImplSpec;
@@ -51,15 +64,61 @@ import com.mindlin.nautilus.tools.irgen.ir.TypeName;
 @AutoService(Processor.class)
 @SupportedAnnotationTypes({IRTypes.TREE_NOIMPL, IRTypes.TREE_ADT, IRTypes.TREE_IMPL})
 @SupportedSourceVersion(SourceVersion.RELEASE_8)
+@SupportedOptions({ProcessorOptions.INCREMENTAL, ProcessorOptions.VERBOSE, ProcessorOptions.LOG_LEVEL, ProcessorOptions.TIMING_REPORT, ProcessorOptions.TIMING_TOP_N, ProcessorOptions.PARALLELISM, ProcessorOptions.INDEX, ProcessorOptions.DIGESTS, ProcessorOptions.RENDER_BUDGET, ProcessorOptions.CACHE_HASH, ProcessorOptions.FACTORY, ProcessorOptions.FACTORY_NAME, ProcessorOptions.ITERATIVE_EQUIVALENCE, ProcessorOptions.CHILD_LISTS, ProcessorOptions.LAZY_RANGE})
 public class IRAnnotationProcessor extends AbstractProcessor {
+	private static final long NANOS = 1_000_000_000L;
+	protected ProcessorOptions options;
+	/** Buffered diagnostics, flushed at the end of each phase */
+	protected Diagnostics diagnostics;
+	protected Logger logger;
+	/** Phase timings (only recorded if a report was requested) */
+	protected Timings timings;
+	/** Fingerprints from the last build (only in incremental mode) */
+	protected IncrementalCache cache;
+	/** Index of trees in this module & the ones it depends on */
+	protected SpecIndex index;
+	/** Digests of generated sources (null if not requested) */
+	protected DigestManifest digests;
+	/** Canonical type names for this processing environment */
+	protected NamePool names;
+	/** Number of threads to build impls on */
+	protected int parallelism;
+	/** Generate TreeFactory */
+	protected boolean factory;
+	/** Intern trees created through the TreeFactory */
+	protected boolean factoryIntern;
+	
+	@Override
+	public synchronized void init(ProcessingEnvironment processingEnv) {
+		super.init(processingEnv);
+		this.options = new ProcessorOptions(processingEnv.getOptions());
+		this.diagnostics = new Diagnostics(processingEnv.getMessager(), Diagnostics.parseLevel(this.options.getString(ProcessorOptions.LOG_LEVEL), Kind.NOTE), this.options.getBoolean(ProcessorOptions.VERBOSE, false));
+		this.logger = new Logger(this.diagnostics);
+		this.timings = this.options.getString(ProcessorOptions.TIMING_REPORT) == null ? Timings.DISABLED : new Timings();
+		this.names = new NamePool();
+		this.parallelism = Math.max(1, this.options.getInt(ProcessorOptions.PARALLELISM, 1));
+		if (this.options.getBoolean(ProcessorOptions.INCREMENTAL, false))
+			this.cache = IncrementalCache.load(processingEnv.getFiler(), getLogger(), this.options);
+		this.digests = DigestManifest.load(processingEnv.getFiler(), getLogger(), this.options);
+		this.index = new SpecIndex(processingEnv.getFiler(), processingEnv.getElementUtils(), getLogger(), this.names, this.options.getBoolean(ProcessorOptions.INDEX, false));
+		String factoryMode = this.options.getString(ProcessorOptions.FACTORY);
+		this.factoryIntern = FactorySpec.MODE_INTERN.equalsIgnoreCase(factoryMode);
+		this.factory = this.factoryIntern || FactorySpec.MODE_PLAIN.equalsIgnoreCase(factoryMode) || this.options.getBoolean(ProcessorOptions.FACTORY, false);
+	}
+	
 	protected Logger getLogger() {
-		return new Logger(this.processingEnv.getMessager());
+		return this.logger;
 	}
 	
+	/**
+	 * Extract specs for trees with annotation. javac isn't thread-safe, so this runs on the processor
+	 * thread; the specs still have to be passed to {@link #analyzeSpecs(Collection)}.
+	 */
 	protected Map<String, TreeSpec> processTrees(TypeElement annotation, RoundEnvironment roundEnv) {
 		DeclaredType annotationType = (DeclaredType) annotation.asType();
 		
-		TreeBuilderProcessor processor = new TreeBuilderProcessor(this.processingEnv, annotationType);
+		TreeBuilderProcessor processor = new TreeBuilderProcessor(this.processingEnv, annotationType, getLogger());
+		processor.names = this.names;
 		
 		Set<? extends Element> targets = roundEnv.getElementsAnnotatedWith(annotation);
 		if (targets.isEmpty())
@@ -75,8 +134,11 @@ public class IRAnnotationProcessor extends AbstractProcessor {
 			}
 			
 			try {
-				TreeSpec spec = processor.buildTreeSpec((TypeElement) target);
-				specMap.put(Utils.getName(target), spec);
+				long start = System.nanoTime();
+				TreeSpec spec = processor.extractTreeSpec((TypeElement) target);
+				String name = Utils.getName(target);
+				this.timings.record(Timings.BUILD_TREE_SPEC, name, start);
+				specMap.put(name, spec);
 			} catch (Exception e) {
 				logger.error("Error reading @Tree.%s: %s", annotation.getSimpleName(), e.getLocalizedMessage());
 				throw e;
@@ -85,41 +147,91 @@ public class IRAnnotationProcessor extends AbstractProcessor {
 		return specMap;
 	}
 	
-	protected Map<String, TreeSpec> processTreesMP(TypeElement annotation, RoundEnvironment roundEnv) {
-		DeclaredType annotationType = (DeclaredType) annotation.asType();
-		
-		TreeBuilderProcessor processor = new TreeBuilderProcessor(this.processingEnv, annotationType);
-		
-		Set<? extends Element> targets = roundEnv.getElementsAnnotatedWith(annotation);
-		if (targets.isEmpty())
-			return Collections.emptyMap();
-		
-		return targets.parallelStream()
-			.filter(target -> {
-				if (target.getKind() != ElementKind.INTERFACE) {
-					getLogger().withTarget(target).error("Illegal @Tree.%s on kind: %s", annotation.getSimpleName(), target.getKind());
-					return false;
-				}
-				return true;
-			})
-			.map(target -> {
+	/**
+	 * Analyse extracted specs (in parallel, if enabled). Specs are snapshots, so this doesn't touch javac.
+	 */
+	protected void analyzeSpecs(Collection<TreeSpec> specs) {
+		TreeBuilderProcessor processor = new TreeBuilderProcessor(this.processingEnv, (DeclaredType) null, getLogger());
+		processor.names = this.names;
+		
+		List<Callable<TreeSpec>> tasks = new ArrayList<>(specs.size());
+		for (TreeSpec spec : specs) {
+			tasks.add(() -> {
+				long start = System.nanoTime();
 				try {
-					return processor.buildTreeSpec((TypeElement) target);
-				} catch (Exception e) {
-					getLogger().withTarget(target).error("Error reading @Tree.%s: %s", annotation.getSimpleName(), e.getLocalizedMessage());
-					throw e;
+					return processor.analyzeTreeSpec(spec);
+				} finally {
+					this.timings.record(Timings.ANALYZE_TREE_SPEC, spec.getName().toString(), start);
 				}
-			})
-			.collect(Collectors.toConcurrentMap(target -> Utils.getName(target.source), target -> target));
+			});
+		}
+		
+		int threads = Math.min(this.parallelism, tasks.size());
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			invokeAll(pool, tasks);
+		} finally {
+			if (pool != null)
+				pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Load the spec for an ancestor that wasn't annotated in this round (e.g., one from another package or jar).
+	 * @param dependents Specs that extend the ancestor (for diagnostics)
+	 * @return Loaded spec, or null if the type isn't a tree
+	 * @throws NoSuchElementException If the type can't be found
+	 */
+	protected TreeSpec loadSpec(TreeBuilderProcessor processor, TypeMirror treeType, String name, List<TreeSpec> dependents) {
+		Elements elements = this.processingEnv.getElementUtils();
+		Types types = this.processingEnv.getTypeUtils();
+		
+		TypeElement target = elements.getTypeElement(name);
+		if (target == null)
+			throw new NoSuchElementException(name);
+		
+		if (target.getKind() != ElementKind.INTERFACE || (treeType != null && !types.isSubtype(types.erasure(target.asType()), treeType))) {
+			// Something like a marker interface
+			if (getLogger().isVerbose())
+				getLogger().note("Skipping non-tree ancestor %s", name);
+			return null;
+		}
+		
+		try {
+			long start = System.nanoTime();
+			TreeSpec loaded = processor.extractTreeSpec(target);
+			this.timings.record(Timings.BUILD_TREE_SPEC, name, start);
+			if (getLogger().isVerbose())
+				getLogger().note("Found type %s (for %s)", name, Utils.map(dependents, TreeSpec::getName));
+			return loaded;
+		} catch (Exception e) {
+			getLogger().withTarget(target).error("Error processing %s (%s)", name, e.getLocalizedMessage());
+			getLogger().printStackTrace(e);
+			return null;
+		}
 	}
 	
+	/**
+	 * Resolve all ancestors of the impls in {@code allSpecs}. Ancestors that weren't annotated in this round
+	 * are loaded as ADTs (and their ancestors are resolved too), so the whole hierarchy is resolved in
+	 * one pass. Each name is looked up at most once. Ancestors in another module's {@link SpecIndex index}
+	 * are taken from there, and aren't re-analysed.
+	 * @param allSpecs Specs for this round (loaded specs are added)
+	 * @return Names of ancestors that couldn't be found
+	 */
 	protected Set<String> getUnprocessed(TypeElement adt, RoundEnvironment roundEnv, Map<String, TreeSpec> allSpecs) {
-		Stack<String> queue = new Stack<>();
-		Set<String> enqueued = new HashSet<>();
-		Set<String> missing = new HashSet<>();
+		TreeBuilderProcessor processor = new TreeBuilderProcessor(this.processingEnv, adt == null ? null : (DeclaredType) adt.asType(), TreeSpec.Kind.ADT, getLogger());
+		processor.names = this.names;
+		TypeElement treeElement = this.processingEnv.getElementUtils().getTypeElement(IRTypes.TREE_CLASS);
+		TypeMirror treeType = treeElement == null ? null : this.processingEnv.getTypeUtils().erasure(treeElement.asType());
 		
-		Map<String, List<TreeSpec>> sources = new HashMap<>();
-		Map<String, TreeSpec> specs = new HashMap<>(allSpecs);
+		Deque<String> queue = new ArrayDeque<>();
+		Set<String> enqueued = new HashSet<>();
+		Set<String> missing = new LinkedHashSet<>();
+		List<TreeSpec> loaded = new ArrayList<>();
+		int indexed = 0;
+		// Specs that extend each name
+		Map<String, List<TreeSpec>> dependents = new HashMap<>();
 		
 		for (Map.Entry<String, TreeSpec> spec : allSpecs.entrySet()) {
 			if (spec.getValue().kind != TreeSpec.Kind.IMPL)
@@ -129,86 +241,192 @@ public class IRAnnotationProcessor extends AbstractProcessor {
 		}
 		
 		while (!queue.isEmpty()) {
-			String path = queue.pop();
-			TreeSpec spec = specs.get(path);
-			if (spec == null) {
-				getLogger().note("Missing spec for %s", path);
-				missing.add(path);
-				continue;
+			String name = queue.pop();
+			TreeSpec spec = allSpecs.get(name);
+			if (spec == null && (spec = this.index.getSpec(name)) != null) {
+				allSpecs.put(name, spec);
+				indexed++;
+			} else if (spec == null) {
+				List<TreeSpec> specDependents = dependents.getOrDefault(name, Collections.emptyList());
+				try {
+					spec = this.loadSpec(processor, treeType, name, specDependents);
+				} catch (NoSuchElementException e) {
+					for (TreeSpec dependent : specDependents)
+						getLogger().withTarget(dependent.source).warn("Missing type %s", name);
+					missing.add(name);
+					continue;
+				}
+				if (spec == null)
+					continue;
+				allSpecs.put(name, spec);
+				loaded.add(spec);
 			}
-			sources.put(path, null);
+			
 			for (TypeName parent : spec.parents) {
 				String parentName = IRTypes.withoutGenerics(parent).toString();
-				
-				List<TreeSpec> psrcs = sources.computeIfAbsent(parentName, x -> new ArrayList<>());
-				if (psrcs != null)
-					psrcs.add(spec);
-				if (!specs.containsKey(parentName))
-					missing.add(parentName);
+				dependents.computeIfAbsent(parentName, x -> new ArrayList<>()).add(spec);
 				if (enqueued.add(parentName))
 					queue.add(parentName);
 			}
 		}
 		
-		Set<String> extra = new HashSet<>(specs.keySet());
-		extra.removeAll(enqueued);
-		if (Utils.isVerbose())
+		if (getLogger().isVerbose()) {
+			Set<String> extra = new HashSet<>(allSpecs.keySet());
+			extra.removeAll(enqueued);
 			getLogger().note("Extra specs: %s", extra);
+		}
 		
-		TreeBuilderProcessor processor = new TreeBuilderProcessor(this.processingEnv, adt == null ? null : (DeclaredType) adt.asType(), TreeSpec.Kind.ADT);
-		if (!missing.isEmpty()) {
-			String mp = missing.iterator().next();
-			List<TreeSpec> mpSources = sources.getOrDefault(mp, Collections.emptyList());
-			for (TreeSpec mpSource : mpSources)
-				this.getLogger()
-						.withTarget(mpSource.source)
-						.warn("Missing type %s", mp);//TODO: warn?
-			
-			Types types = this.processingEnv.getTypeUtils();
-			for (TreeSpec mpSource : mpSources) {
-				for (TypeMirror candidate : types.directSupertypes(mpSource.source.asType())) {
-					String name = Utils.getName((DeclaredType) candidate);
-					getLogger().note("Candidate %s", name);
-					if (!Objects.equals(name, mp))
-						continue;
-					try {
-						TypeElement target = (TypeElement) ((DeclaredType) candidate).asElement();
-						TreeSpec loaded = processor.buildTreeSpec(target);
-						allSpecs.put(Utils.getName(target), loaded);
-						getLogger().note("Found type %s (%s)", name, loaded);
-					} catch (Exception e) {
-						getLogger().error("Error processing %s (%s)", name, e.getLocalizedMessage());
-						try (PrintStream ps = new PrintStream(getLogger().asOutputStream(Kind.ERROR))) {
-							e.printStackTrace(ps);
-						}
-					}
+		if (getLogger().isVerbose() && indexed > 0)
+			getLogger().note("Found %d ancestor specs in index", indexed);
+		if (!loaded.isEmpty()) {
+			if (getLogger().isVerbose())
+				getLogger().note("Loaded %d ancestor specs", loaded.size());
+			this.analyzeSpecs(loaded);
+		}
+		
+		return missing;
+	}
+	
+	/**
+	 * Group impls by depth in the hierarchy (each impl is one level below its deepest parent impl),
+	 * so impls on the same level don't depend on each other.
+	 * @param implOrder Specs, in topological order
+	 * @return Levels, shallowest first (specs on each level are in topological order)
+	 */
+	protected static List<List<TreeSpec>> groupLevels(List<TreeSpec> implOrder) {
+		Map<String, Integer> depths = new HashMap<>();
+		List<List<TreeSpec>> result = new ArrayList<>();
+		for (TreeSpec spec : implOrder) {
+			int depth = 0;
+			for (TypeName parent : spec.parents) {
+				// Same lookup as ImplProcessor#getSuperclassImpl
+				Integer parentDepth = depths.get(parent.toString());
+				if (parentDepth != null)
+					depth = Math.max(depth, parentDepth + 1);
+			}
+			depths.put(spec.getName().toString(), depth);
+			while (result.size() <= depth)
+				result.add(new ArrayList<>());
+			result.get(depth).add(spec);
+		}
+		return result;
+	}
+	
+	/**
+	 * Build impl for spec, and publish it to {@code impls}
+	 */
+	protected TreeImplSpec buildImpl(ImplProcessor processor, TreeSpec spec, Map<String, TreeImplSpec> impls) {
+		String name = spec.getName().toString();
+		long start = System.nanoTime();
+		TreeImplSpec specImpl = processor.buildTreeImpl(spec.source, spec);
+		this.timings.record(Timings.BUILD_TREE_IMPL, name, start);
+		impls.put(name, specImpl);
+		if (getLogger().isVerbose())
+			getLogger().withTarget(spec.source).warn("SpecImpl: %s -> %s", name, specImpl);
+		return specImpl;
+	}
+	
+	/**
+	 * Run tasks (on pool, if there is one, otherwise on this thread).
+	 * If any task fails, the first failure is rethrown once all tasks are done.
+	 */
+	protected <T> void invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) {
+		if (pool == null || tasks.size() < 2) {
+			for (Callable<T> task : tasks) {
+				try {
+					task.call();
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
 				}
 			}
+			return;
 		}
 		
-		return missing;
+		for (Future<T> result : pool.invokeAll(tasks)) {
+			try {
+				result.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IllegalStateException(cause);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for tasks", e);
+			}
+		}
+	}
+	
+	/**
+	 * Build the impls on one level of the hierarchy (in parallel, if there's a pool).
+	 * If any impl fails to build, the first failure is rethrown once the level is done.
+	 */
+	protected void buildLevel(ForkJoinPool pool, ImplProcessor processor, List<TreeSpec> level, Map<String, TreeImplSpec> impls) {
+		List<Callable<TreeImplSpec>> tasks = new ArrayList<>(level.size());
+		for (TreeSpec spec : level)
+			tasks.add(() -> this.buildImpl(processor, spec, impls));
+		invokeAll(pool, tasks);
 	}
 	
 	protected Map<String, TreeImplSpec> processImplOutputs(TypeElement annotation, Map<String, TreeSpec> specs) {
 		DeclaredType annotationType = (DeclaredType) annotation.asType();
 		
-		Map<String, TreeImplSpec> impls = new HashMap<>();
-		
-		ImplProcessor processor = new ImplProcessor(this.processingEnv, annotationType, specs, impls);
+		// Impls are published from the build threads
+		Map<String, TreeImplSpec> impls = new ConcurrentHashMap<>();
 		
 		// Order impl gen
 		List<TreeSpec> implOrder = new ArrayList<>(specs.values());
 		implOrder.removeIf(spec -> spec.kind != TreeSpec.Kind.IMPL);
+		long sortStart = System.nanoTime();
 		implOrder = Orderable.sorted(implOrder);
-		if (Utils.isVerbose())
+		this.timings.record(Timings.SORT, sortStart);
+		if (this.cache != null) {
+			int total = implOrder.size();
+			List<TreeSpec> stale = this.cache.retainStale(this.processingEnv.getFiler(), implOrder, tn -> specs.get(tn.toString()));
+			// The index needs every impl's layout (and the factory needs every impl's c'tor), so build them all (only stale ones are written)
+			if (!this.index.isWriting() && !this.factory)
+				implOrder = stale;
+			getLogger().note("Incremental: building %d of %d impls", implOrder.size(), total);
+		}
+		
+		// Impls from other modules (resolved up front, because the index isn't thread-safe)
+		Set<String> upstreamNames = new HashSet<>();
+		for (TreeSpec spec : implOrder)
+			for (TypeName parent : spec.parents)
+				upstreamNames.add(parent.toString());
+		upstreamNames.removeIf(name -> {
+			TreeSpec parent = specs.get(name);
+			return parent == null || parent.kind == TreeSpec.Kind.IMPL;
+		});
+		Map<String, TreeImplSpec> upstream = this.index.getImpls(upstreamNames, specs);
+		if (!upstream.isEmpty())
+			getLogger().note("Found %d ancestor impls in index", upstream.size());
+		
+		ImplProcessor processor = new ImplProcessor(this.processingEnv, annotationType, getLogger(), specs, impls, upstream);
+		processor.cacheHash = this.options.getBoolean(ProcessorOptions.CACHE_HASH, false);
+		processor.iterativeEquivalence = this.options.getBoolean(ProcessorOptions.ITERATIVE_EQUIVALENCE, false);
+		processor.childLists = this.options.getBoolean(ProcessorOptions.CHILD_LISTS, false);
+		processor.lazyRange = this.options.getBoolean(ProcessorOptions.LAZY_RANGE, false);
+		if (getLogger().isVerbose())
 			getLogger().note("Impl order: %s", implOrder.stream().map(TreeSpec::getName).collect(Collectors.toList()));
 		
-		for (TreeSpec spec : implOrder) {
-			Logger logger = getLogger().withTarget(spec.source);
-			TreeImplSpec specImpl = processor.buildTreeImpl(spec.source, spec);
-			impls.put(spec.getName().toString(), specImpl);
-			if (Utils.isVerbose())
-				logger.warn("SpecImpl: %s -> %s", spec.getName().toString(), specImpl);
+		// Each impl only depends on its parents' impls, so build level-by-level
+		List<List<TreeSpec>> levels = groupLevels(implOrder);
+		int threads = Math.min(this.parallelism, implOrder.size());
+		if (getLogger().isVerbose())
+			getLogger().note("Building %d impls in %d levels on %d threads", implOrder.size(), levels.size(), threads);
+		
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			for (List<TreeSpec> level : levels)
+				this.buildLevel(pool, processor, level, impls);
+		} finally {
+			if (pool != null)
+				pool.shutdownNow();
 		}
 		
 		return impls;
@@ -231,96 +449,205 @@ public class IRAnnotationProcessor extends AbstractProcessor {
 		}
 	}
 	
+	/**
+	 * Commit a rendered impl through the Filer. Must only be called from the processor thread.
+	 * @return If the file was written
+	 */
+	protected boolean commitOutput(Filer filer, OutputInfo info) {
+		JavaFileObject file;
+		try {
+			file = filer.createSourceFile(info.className, info.sources);
+		} catch (FilerException e) {
+			getLogger().error("Error creating file (Filer error) for impl %s: %s", info.className, e.getMessage());
+			return false;
+		} catch (IOException e) {
+			getLogger().error("Error creating file (IO error) for impl %s: %s", info.className, e.getMessage());
+			return false;
+		} catch (Exception e) {
+			// Unexpected
+			getLogger().error("Error creating file (unknown) for impl %s: %s", info.className, e.getMessage());
+			throw e;
+		}
+		
+		try (Writer w = file.openWriter()) {
+			info.writeTo(w);
+		} catch (IOException e) {
+			getLogger().error("Error writing impl %s: %s", info.className, e.getMessage());
+			getLogger().printStackTrace(e);
+			return false;
+		} catch (Exception e) {
+			getLogger().error("Error writing impl %s: %s", info.className, e.getLocalizedMessage());
+			throw e;
+		}
+		return true;
+	}
+	
+	/**
+	 * Render impls on a worker pool, and commit them (on this thread) as they complete.
+	 * <p>
+	 * The Filer isn't thread-safe, so only rendering is parallelized. If a {@link ProcessorOptions#RENDER_BUDGET budget}
+	 * is set, impls are rendered into pooled buffers, and renders wait for buffers to be written (and released)
+	 * once the budget is used up, so memory use doesn't grow with the number of impls. If any impl fails to render,
+	 * no further outputs are committed, outstanding renders are cancelled, and the error is reported
+	 * (unexpected exceptions are rethrown once the pool has shut down).
+	 * </p>
+	 */
 	protected void writeOutputsMP(Collection<TreeImplSpec> impls) {
+		if (impls.isEmpty())
+			return;
+		
 		Filer filer = this.processingEnv.getFiler();
-		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1);
-		threads = Math.min(threads, impls.size());
-		getLogger().warn("Running on %d threads", threads);
-		
-		Queue<TreeImplSpec> iQueue = new LinkedBlockingQueue<>(impls);
-		BlockingQueue<OutputInfo> oQueue = new LinkedBlockingQueue<>();
-		AtomicInteger finishCt = new AtomicInteger(threads);
-		ExecutorService executor = Executors.newFixedThreadPool(threads);
-		for (int i = 0; i < threads; i++)
-			executor.submit(new WriterThread(iQueue, oQueue, finishCt));
-		
-		while (finishCt.get() > 0 || !oQueue.isEmpty()) {
-			OutputInfo info;
-			try {
-				info = oQueue.poll(1, TimeUnit.MILLISECONDS);
-			} catch (InterruptedException e) {
-				getLogger().printStackTrace(e);
-				continue;
-			}
-			if (info == null)
-				continue;
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), impls.size());
+		threads = Math.max(1, threads);
+		if (getLogger().isVerbose())
+			getLogger().note("Rendering %d impls on %d threads", impls.size(), threads);
+		
+		int budget = this.options.getInt(ProcessorOptions.RENDER_BUDGET, 0);
+		RenderBufferPool buffers = budget > 0 ? new RenderBufferPool(budget * 1024L) : null;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new RenderThreadFactory());
+		CompletionService<OutputInfo> renderer = new ExecutorCompletionService<>(executor);
+		Map<Future<OutputInfo>, TreeImplSpec> pending = new HashMap<>();
+		RuntimeException rethrow = null;
+		try {
+			for (TreeImplSpec impl : impls)
+				pending.put(renderer.submit(() -> this.render(impl, buffers)), impl);
 			
-			JavaFileObject file;
-			try {
-				file = filer.createSourceFile(info.className, info.sources);
-			} catch (FilerException e) {
-				getLogger().error("Error creating file (Filer error) for impl %s: %s", info.className, e.getMessage());
-				continue;
-			} catch (IOException e) {
-				getLogger().error("Error creating file (IO error) for impl %s: %s", info.className, e.getMessage());
-				continue;
-			} catch (Exception e) {
-				// Unexpected
-				getLogger().error("Error creating file (unknown) for impl %s: %s", info.className, e.getMessage());
-				throw e;
+			while (!pending.isEmpty()) {
+				// Block until the next render is done
+				Future<OutputInfo> done = renderer.take();
+				TreeImplSpec impl = pending.remove(done);
+				
+				OutputInfo info;
+				try {
+					info = done.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					getLogger().error("Error rendering impl %s: %s %s", impl.getClassName(), cause.getClass(), cause.getLocalizedMessage());
+					getLogger().printStackTrace(cause);
+					if (cause instanceof RuntimeException)
+						rethrow = (RuntimeException) cause;
+					else if (cause instanceof Error)
+						throw (Error) cause;
+					getLogger().error("Aborting output (%d impls not written)", pending.size());
+					break;
+				}
+				
+				long start = System.nanoTime();
+				try {
+					if (this.digests == null || this.digests.update(filer, info))
+						this.commitOutput(filer, info);
+				} finally {
+					if (info.buffer != null)
+						buffers.release(info.buffer);
+				}
+				this.timings.record(Timings.COMMIT, impl.baseType.toString(), start);
 			}
-			
-			try (Writer w = file.openWriter()) {
-				w.write(info.value);
-			} catch (IOException e) {
-				getLogger().error("Error writing impl %s: %s", info.className, e.getMessage());
-				e.printStackTrace();
-			} catch (Exception e) {
-				getLogger().error("Error writing impl %s: %s", info.className, e.getLocalizedMessage());
-				throw e;
+		} catch (InterruptedException e) {
+			getLogger().error("Interrupted while writing outputs (%d impls not written)", pending.size());
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Future<OutputInfo> future : pending.keySet())
+				future.cancel(true);
+			executor.shutdownNow();
+			try {
+				if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+					getLogger().warn("Render threads failed to terminate");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
 		}
-		executor.shutdown();
 		
+		if (rethrow != null)
+			throw rethrow;
+	}
+	
+	/**
+	 * Name of the TreeFactory ({@link ProcessorOptions#FACTORY_NAME}, or the default for this module's impls)
+	 */
+	protected ClassName getFactoryName(Collection<TreeImplSpec> impls) {
+		String name = this.options.getString(ProcessorOptions.FACTORY_NAME);
+		if (name == null || name.isEmpty())
+			return FactorySpec.getDefaultName(impls);
+		int split = name.lastIndexOf('.');
+		return new ClassName(split < 0 ? "" : name.substring(0, split), name.substring(split + 1));
 	}
 	
-	class WriterThread implements Runnable {
-		final Queue<TreeImplSpec> inQueue;
-		final Queue<OutputInfo> outQueue;
-		final AtomicInteger finishCt;
-		
-		public WriterThread(Queue<TreeImplSpec> inQueue, Queue<OutputInfo> outQueue, AtomicInteger finishCt) {
-			this.inQueue = inQueue;
-			this.outQueue = outQueue;
-			this.finishCt = finishCt;
+	/**
+	 * Write a supporting class (e.g., TreeFactory), on this thread
+	 */
+	protected void writeClass(ClassSpec spec) {
+		Filer filer = this.processingEnv.getFiler();
+		OutputInfo info;
+		try {
+			info = spec.writeMP();
+		} catch (IOException e) {
+			getLogger().error("Error rendering %s: %s", spec.getClassName(), e.getMessage());
+			return;
 		}
-
+		if (this.digests == null || this.digests.update(filer, info))
+			this.commitOutput(filer, info);
+	}
+	
+	/**
+	 * Write a class that's shared by impls, unless it's already provided (by a module this one extends, or an
+	 * earlier round)
+	 */
+	protected void writeShared(ClassName name, ClassSpec spec) {
+		if (this.processingEnv.getElementUtils().getTypeElement(name.getQualifiedName()) == null)
+			this.writeClass(spec);
+		else if (getLogger().isVerbose())
+			getLogger().note("Using existing %s", name);
+	}
+	
+	/**
+	 * Render impl (on a worker thread)
+	 * @param buffers Pool to render into (or null to render to a string)
+	 */
+	protected OutputInfo render(TreeImplSpec impl, RenderBufferPool buffers) throws IOException, InterruptedException {
+		RenderBuffer buffer = buffers == null ? null : buffers.acquire();
+		long start = System.nanoTime();
+		try {
+			OutputInfo result = buffer == null ? impl.writeMP() : impl.writeMP(buffer);
+			if (this.digests != null)
+				result.digest = DigestManifest.digest(result.getContent());
+			return result;
+		} catch (IOException | RuntimeException | Error e) {
+			if (buffer != null)
+				buffers.release(buffer);
+			throw e;
+		} finally {
+			this.timings.record(Timings.RENDER, impl.baseType.toString(), start);
+		}
+	}
+	
+	/**
+	 * Write timing report, if requested
+	 */
+	protected void writeTimingReport() {
+		String path = this.options.getString(ProcessorOptions.TIMING_REPORT);
+		if (path == null || path.isEmpty() || !this.timings.isEnabled())
+			return;
+		try {
+			this.timings.writeReport(Paths.get(path), this.options.getInt(ProcessorOptions.TIMING_TOP_N, 10));
+			if (getLogger().isVerbose())
+				getLogger().note("Wrote timing report to %s", path);
+		} catch (IOException e) {
+			getLogger().warn("Unable to write timing report to %s: %s", path, e.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * Daemon threads, so a stuck render can't keep javac alive
+	 */
+	protected static class RenderThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger(0);
+		
 		@Override
-		public void run() {
-			try {
-				while (!Thread.interrupted()) {
-					TreeImplSpec impl = inQueue.poll();
-					if (impl == null)
-						return;
-					
-					OutputInfo out;
-					try {
-						out = impl.writeMP();
-					} catch (IOException e) {
-						getLogger().error("io Error writing impl %s: %s %s", impl.getClassName(), e.getClass(), e.getMessage());
-						getLogger().printStackTrace(e);
-						continue;
-					} catch (Exception e) {
-						getLogger().error("Error writing impl %s: %s %s/%s", impl.getClassName(), e.getClass(), e.getMessage(), e.getCause());
-						getLogger().printStackTrace(e);
-						throw e;
-					}
-					
-					this.outQueue.add(out);
-				}
-			} finally {
-				this.finishCt.decrementAndGet();
-			}
+		public Thread newThread(Runnable r) {
+			Thread result = new Thread(r, "irgen-render-" + this.count.incrementAndGet());
+			result.setDaemon(true);
+			return result;
 		}
 	}
 	
@@ -330,20 +657,57 @@ public class IRAnnotationProcessor extends AbstractProcessor {
 
 	@Override
 	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		try {
+			return this.processRound(annotations, roundEnv);
+		} finally {
+			this.diagnostics.flush();
+		}
+	}
+	
+	protected boolean processRound(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
 		IRAnnotationProcessor.main();
-		Instant start = Instant.now();
+		long start = System.nanoTime();
+		
+		if (roundEnv.processingOver() && this.cache != null) {
+			try {
+				this.cache.save(this.processingEnv.getFiler());
+			} catch (IOException e) {
+				getLogger().warn("Unable to write incremental cache: %s", e.getLocalizedMessage());
+			}
+		}
+		if (roundEnv.processingOver() && this.digests != null) {
+			if (this.digests.getReused() > 0)
+				getLogger().note("Reused %d unchanged impls", this.digests.getReused());
+			try {
+				this.digests.save(this.processingEnv.getFiler());
+			} catch (IOException e) {
+				getLogger().warn("Unable to write digest manifest: %s", e.getLocalizedMessage());
+			}
+		}
+		if (roundEnv.processingOver() && this.index.isWriting()) {
+			try {
+				this.index.save();
+			} catch (IOException e) {
+				getLogger().warn("Unable to write spec index: %s", e.getLocalizedMessage());
+			}
+		}
+		if (roundEnv.processingOver()) {
+			if (getLogger().isVerbose())
+				getLogger().note("Interned %d type names", this.names.size());
+			this.writeTimingReport();
+		}
 		
 		if (annotations.isEmpty())
 			return true;
 		
-		if (Utils.isVerbose())
+		if (getLogger().isVerbose())
 			getLogger().note("Hello, world! %s", annotations);
 		
 		Map<String, TypeElement> annotationLUT = annotations.stream()
 				.collect(Collectors.toMap(annotation -> annotation.getQualifiedName().toString(), x -> x));
 		
 		Map<String, TreeSpec> specs = new HashMap<>();
-
+		
 		TypeElement impl = annotationLUT.get(IRTypes.TREE_IMPL);
 		if (impl != null)
 			specs.putAll(this.processTrees(impl, roundEnv));
@@ -353,36 +717,57 @@ public class IRAnnotationProcessor extends AbstractProcessor {
 		TypeElement noImpl = annotationLUT.get(IRTypes.TREE_NOIMPL);
 		if (noImpl != null)
 			specs.putAll(this.processTrees(noImpl, roundEnv));
+		this.timings.record(Timings.PROCESS_TREES, start);
 		
-		Instant postproc = Instant.now();
+		long analyzeStart = System.nanoTime();
+		this.analyzeSpecs(specs.values());
+		this.timings.record(Timings.ANALYZE_TREES, analyzeStart);
+		this.index.addSpecs(specs.values());
 		
+		long unprocessedStart = System.nanoTime();
 		Set<String> missing = getUnprocessed(adt, roundEnv, specs);
+		this.timings.record(Timings.GET_UNPROCESSED, unprocessedStart);
+		long postproc = System.nanoTime();
 		if (!missing.isEmpty())
 			getLogger().note("Missing specs=%s", missing);
 		
 		// Log ParameterTree order, because something's funky about the ordering there
 		TreeSpec paramSpec = specs.get("com.mindlin.nautilus.tree.ParameterTree");
-		if (paramSpec != null) {
-			getLogger().warn("Specs for %s: %s", paramSpec.getName().toString(), paramSpec.getters);
+		if (paramSpec != null && getLogger().isVerbose()) {
+			getLogger().note("Specs for %s: %s", paramSpec.getName().toString(), paramSpec.getters);
 		}
+		this.diagnostics.flush();
 		
-		Instant buildDone;
+		long buildDone;
 		if (impl != null) {
 			Map<String, TreeImplSpec> impls = this.processImplOutputs(impl, specs);
-			buildDone = Instant.now();
-//			this.writeOutputs(impls.values());
-			this.writeOutputsMP(impls.values());
+			this.index.addImpls(impls.values());
+			buildDone = System.nanoTime();
+			this.timings.record(Timings.PROCESS_IMPLS, postproc);
+			this.diagnostics.flush();
+			Collection<TreeImplSpec> outputs = this.cache == null ? impls.values() : this.cache.filterStale(impls);
+//			this.writeOutputs(outputs);
+			this.writeOutputsMP(outputs);
+			if (this.factory && !impls.isEmpty())
+				this.writeClass(new FactorySpec(this.getFactoryName(impls.values()), impls.values(), this.factoryIntern));
+			// Always written (even if no impls are stale), so they're there for impls from earlier builds
+			if (this.options.getBoolean(ProcessorOptions.CHILD_LISTS, false) || (this.factoryIntern && !impls.isEmpty()))
+				this.writeShared(IRTypes.CHILD_LIST, new ChildListSpec());
+			if (this.options.getBoolean(ProcessorOptions.ITERATIVE_EQUIVALENCE, false))
+				this.writeShared(IRTypes.EQUIVALENCE, new EquivalenceSpec());
+			this.timings.record(Timings.WRITE_OUTPUTS, buildDone);
 		} else {
 			getLogger().warn("No outputs");
-			buildDone = Instant.now();
+			buildDone = System.nanoTime();
 		}
 		
-		Instant end = Instant.now();
-		Duration inElapsed = Duration.between(start, postproc);
-		Duration buildElapsed = Duration.between(postproc, buildDone);
-		Duration outElapsed = Duration.between(buildDone, end);
-		Duration elapsed = Duration.between(start, end);
-		getLogger().note("Ran in %d.%09d (%d.%09d in/%d.%09d build/%d.%09d out)", elapsed.getSeconds(), elapsed.getNano(), inElapsed.getSeconds(), inElapsed.getNano(), buildElapsed.getSeconds(), buildElapsed.getNano(), outElapsed.getSeconds(), outElapsed.getNano());
+		long end = System.nanoTime();
+		this.timings.record(Timings.ROUND, start);
+		long inElapsed = postproc - start;
+		long buildElapsed = buildDone - postproc;
+		long outElapsed = end - buildDone;
+		long elapsed = end - start;
+		getLogger().note("Ran in %d.%09d (%d.%09d in/%d.%09d build/%d.%09d out)", elapsed / NANOS, elapsed % NANOS, inElapsed / NANOS, inElapsed % NANOS, buildElapsed / NANOS, buildElapsed % NANOS, outElapsed / NANOS, outElapsed % NANOS);
 		
 		return true;
 	}
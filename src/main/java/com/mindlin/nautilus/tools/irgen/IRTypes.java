@@ -39,6 +39,10 @@ public class IRTypes {
 	
 	public static final String IMPL_PACKAGE = "com.mindlin.nautilus.tree.impl";
 	public static final ClassName ABSTRACT_BASE = new ClassName(IMPL_PACKAGE, "AbstractTree");
+	/** Generated immutable list (see {@link ChildListSpec}) */
+	public static final ClassName CHILD_LIST = new ClassName(IMPL_PACKAGE, "ChildList");
+	/** Generated iterative equivalence loop (see {@link EquivalenceSpec}) */
+	public static final ClassName EQUIVALENCE = new ClassName(IMPL_PACKAGE, "IterativeEquivalence");
 	
 	public static final String OVERRIDE = "java.lang.Override";
 	public static final String COLLECTION = "java.util.Collection";
@@ -53,6 +57,10 @@ public class IRTypes {
 		return type instanceof PrimitiveType;
 	}
 	
+	public static boolean isPrimitive(TypeName type) {
+		return type.isPrimitive();
+	}
+	
 	public static boolean isPrimitive(String type) {
 		switch (type) {
 			case "char":
@@ -79,6 +87,10 @@ public class IRTypes {
 		return isCollection(type.toString());
 	}
 	
+	public static boolean isCollection(TypeName type) {
+		return isCollection(type.toString());
+	}
+	
 	public static boolean isCollection(String type) {
 		switch (type) {
 			case "java.util.List":
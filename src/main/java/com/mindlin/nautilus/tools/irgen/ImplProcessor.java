@@ -3,18 +3,20 @@ package com.mindlin.nautilus.tools.irgen;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
 
-import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
 import com.mindlin.nautilus.tools.irgen.ir.AbstractTreeSpec;
@@ -27,22 +29,54 @@ import com.mindlin.nautilus.tools.irgen.ir.MethodSpec.SimpleGetterSpec;
 import com.mindlin.nautilus.tools.irgen.ir.TreeImplSpec;
 import com.mindlin.nautilus.tools.irgen.ir.TreeSpec;
 import com.mindlin.nautilus.tools.irgen.ir.TreeSpec.GetterSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TreeSpec.InheritedGetters;
 import com.mindlin.nautilus.tools.irgen.ir.TypeName;
 
+/**
+ * Builds impl specs from tree specs.
+ * <p>
+ * An impl can be built once its parents' impls are in {@code impls}. Impls that don't depend on
+ * each other can be built concurrently, as long as {@code impls} is a concurrent map.
+ * </p>
+ */
 public class ImplProcessor extends AnnotationProcessorBase {
 	final Map<String, TreeSpec> specs;
 	final Map<String, TreeImplSpec> impls;
+	/** Impls from other modules (read-only) */
+	final Map<String, TreeImplSpec> upstream;
+	/** Memoize hashes of generated impls (see {@link TreeImplSpec#cacheHash}) */
+	boolean cacheHash = false;
+	/** Generate iterative equivalentTo() (see {@link TreeImplSpec#iterativeEquivalence}) */
+	boolean iterativeEquivalence = false;
+	/** Store collections as ChildLists (see {@link TreeImplSpec#childLists}) */
+	boolean childLists = false;
+	/** Store positions instead of SourceRanges (see {@link TreeImplSpec#lazyRange}) */
+	boolean lazyRange = false;
 	
 	public ImplProcessor(ProcessingEnvironment procEnv, DeclaredType annotation, Map<String, TreeSpec> specs, Map<String, TreeImplSpec> impls) {
-		super(procEnv, annotation);
+		this(procEnv, annotation, new Logger(procEnv.getMessager()), specs, impls, Collections.emptyMap());
+	}
+	
+	public ImplProcessor(ProcessingEnvironment procEnv, DeclaredType annotation, Logger logger, Map<String, TreeSpec> specs, Map<String, TreeImplSpec> impls) {
+		this(procEnv, annotation, logger, specs, impls, Collections.emptyMap());
+	}
+	
+	public ImplProcessor(ProcessingEnvironment procEnv, DeclaredType annotation, Logger logger, Map<String, TreeSpec> specs, Map<String, TreeImplSpec> impls, Map<String, TreeImplSpec> upstream) {
+		super(procEnv, annotation, logger);
 		this.specs = specs;
 		this.impls = impls;
+		this.upstream = upstream;
+	}
+	
+	protected @Nullable TreeImplSpec lookupImpl(String name) {
+		TreeImplSpec result = this.impls.get(name);
+		return result != null ? result : this.upstream.get(name);
 	}
 	
 	protected TreeImplSpec getSuperclassImpl(Collection<? extends TypeName> parents) {
 		return parents.stream()
 				.map(Object::toString)
-				.map(this.impls::get)
+				.map(this::lookupImpl)
 				.filter(Objects::nonNull)
 				.findFirst()
 				.orElse(null);
@@ -63,37 +97,30 @@ public class ImplProcessor extends AnnotationProcessorBase {
 		return new FieldSpec(Modifier.PROTECTED | Modifier.FINAL, getter.type, getter.fName);
 	}
 	
-	protected @Nullable TypeElement resolveSource(@NonNull TypeName parent) {
-		String parentName = parent.toString();//TODO: fix?
-		TreeImplSpec parentImpl = this.impls.get(parentName);
-		if (parentImpl != null)
-			return parentImpl.source;
-		TreeSpec parentSpec = this.specs.get(parentName);
-		if (parentSpec != null)
-			return parentSpec.source;
-		return null;
+	/**
+	 * Add originating elements for an impl: every tree it was built from (the whole ancestor closure,
+	 * not just direct parents), so build tools know what to recompile it for.
+	 * @param ancestors Linearization of the impl's tree (see {@link TreeSpec#getAllParents(java.util.function.Function)})
+	 */
+	protected void addSources(TreeImplSpec impl, List<TreeSpec> ancestors) {
+		Set<Element> added = new HashSet<>(impl.sources);
+		for (TreeSpec ancestor : ancestors)
+			if (ancestor.source != null && added.add(ancestor.source))
+				impl.sources.add(ancestor.source);
 	}
 	
-	protected List<GetterSpec> resolveGetters(List<TreeSpec> parents, TreeSpec spec) {
-		Map<String, GetterSpec> gettersMap = new LinkedHashMap<>();
-		Map<String, String> overrideWarnings = new HashMap<>();
-		for (TreeSpec parent : parents) {
-			for (GetterSpec getter : parent.getters) {
-				GetterSpec old = gettersMap.put(getter.name, getter);
-				if (old != null) {
-					if (getter.override) {
-						overrideWarnings.remove(getter.name);
-					} else {
-						overrideWarnings.put(getter.name, String.format("Override getter '%s' on %s from %s -> %s (%s)", getter.name, spec.getName(), parent.source.getSimpleName(), old.target.getEnclosingElement().getSimpleName(), getter.override));
-					}
-				}
-			}
+	protected @Nullable TreeSpec lookupSpec(TypeName name) {
+		return this.specs.get(name.toString());
+	}
+	
+	protected List<GetterSpec> resolveGetters(TreeSpec spec) {
+		InheritedGetters inherited = spec.getInheritedGetters(this::lookupSpec);
+		for (Map.Entry<String, GetterSpec> hidden : inherited.getHidden().entrySet()) {
+			GetterSpec getter = inherited.get(hidden.getKey());
+			getLogger().warn("Override getter '%s' on %s from %s -> %s (%s)", getter.name, spec.getName(), getter.owner.getSimpleName(), hidden.getValue().owner.getSimpleName(), getter.override);
 		}
 		
-		for (String warning : overrideWarnings.values())
-			getLogger().warn(warning);
-		
-		return new ArrayList<>(gettersMap.values());
+		return new ArrayList<>(inherited.getGetters());
 	}
 	
 	protected List<GetterSpec> gettersToDeclare(List<GetterSpec> getters, TreeImplSpec parent) {
@@ -144,10 +171,12 @@ public class ImplProcessor extends AnnotationProcessorBase {
 		// Generate field getter
 		FieldSpec field = impl.fields.get(getter.fName);
 		
-		String invName = Utils.getName(getter.invoker.getAnnotationType());
+		String invName = getter.invokerName;
 		if (Objects.equals(invName, IRTypes.TREE_PROPERTY)) {
 			if (IRTypes.isCollection(getter.type)) {
 				flags |= AbstractTreeSpec.MF_GOBJECT;
+				if (impl.childLists && ChildListSpec.isSupported(getter.type))
+					return new SimpleGetterSpec(flags, getter.name, field);
 				return new CollectionGetterSpec(flags, getter.name, field, true);
 			} else {
 				if (IRTypes.isPrimitive(getter.type))
@@ -162,6 +191,8 @@ public class ImplProcessor extends AnnotationProcessorBase {
 			return new SimpleGetterSpec(flags, getter.name, field);
 		} else if (Objects.equals(invName, IRTypes.TREE_CHILDREN)) {
 			flags |= AbstractTreeSpec.MF_GCHILDREN;
+			if (impl.childLists && ChildListSpec.isSupported(getter.type))
+				return new SimpleGetterSpec(flags, getter.name, field);
 			return new CollectionGetterSpec(flags, getter.name, field, true);
 		} else {
 			throw new IllegalArgumentException("Unknown invName: " + invName);
@@ -175,9 +206,24 @@ public class ImplProcessor extends AnnotationProcessorBase {
 		return new NarrowGetterSpec(flags, local.name, local.type);
 	}
 	
+	/**
+	 * Get the simple name of the impl generated for a tree
+	 */
+	public static String getImplName(TypeElement element) {
+		return element.getSimpleName() + "Impl";
+	}
+	
+	public static String getImplName(ClassName name) {
+		return name.getSimpleName() + "Impl";
+	}
+	
 	public TreeImplSpec buildTreeImpl(TypeElement element, TreeSpec spec) {
-		String implName = element.getSimpleName() + "Impl";
+		String implName = getImplName(spec.getName());
 		TreeImplSpec impl = new TreeImplSpec(element, implName);
+		impl.cacheHash = this.cacheHash;
+		impl.iterativeEquivalence = this.iterativeEquivalence;
+		impl.childLists = this.childLists;
+		impl.lazyRange = this.lazyRange;
 		
 		// Resolve heritage
 		impl.baseType = spec.getName();
@@ -185,19 +231,16 @@ public class ImplProcessor extends AnnotationProcessorBase {
 		impl.parent = impl.resolvedParent == null ? IRTypes.ABSTRACT_BASE : resolvedParent.getClassName();
 		impl.parentIfaces.add(spec.getName());
 		
-		// Add sources for Filer dependency stuff
-		spec.parents.stream()
-				.map(this::resolveSource)
-				.filter(Objects::nonNull)
-				.forEach(impl.sources::add);
-		
 		// Resolve getters
-		List<TreeSpec> parents = spec.getAllParents(tn -> this.specs.get(tn.toString()));
-		List<GetterSpec> resolvedGetters = this.resolveGetters(parents, spec);
+		List<TreeSpec> parents = spec.getAllParents(this::lookupSpec);
+		
+		// Add sources for Filer dependency stuff
+		this.addSources(impl, parents);
+		List<GetterSpec> resolvedGetters = this.resolveGetters(spec);
 		for (GetterSpec getter : resolvedGetters)
 			impl.getters.put(getter.name, getter);
 		
-		if (Utils.isVerbose())
+		if (getLogger().isVerbose())
 			getLogger().warn("Getters for %s: %s", spec.getName(), resolvedGetters);
 		
 		// Determine which fields we have to declare
@@ -220,7 +263,7 @@ public class ImplProcessor extends AnnotationProcessorBase {
 		// Generate getter methods
 		for (GetterSpec getter : resolvedGetters) {
 			Logger getterLogger = getLogger().withTarget(getter.target);
-			if (Utils.isVerbose())
+			if (getLogger().isVerbose())
 				getLogger().warn("Add getter %s to %s", getter.name, spec.getName());
 			MethodSpec method = this.makeGetter(impl, getter);
 			if (method == null) {
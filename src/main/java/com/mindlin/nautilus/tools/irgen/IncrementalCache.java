@@ -0,0 +1,190 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import javax.annotation.processing.Filer;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.mindlin.nautilus.tools.irgen.ir.TreeImplSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TreeSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TreeSpec.GetterSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName;
+
+/**
+ * Fingerprints of every generated impl, persisted between builds.
+ * <p>
+ * Each {@link TreeSpec} is reduced to a digest of everything that affects its impl (name, kind, parents, and getters).
+ * An impl's fingerprint combines the digests of its whole ancestor chain (as resolved by {@link TreeSpec#getAllParents(Function)}),
+ * so it is regenerated iff its own interface or one of its ancestors changed.
+ * </p>
+ * <p>
+ * The specs themselves hold javac elements, which can't outlive the compiler, so only their digests are stored.
+ * </p>
+ */
+public class IncrementalCache {
+	public static final String CACHE_PATH = "META-INF/nautilus-irgen/incremental.properties";
+	/** Bump when the generated code changes shape, so old caches are invalidated */
+	protected static final String FORMAT_VERSION = "1";
+	protected static final String KEY_GENERATOR = "__generator";
+	
+	public static IncrementalCache load(Filer filer, Logger logger, ProcessorOptions options) {
+		IncrementalCache result = new IncrementalCache(generatorSignature(options));
+		try {
+			FileObject file = filer.getResource(StandardLocation.CLASS_OUTPUT, "", CACHE_PATH);
+			try (InputStream is = file.openInputStream()) {
+				result.previous.load(is);
+			}
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			// First build
+		} catch (IOException | IllegalArgumentException e) {
+			logger.warn("Unable to read incremental cache (%s); regenerating everything", e.getLocalizedMessage());
+			result.previous.clear();
+		}
+		
+		if (!Objects.equals(result.previous.getProperty(KEY_GENERATOR), result.generator)) {
+			if (logger.isVerbose() && !result.previous.isEmpty())
+				logger.note("Generator configuration changed; regenerating everything");
+			result.previous.clear();
+		}
+		// Fingerprints are only carried over for impls seen in this build (see retainStale), so deleted trees are dropped
+		return result;
+	}
+	
+	protected static String generatorSignature(ProcessorOptions options) {
+		return FORMAT_VERSION + ":" + options.getOwnOptions();
+	}
+	
+	protected static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE is required to support SHA-256
+			throw new AssertionError(e);
+		}
+	}
+	
+	private static void update(MessageDigest digest, Object value) {
+		digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+	
+	/**
+	 * Compute digest of a single tree (not including its ancestors)
+	 */
+	public static String fingerprint(TreeSpec spec) {
+		MessageDigest digest = newDigest();
+		update(digest, spec.getName());
+		update(digest, spec.kind);
+		update(digest, spec.kinds == null ? null : new TreeSet<>(spec.kinds.keySet()));
+		for (TypeName parent : spec.parents)
+			update(digest, parent);
+		
+		for (GetterSpec getter : spec.getters) {
+			update(digest, getter.name);
+			update(digest, getter.fName);
+			update(digest, getter.type);
+			update(digest, getter.invokerName);
+			update(digest, getter.override);
+			update(digest, getter.optional);
+			update(digest, getter.hash);
+			update(digest, getter.compare);
+			update(digest, getter.first);
+			update(digest, getter.last);
+			update(digest, getter.before);
+			update(digest, getter.after);
+		}
+		return Utils.toHex(digest.digest());
+	}
+	
+	protected final String generator;
+	/** State from the last build */
+	protected final Properties previous = new Properties();
+	/** State to be written at the end of this build */
+	protected final Properties next = new Properties();
+	/** Names of impls that have to be regenerated this round */
+	protected final Set<String> stale = new HashSet<>();
+	
+	protected IncrementalCache(String generator) {
+		this.generator = generator;
+		this.next.setProperty(KEY_GENERATOR, generator);
+	}
+	
+	protected String fingerprintChain(TreeSpec spec, Function<TypeName, TreeSpec> lookup) {
+		MessageDigest digest = newDigest();
+		for (TreeSpec ancestor : spec.getAllParents(lookup))
+			update(digest, fingerprint(ancestor));
+		return Utils.toHex(digest.digest());
+	}
+	
+	/**
+	 * Check if the source generated for {@code spec} in the last build is still around.
+	 */
+	protected boolean hasOutput(Filer filer, TreeSpec spec) {
+		return Utils.hasGeneratedSource(filer, IRTypes.IMPL_PACKAGE, ImplProcessor.getImplName(spec.getName()) + ".java");
+	}
+	
+	/**
+	 * Select the impls that have to be built this round: the stale ones, plus the impls they extend.
+	 * @param implOrder Impl specs, in build order
+	 * @param lookup Spec lookup, for resolving ancestors
+	 * @return Subset of {@code implOrder} (maintaining order) that has to be built
+	 */
+	public List<TreeSpec> retainStale(Filer filer, List<TreeSpec> implOrder, Function<TypeName, TreeSpec> lookup) {
+		Set<TreeSpec> required = new LinkedHashSet<>();
+		for (TreeSpec spec : implOrder) {
+			String name = spec.getName().toString();
+			String fingerprint = this.fingerprintChain(spec, lookup);
+			this.next.setProperty(name, fingerprint);
+			if (Objects.equals(this.previous.getProperty(name), fingerprint) && this.hasOutput(filer, spec))
+				continue;
+			
+			this.stale.add(name);
+			// Parent impls are needed to resolve fields & c'tors
+			required.addAll(spec.getAllParents(lookup));
+		}
+		
+		List<TreeSpec> result = new ArrayList<>(required.size());
+		for (TreeSpec spec : implOrder)
+			if (required.contains(spec))
+				result.add(spec);
+		return result;
+	}
+	
+	public boolean isStale(TreeImplSpec impl) {
+		return this.stale.contains(impl.baseType.toString());
+	}
+	
+	public Collection<TreeImplSpec> filterStale(Map<String, TreeImplSpec> impls) {
+		List<TreeImplSpec> result = new ArrayList<>();
+		for (TreeImplSpec impl : impls.values())
+			if (this.isStale(impl))
+				result.add(impl);
+		return result;
+	}
+	
+	public void save(Filer filer) throws IOException {
+		FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", CACHE_PATH);
+		try (OutputStream os = file.openOutputStream()) {
+			this.next.store(os, "nautilus-irgen incremental cache");
+		}
+	}
+}
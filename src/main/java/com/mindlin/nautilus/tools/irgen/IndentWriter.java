@@ -1,39 +1,45 @@
 package com.mindlin.nautilus.tools.irgen;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.Arrays;
 import java.util.Objects;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
 
+import com.mindlin.nautilus.tools.irgen.codegen.RenderBuffer;
+
+/**
+ * Writer that indents every line.
+ * <p>
+ * Output is collected in a char buffer (indent prefixes are precomputed per depth), and only passed
+ * to the underlying writer when the buffer fills up, or on {@link #flush()}/{@link #close()}.
+ * So callers that read the underlying writer (e.g., a {@link java.io.StringWriter}) have to flush first.
+ * If the underlying writer is a {@link RenderBuffer}, output is appended to it directly instead.
+ * Not thread-safe.
+ * </p>
+ */
 @NonNullByDefault
 public class IndentWriter extends PrintWriter {
-	private static int nextNewline(String s, int off, int len) {
-		if (s.length() - off - len > 1024) {
-			// `s` is big
-			for (int i = off; i < off + len; i++)
-				if (s.charAt(i) == '\n')
-					return i;
-		} else {
-			int result = s.indexOf('\n', off);
-			if (result < off + len)
-				return result;
-		}
-		return -1;
-	}
-	
-	private static int nextNewline(char[] c, int off, int len) {
-		for (int i = off; i < off + len; i++)
-			if (c[i] == '\n')
-				return i;
-		return -1;
-	}
+	/** Initial buffer size */
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Buffer is flushed when it would grow past this size */
+	private static final int FLUSH_THRESHOLD = 64 * 1024;
 	
 	public int indent = 0;
 	private boolean eol = false;
 	private final String spacer;
-	private transient String indentCache = null;
+	private final char[] lineSeparator = System.lineSeparator().toCharArray();
+	/** Indent prefix for each depth (lazily computed) */
+	private char[][] indents = new char[8][];
+	/** Buffer that output is collected in (the underlying writer itself, if it's a RenderBuffer) */
+	private final RenderBuffer buffer;
+	/** If the buffer is the underlying writer (so it's never flushed) */
+	private final boolean direct;
+	/** Scratch space for {@link #print(long)} */
+	private final char[] digitBuffer = new char[20];
 
 	public IndentWriter(Writer writer) {
 		this(writer, "\t");
@@ -42,6 +48,8 @@ public class IndentWriter extends PrintWriter {
 	public IndentWriter(Writer writer, String spacer) {
 		super(writer);
 		this.spacer = Objects.requireNonNull(spacer);
+		this.direct = writer instanceof RenderBuffer;
+		this.buffer = this.direct ? (RenderBuffer) writer : new RenderBuffer(INITIAL_CAPACITY);
 	}
 	
 	public void indentln(String text) {
@@ -70,41 +78,50 @@ public class IndentWriter extends PrintWriter {
 		return this;
 	}
 	
-	private String getIndentText() {
-		if (this.indent <= 0)
-			return "";
-		
-		int spacerLen = this.spacer.length();
-		if (this.indent == 1 || spacerLen == 0)
-			return this.spacer;
-		
-		int outLen = this.indent * spacerLen;
-		if (this.indentCache != null && this.indentCache.length() >= outLen) {
-//			if (this.indentCache.length() > outLen * 4)
-			this.indentCache = this.indentCache.substring(0, outLen);
-			return this.indentCache;
+	private char[] getIndentPrefix(int depth) {
+		if (depth >= this.indents.length)
+			this.indents = Arrays.copyOf(this.indents, Math.max(depth + 1, this.indents.length * 2));
+		char[] result = this.indents[depth];
+		if (result == null) {
+			int spacerLen = this.spacer.length();
+			result = new char[depth * spacerLen];
+			for (int i = 0; i < result.length; i += spacerLen)
+				this.spacer.getChars(0, spacerLen, result, i);
+			this.indents[depth] = result;
 		}
-		
-		if (spacerLen == 1) {
-			char[] buffer = new char[outLen];
-			Arrays.fill(buffer, this.spacer.charAt(0));
-			return this.indentCache = new String(buffer);
+		return result;
+	}
+	
+	/**
+	 * Flush the buffer if {@code extra} more chars would grow it past {@link #FLUSH_THRESHOLD}
+	 */
+	private void reserve(int extra) {
+		if (!this.direct && this.buffer.length() > 0 && this.buffer.length() + extra > FLUSH_THRESHOLD)
+			this.flushBuffer();
+	}
+	
+	private void flushBuffer() {
+		if (this.direct || this.buffer.length() == 0)
+			return;
+		try {
+			this.buffer.writeTo(this.out);
+		} catch (IOException e) {
+			this.setError();
 		}
-		
-		char[] buffer = new char[outLen];
-		char[] schars = this.spacer.toCharArray();
-		//TODO: can probably do this by doubling
-		for (int i = 0; i < outLen; i+= spacerLen)
-			System.arraycopy(schars, 0, buffer, i, spacerLen);
-		return this.indentCache = new String(buffer);
-		
+		this.buffer.reset();
+	}
+	
+	private void put(char[] chars) {
+		this.reserve(chars.length);
+		this.buffer.write(chars, 0, chars.length);
 	}
 	
 	private void printSOL() {
 		if (this.eol) {
 			this.eol = false;
-			super.println();
-			super.write(this.getIndentText());
+			this.put(this.lineSeparator);
+			if (this.indent > 0)
+				this.put(this.getIndentPrefix(this.indent));
 		}
 	}
 	
@@ -125,16 +142,17 @@ public class IndentWriter extends PrintWriter {
 	
 	@Override
 	public void write(final String s, int off, int len) {
-		while (len > 0) {
+		final int end = off + len;
+		while (off < end) {
 			this.printSOL();
-			int newline = nextNewline(s, off, len);
-			if (newline == -1) {
-				super.write(s, off, len);
+			int newline = s.indexOf('\n', off);
+			if (newline == -1 || newline >= end)
+				newline = end;
+			int run = newline - off;
+			this.reserve(run);
+			this.buffer.write(s, off, run);
+			if (newline == end)
 				break;
-			}
-			if (newline > off)
-				super.write(s, off, newline - off);
-			len -= (newline - off) + 1;
 			off = newline + 1;
 			this.println();
 		}
@@ -142,16 +160,17 @@ public class IndentWriter extends PrintWriter {
 	
 	@Override
 	public void write(char[] buf, int off, int len) {
-		while (len > 0) {
+		final int end = off + len;
+		while (off < end) {
 			this.printSOL();
-			int newline = nextNewline(buf, off, len);
-			if (newline == -1) {
-				super.write(buf, off, len);
+			int newline = off;
+			while (newline < end && buf[newline] != '\n')
+				newline++;
+			int run = newline - off;
+			this.reserve(run);
+			this.buffer.write(buf, off, run);
+			if (newline == end)
 				break;
-			}
-			if (newline > off)
-				super.write(buf, off, newline - off);
-			len -= (newline - off) + 1;
 			off = newline + 1;
 			this.println();
 		}
@@ -159,12 +178,72 @@ public class IndentWriter extends PrintWriter {
 	
 	@Override
 	public void write(int c) {
-		if (c == '\n')
+		if (c == '\n') {
 			this.println();
-		else {
+		} else {
 			this.printSOL();
-			super.write(c);
+			this.reserve(1);
+			this.buffer.write(c);
+		}
+	}
+	
+	@Override
+	public PrintWriter append(@Nullable CharSequence csq, int start, int end) {
+		if (csq == null)
+			csq = "null";
+		if (csq instanceof String) {
+			this.write((String) csq, start, end - start);
+		} else {
+			for (int i = start; i < end; i++)
+				this.write(csq.charAt(i));
 		}
+		return this;
+	}
+	
+	@Override
+	public void print(int i) {
+		this.print((long) i);
+	}
+	
+	/**
+	 * Print decimal digits without going through a String
+	 */
+	@Override
+	public void print(long l) {
+		if (l == Long.MIN_VALUE) {
+			// Can't be negated
+			this.write(Long.toString(l));
+			return;
+		}
+		this.printSOL();
+		int digits = 1;
+		long abs = l < 0 ? -l : l;
+		for (long v = abs; v >= 10; v /= 10)
+			digits++;
+		if (l < 0)
+			digits++;
+		
+		int pos = digits;
+		do {
+			this.digitBuffer[--pos] = (char) ('0' + (abs % 10));
+			abs /= 10;
+		} while (abs != 0);
+		if (l < 0)
+			this.digitBuffer[--pos] = '-';
+		this.reserve(digits);
+		this.buffer.write(this.digitBuffer, 0, digits);
+	}
+	
+	@Override
+	public void flush() {
+		this.flushBuffer();
+		super.flush();
+	}
+	
+	@Override
+	public void close() {
+		this.flushBuffer();
+		super.close();
 	}
 
 	public void space() {
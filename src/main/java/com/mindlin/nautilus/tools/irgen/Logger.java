@@ -1,8 +1,10 @@
 package com.mindlin.nautilus.tools.irgen;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Objects;
 
 import javax.annotation.processing.Messager;
@@ -40,28 +42,55 @@ public class Logger {
 		this.value = value;
 	}
 	
-	public Logger withTarget(Element target) {
+	/**
+	 * Get logger for position (or this, if it's the same position)
+	 */
+	protected Logger at(@Nullable Element target, @Nullable AnnotationMirror site, @Nullable AnnotationValue value) {
+		if (target == this.target && site == this.site && value == this.value)
+			return this;
 		return new Logger(messager, target, site, value);
 	}
 	
+	public Logger withTarget(Element target) {
+		return this.at(target, site, value);
+	}
+	
 	public Logger withTarget(Element target, AnnotationMirror site) {
-		return new Logger(messager, target, site, value);
+		return this.at(target, site, value);
 	}
 	
 	public Logger withTarget(Element target, AnnotationMirror site, AnnotationValue value) {
-		return new Logger(messager, target, site, value);
+		return this.at(target, site, value);
 	}
 	
 	public Logger withSite(AnnotationMirror site) {
-		return new Logger(messager, target, site, value);
+		return this.at(target, site, value);
 	}
 	
 	public Logger withSite(AnnotationMirror site, AnnotationValue value) {
-		return new Logger(messager, target, site, value);
+		return this.at(target, site, value);
 	}
 	
 	public Logger withValue(AnnotationValue value) {
-		return new Logger(messager, target, site, value);
+		return this.at(target, site, value);
+	}
+	
+	/**
+	 * Check if messages of the given kind will be reported
+	 */
+	public boolean isEnabled(Kind kind) {
+		if (this.messager instanceof Diagnostics)
+			return ((Diagnostics) this.messager).isEnabled(kind);
+		return true;
+	}
+	
+	/**
+	 * Check if extra (verbose) messages should be reported
+	 */
+	public boolean isVerbose() {
+		if (this.messager instanceof Diagnostics)
+			return ((Diagnostics) this.messager).isVerbose();
+		return false;
 	}
 	
 	public void log(Kind kind, String msg) {
@@ -76,7 +105,8 @@ public class Logger {
 	}
 	
 	public void log(Kind kind, String msg, Object...args) {
-		log(kind, String.format(msg, args));
+		if (this.isEnabled(kind))
+			log(kind, String.format(msg, args));
 	}
 	
 	public void note(String msg, Object...args) {
@@ -91,27 +121,45 @@ public class Logger {
 		log(Kind.ERROR, msg, args);
 	}
 	
+	/**
+	 * Report stack trace as a single message
+	 */
 	public void printStackTrace(Throwable t) {
-		try (PrintStream ps = new PrintStream(this.asOutputStream(Kind.ERROR))) {
-			t.printStackTrace(ps);
+		StringWriter sw = new StringWriter();
+		try (PrintWriter pw = new PrintWriter(sw)) {
+			t.printStackTrace(pw);
 		}
+		this.log(Kind.ERROR, sw.toString());
 	}
 	
 	public OutputStream asOutputStream(Kind level) {
 		return new FakeOutputStream(level);
 	}
 	
+	/**
+	 * Line-buffered stream, reporting one message per line
+	 */
 	class FakeOutputStream extends OutputStream {
 		protected final Kind level;
+		protected final ByteArrayOutputStream line = new ByteArrayOutputStream();
 		
 		public FakeOutputStream(Kind level) {
 			this.level = level;
 		}
 		
+		protected void emitLine() {
+			if (this.line.size() == 0)
+				return;
+			Logger.this.log(this.level, this.line.toString());
+			this.line.reset();
+		}
+		
 		@Override
 		public void write(int b) throws IOException {
-			//TODO: buffer?
-			Logger.this.log(level, "%c", b);
+			if (b == '\n')
+				this.emitLine();
+			else if (b != '\r')
+				this.line.write(b);
 		}
 		
 		@Override
@@ -119,9 +167,18 @@ public class Logger {
 			Objects.requireNonNull(b);
 			if ((off < 0) || (off > b.length) || (len < 0) || ((off + len) > b.length) || ((off + len) < 0))
 				throw new IndexOutOfBoundsException();
-			if (len == 0)
-				return;
-			Logger.this.log(this.level, new String(b, off, len));
+			for (int i = off; i < off + len; i++)
+				this.write(b[i]);
+		}
+		
+		@Override
+		public void flush() {
+			this.emitLine();
+		}
+		
+		@Override
+		public void close() {
+			this.emitLine();
 		}
 	}
 }
@@ -0,0 +1,92 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Typed view over the {@code -A} options passed to {@link IRAnnotationProcessor}.
+ */
+@NonNullByDefault
+public class ProcessorOptions {
+	public static final String PREFIX = "irgen.";
+	/** Only regenerate impls whose tree (or one of its ancestors) changed since the last build */
+	public static final String INCREMENTAL = PREFIX + "incremental";
+	/** Enable debugging notes */
+	public static final String VERBOSE = PREFIX + "verbose";
+	/** Minimum level of diagnostics to report (error, warning, note, or other) */
+	public static final String LOG_LEVEL = PREFIX + "logLevel";
+	/** Path to write a timing report to (JSON, or CSV if the name ends in .csv) */
+	public static final String TIMING_REPORT = PREFIX + "timingReport";
+	/** Number of slowest trees to list in the timing report */
+	public static final String TIMING_TOP_N = PREFIX + "timingTopN";
+	/** Number of threads to analyze specs & build impls on (default: 1, which builds sequentially on the processor thread) */
+	public static final String PARALLELISM = PREFIX + "parallelism";
+	/** Write an index of this module's trees & impls, for modules that extend them */
+	public static final String INDEX = PREFIX + "index";
+	/** Write a digest manifest of generated sources ('manifest'), and also skip rewriting unchanged ones ('skip') */
+	public static final String DIGESTS = PREFIX + "digests";
+	/** Memory budget (in KiB) for rendered sources waiting to be written. Renders into pooled buffers, and blocks renders that get too far ahead (default: unbounded) */
+	public static final String RENDER_BUDGET = PREFIX + "renderBudget";
+	/** Memoize the hash of generated impls (should be set consistently across modules that extend each other's impls) */
+	public static final String CACHE_HASH = PREFIX + "cacheHash";
+	/** Generate a TreeFactory with a creation method per impl ('true'/'plain'), that also interns structurally equivalent trees ('intern') */
+	public static final String FACTORY = PREFIX + "factory";
+	/** Qualified name of the TreeFactory (default: TreeFactory in the package of this module's trees) */
+	public static final String FACTORY_NAME = PREFIX + "factoryName";
+	/** Compare trees in generated equivalentTo() with a work stack instead of recursion (should be set consistently across modules) */
+	public static final String ITERATIVE_EQUIVALENCE = PREFIX + "iterativeEquivalence";
+	/** Copy collections into immutable array-backed lists when impls are constructed, so getters don't have to wrap them */
+	public static final String CHILD_LISTS = PREFIX + "childLists";
+	/** Store start & end positions in impls, and only create a SourceRange when it's requested (should be set consistently across modules) */
+	public static final String LAZY_RANGE = PREFIX + "lazyRange";
+	
+	private final Map<String, String> options;
+	
+	public ProcessorOptions(@Nullable Map<String, String> options) {
+		this.options = options == null ? Collections.emptyMap() : options;
+	}
+	
+	public @Nullable String getString(String key) {
+		return this.options.get(key);
+	}
+	
+	public String getString(String key, String defaultValue) {
+		String value = this.options.get(key);
+		return value == null ? defaultValue : value;
+	}
+	
+	public boolean getBoolean(String key, boolean defaultValue) {
+		if (!this.options.containsKey(key))
+			return defaultValue;
+		// '-Airgen.foo' (without a value) enables the option
+		String value = this.options.get(key);
+		return value == null || value.isEmpty() || Boolean.parseBoolean(value);
+	}
+	
+	public int getInt(String key, int defaultValue) {
+		String value = this.options.get(key);
+		if (value == null || value.isEmpty())
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Get all options that belong to this processor, sorted by name.
+	 * Used to detect when the generator configuration changed between builds.
+	 */
+	public Map<String, String> getOwnOptions() {
+		Map<String, String> result = new TreeMap<>();
+		for (Map.Entry<String, String> entry : this.options.entrySet())
+			if (entry.getKey().startsWith(PREFIX))
+				result.put(entry.getKey(), entry.getValue());
+		return result;
+	}
+}
@@ -0,0 +1,286 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.mindlin.nautilus.tools.irgen.ir.ClassName;
+import com.mindlin.nautilus.tools.irgen.ir.IndexCodec;
+import com.mindlin.nautilus.tools.irgen.ir.IndexCodec.ImplLayout;
+import com.mindlin.nautilus.tools.irgen.ir.NamePool;
+import com.mindlin.nautilus.tools.irgen.ir.TreeImplSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TreeSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TreeSpec.GetterSpec;
+
+/**
+ * Index of the trees & impls in a module, so modules that extend them don't have to re-derive them.
+ * <p>
+ * Specs & impl layouts are written per package (to {@code META-INF/nautilus-irgen/<package>.idx}) if
+ * {@link ProcessorOptions#INDEX} is set. Ancestors are looked up in the indices on the classpath
+ * before they're loaded from javac, and impls found there are extended instead of being re-declared.
+ * </p>
+ * <p>
+ * Not thread-safe (it reads through the Filer, so it has to be used from the processor thread).
+ * </p>
+ */
+public class SpecIndex {
+	public static final String INDEX_DIR = "META-INF/nautilus-irgen/";
+	public static final String INDEX_EXT = ".idx";
+	protected static final int MAGIC = 0x4E495258;// 'NIRX'
+	/** Bump when the encoding changes */
+	protected static final int FORMAT_VERSION = 1;
+	
+	public static String getPath(String packageName) {
+		return INDEX_DIR + packageName + INDEX_EXT;
+	}
+	
+	protected final Filer filer;
+	protected final Elements elements;
+	protected final Logger logger;
+	/** Pool for names read from indices */
+	protected final NamePool names;
+	/** Contents of indices read from the classpath, by package (empty if a package has no index) */
+	protected final Map<String, Entries> upstream = new HashMap<>();
+	/** Upstream impls that were already resolved (null if they couldn't be) */
+	protected final Map<String, TreeImplSpec> resolvedImpls = new HashMap<>();
+	/** Specs & impls to write at the end of the build (if enabled), by package */
+	protected final Map<String, Entries> local;
+	
+	public SpecIndex(Filer filer, Elements elements, Logger logger, NamePool names, boolean write) {
+		this.filer = filer;
+		this.elements = elements;
+		this.logger = logger;
+		this.names = names;
+		this.local = write ? new LinkedHashMap<>() : null;
+	}
+	
+	protected Logger getLogger() {
+		return this.logger;
+	}
+	
+	public boolean isWriting() {
+		return this.local != null;
+	}
+	
+	/**
+	 * Add specs from this module to the index
+	 */
+	public void addSpecs(Collection<TreeSpec> specs) {
+		if (this.local == null)
+			return;
+		for (TreeSpec spec : specs)
+			this.local.computeIfAbsent(spec.getName().getPackageName(), x -> new Entries()).specs.put(spec.getName().toString(), spec);
+	}
+	
+	/**
+	 * Add impls built by this module to the index
+	 */
+	public void addImpls(Collection<TreeImplSpec> impls) {
+		if (this.local == null)
+			return;
+		for (TreeImplSpec impl : impls) {
+			ClassName name = (ClassName) impl.baseType;
+			this.local.computeIfAbsent(name.getPackageName(), x -> new Entries()).impls.put(name.toString(), impl);
+		}
+	}
+	
+	protected Entries readPackage(String packageName) {
+		Entries result = this.upstream.get(packageName);
+		if (result != null)
+			return result;
+		
+		result = new Entries();
+		String path = getPath(packageName);
+		try {
+			FileObject file = this.filer.getResource(StandardLocation.CLASS_PATH, "", path);
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openInputStream()))) {
+				this.read(in, result);
+			}
+			if (getLogger().isVerbose())
+				getLogger().note("Read index for %s (%d specs, %d impls)", packageName, result.specs.size(), result.layouts.size());
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			// Not indexed
+		} catch (IOException | IllegalArgumentException e) {
+			getLogger().warn("Unable to read spec index %s (%s); ignoring it", path, e.getLocalizedMessage());
+			result = new Entries();
+		}
+		this.upstream.put(packageName, result);
+		return result;
+	}
+	
+	protected void read(DataInputStream in, Entries result) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a spec index");
+		int version = in.readInt();
+		if (version != FORMAT_VERSION)
+			throw new IOException("Unsupported index version " + version);
+		
+		for (int i = in.readInt(); i > 0; i--) {
+			List<String> kinds = new ArrayList<>();
+			TreeSpec spec = IndexCodec.readTreeSpec(in, this.names, kinds);
+			// Upstream impls are never rebuilt
+			spec.kind = TreeSpec.Kind.ADT;
+			spec.source = this.elements.getTypeElement(spec.getName().toString());
+			spec.logger = getLogger().withTarget(spec.source);
+			spec.kinds = new LinkedHashMap<>();
+			for (String kind : kinds)
+				spec.kinds.put(kind, spec.logger);
+			result.specs.put(spec.getName().toString(), spec);
+		}
+		
+		for (int i = in.readInt(); i > 0; i--) {
+			ImplLayout layout = IndexCodec.readImplLayout(in, this.names);
+			result.layouts.put(layout.baseType.toString(), layout);
+		}
+	}
+	
+	protected String getPackage(String name) {
+		TypeElement element = this.elements.getTypeElement(name);
+		if (element == null || element.getKind() != ElementKind.INTERFACE)
+			return null;
+		return this.elements.getPackageOf(element).getQualifiedName().toString();
+	}
+	
+	/**
+	 * Look up the spec for a tree in another module
+	 * @param name Qualified name of tree
+	 * @return Indexed spec, or null if the tree isn't indexed
+	 */
+	public TreeSpec getSpec(String name) {
+		String packageName = this.getPackage(name);
+		if (packageName == null)
+			return null;
+		return this.readPackage(packageName).specs.get(name);
+	}
+	
+	/**
+	 * Look up the impl of a tree in another module. Its getters are resolved against {@code specs}, so
+	 * they're the same getters that subclasses inherit.
+	 * @param name Qualified name of tree
+	 * @param specs Specs for this round (including the impl's ancestors)
+	 * @return Impl, or null if the tree has no indexed impl
+	 */
+	public TreeImplSpec getImpl(String name, Map<String, TreeSpec> specs) {
+		if (this.resolvedImpls.containsKey(name))
+			return this.resolvedImpls.get(name);
+		
+		TreeImplSpec result = null;
+		String packageName = this.getPackage(name);
+		ImplLayout layout = packageName == null ? null : this.readPackage(packageName).layouts.get(name);
+		if (layout != null)
+			result = this.resolveImpl(layout, specs);
+		this.resolvedImpls.put(name, result);
+		return result;
+	}
+	
+	/**
+	 * Impls from the index, for trees whose impls aren't built in this round
+	 * @param names Qualified names of trees
+	 */
+	public Map<String, TreeImplSpec> getImpls(Collection<String> names, Map<String, TreeSpec> specs) {
+		Map<String, TreeImplSpec> result = new HashMap<>();
+		for (String name : names) {
+			TreeImplSpec impl = this.getImpl(name, specs);
+			if (impl != null)
+				result.put(name, impl);
+		}
+		return result.isEmpty() ? Collections.emptyMap() : result;
+	}
+	
+	protected TreeImplSpec resolveImpl(ImplLayout layout, Map<String, TreeSpec> specs) {
+		TreeImplSpec parent = null;
+		if (layout.parent != null) {
+			parent = this.getImpl(layout.parent.toString(), specs);
+			if (parent == null) {
+				getLogger().warn("Missing parent impl %s for indexed impl %s", layout.parent, layout.name);
+				return null;
+			}
+		}
+		
+		TypeElement source = this.elements.getTypeElement(layout.baseType.toString());
+		TreeImplSpec result = new TreeImplSpec(source, layout.name);
+		result.baseType = layout.baseType;
+		result.resolvedParent = parent;
+		result.parent = parent == null ? IRTypes.ABSTRACT_BASE : parent.getClassName();
+		result.parentIfaces.add(layout.baseType);
+		result.fields.putAll(layout.fields);
+		result.declaredFields.addAll(layout.declaredFields);
+		
+		for (Map.Entry<ClassName, String> ref : layout.getters) {
+			TreeSpec owner = specs.get(ref.getKey().toString());
+			GetterSpec getter = owner == null ? null : findGetter(owner, ref.getValue());
+			if (getter == null) {
+				getLogger().warn("Unable to resolve getter %s.%s for indexed impl %s", ref.getKey(), ref.getValue(), layout.name);
+				return null;
+			}
+			result.getters.put(getter.name, getter);
+		}
+		return result;
+	}
+	
+	protected static GetterSpec findGetter(TreeSpec spec, String name) {
+		for (GetterSpec getter : spec.getters)
+			if (getter.name.equals(name))
+				return getter;
+		return null;
+	}
+	
+	/**
+	 * Write index of this module's specs & impls (one file per package)
+	 */
+	public void save() throws IOException {
+		if (this.local == null)
+			return;
+		for (Map.Entry<String, Entries> entry : this.local.entrySet()) {
+			Entries entries = entry.getValue();
+			FileObject file = this.filer.createResource(StandardLocation.CLASS_OUTPUT, "", getPath(entry.getKey()), entries.getSources());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file.openOutputStream()))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(entries.specs.size());
+				for (TreeSpec spec : entries.specs.values())
+					IndexCodec.writeTreeSpec(out, spec);
+				out.writeInt(entries.impls.size());
+				for (TreeImplSpec impl : entries.impls.values())
+					IndexCodec.writeImplLayout(out, impl);
+			}
+			if (getLogger().isVerbose())
+				getLogger().note("Wrote index for %s (%d specs, %d impls)", entry.getKey(), entries.specs.size(), entries.impls.size());
+		}
+	}
+	
+	/**
+	 * Index contents for a single package
+	 */
+	protected static class Entries {
+		final Map<String, TreeSpec> specs = new LinkedHashMap<>();
+		final Map<String, TreeImplSpec> impls = new LinkedHashMap<>();
+		final Map<String, ImplLayout> layouts = new HashMap<>();
+		
+		TypeElement[] getSources() {
+			List<TypeElement> result = new ArrayList<>(this.specs.size());
+			for (TreeSpec spec : this.specs.values())
+				if (spec.source != null)
+					result.add(spec.source);
+			return result.toArray(new TypeElement[result.size()]);
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Collects phase & per-tree timings (in nanoseconds), and writes them as a JSON or CSV report.
+ * <p>
+ * Phases are recorded with {@link #record(String, String, long)}. Samples that name a subject (tree)
+ * are also summed per tree, so the report can list the slowest trees.
+ * </p>
+ * Thread-safe (impls are rendered on worker threads).
+ */
+@NonNullByDefault
+public class Timings {
+	// Phase names
+	public static final String ROUND = "round";
+	public static final String PROCESS_TREES = "processTrees";
+	public static final String BUILD_TREE_SPEC = "buildTreeSpec";
+	public static final String ANALYZE_TREE_SPEC = "analyzeTreeSpec";
+	public static final String ANALYZE_TREES = "analyzeTrees";
+	public static final String GET_UNPROCESSED = "getUnprocessed";
+	public static final String SORT = "sort";
+	public static final String PROCESS_IMPLS = "processImplOutputs";
+	public static final String BUILD_TREE_IMPL = "buildTreeImpl";
+	public static final String RENDER = "render";
+	public static final String COMMIT = "commit";
+	public static final String WRITE_OUTPUTS = "writeOutputs";
+	
+	/** No-op instance, for when timing isn't requested */
+	public static final Timings DISABLED = new Timings(false);
+	
+	/**
+	 * Nearest-rank percentile of sorted samples
+	 */
+	protected static long percentile(long[] sorted, int count, double p) {
+		if (count == 0)
+			return 0;
+		int rank = (int) Math.ceil(p / 100.0 * count);
+		return sorted[Math.max(0, Math.min(count, rank) - 1)];
+	}
+	
+	protected static String escapeJson(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+				case '\\':
+					sb.append('\\').append(c);
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				default:
+					if (c < 0x20)
+						sb.append(String.format("\\u%04x", (int) c));
+					else
+						sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+	
+	protected static String escapeCsv(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+			return value;
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+	
+	protected final boolean enabled;
+	protected final Map<String, Samples> phases = new LinkedHashMap<>();
+	/** Per-tree time, by tree & phase */
+	protected final Map<String, Map<String, Long>> subjects = new LinkedHashMap<>();
+	
+	public Timings() {
+		this(true);
+	}
+	
+	protected Timings(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+	
+	/**
+	 * Record a sample ending now.
+	 * @param phase Phase name
+	 * @param subject Tree the sample is for (or null)
+	 * @param start Start time ({@link System#nanoTime()})
+	 * @return Elapsed nanoseconds
+	 */
+	public long record(String phase, @Nullable String subject, long start) {
+		long elapsed = System.nanoTime() - start;
+		if (!this.enabled)
+			return elapsed;
+		synchronized (this) {
+			this.phases.computeIfAbsent(phase, k -> new Samples()).add(elapsed);
+			if (subject != null)
+				this.subjects.computeIfAbsent(subject, k -> new LinkedHashMap<>()).merge(phase, elapsed, Long::sum);
+		}
+		return elapsed;
+	}
+	
+	public long record(String phase, long start) {
+		return this.record(phase, null, start);
+	}
+	
+	protected synchronized List<Map.Entry<String, Long>> getSlowest(int topN) {
+		List<Map.Entry<String, Long>> result = new ArrayList<>(this.subjects.size());
+		for (Map.Entry<String, Map<String, Long>> entry : this.subjects.entrySet()) {
+			long total = 0;
+			for (long value : entry.getValue().values())
+				total += value;
+			result.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), total));
+		}
+		result.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()));
+		return result.subList(0, Math.min(topN, result.size()));
+	}
+	
+	/**
+	 * Write report to file. The format is picked from the extension ({@code .csv}, otherwise JSON).
+	 */
+	public void writeReport(Path path, int topN) throws IOException {
+		Path parent = path.toAbsolutePath().getParent();
+		if (parent != null)
+			Files.createDirectories(parent);
+		try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			if (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv"))
+				this.writeCsv(out, topN);
+			else
+				this.writeJson(out, topN);
+		}
+	}
+	
+	public synchronized void writeJson(Writer out, int topN) throws IOException {
+		out.write("{\n\t\"unit\": \"ns\",\n\t\"phases\": {");
+		boolean first = true;
+		for (Map.Entry<String, Samples> entry : this.phases.entrySet()) {
+			out.write(first ? "\n" : ",\n");
+			first = false;
+			out.write("\t\t" + escapeJson(entry.getKey()) + ": ");
+			entry.getValue().writeJson(out);
+		}
+		out.write("\n\t},\n\t\"slowest\": [");
+		
+		first = true;
+		for (Map.Entry<String, Long> tree : this.getSlowest(topN)) {
+			out.write(first ? "\n" : ",\n");
+			first = false;
+			out.write("\t\t{\"tree\": " + escapeJson(tree.getKey()) + ", \"total\": " + tree.getValue());
+			for (Map.Entry<String, Long> phase : this.subjects.get(tree.getKey()).entrySet())
+				out.write(", " + escapeJson(phase.getKey()) + ": " + phase.getValue());
+			out.write("}");
+		}
+		out.write("\n\t]\n}\n");
+	}
+	
+	public synchronized void writeCsv(Writer out, int topN) throws IOException {
+		out.write("section,name,count,total,min,p50,p90,p99,max\n");
+		for (Map.Entry<String, Samples> entry : this.phases.entrySet()) {
+			out.write("phase," + escapeCsv(entry.getKey()) + ",");
+			entry.getValue().writeCsv(out);
+			out.write('\n');
+		}
+		for (Map.Entry<String, Long> tree : this.getSlowest(topN))
+			out.write("tree," + escapeCsv(tree.getKey()) + ",," + tree.getValue() + ",,,,,\n");
+	}
+	
+	protected static class Samples {
+		long[] values = new long[16];
+		int count = 0;
+		long total = 0;
+		
+		void add(long value) {
+			if (this.count == this.values.length)
+				this.values = Arrays.copyOf(this.values, this.count * 2);
+			this.values[this.count++] = value;
+			this.total += value;
+		}
+		
+		long[] sorted() {
+			long[] result = Arrays.copyOf(this.values, this.count);
+			Arrays.sort(result);
+			return result;
+		}
+		
+		void writeJson(Writer out) throws IOException {
+			long[] sorted = this.sorted();
+			out.write(String.format("{\"count\": %d, \"total\": %d, \"min\": %d, \"p50\": %d, \"p90\": %d, \"p99\": %d, \"max\": %d}",
+					this.count, this.total, sorted[0], percentile(sorted, this.count, 50), percentile(sorted, this.count, 90),
+					percentile(sorted, this.count, 99), sorted[this.count - 1]));
+		}
+		
+		void writeCsv(Writer out) throws IOException {
+			long[] sorted = this.sorted();
+			out.write(String.format("%d,%d,%d,%d,%d,%d,%d", this.count, this.total, sorted[0], percentile(sorted, this.count, 50),
+					percentile(sorted, this.count, 90), percentile(sorted, this.count, 99), sorted[this.count - 1]));
+		}
+	}
+}
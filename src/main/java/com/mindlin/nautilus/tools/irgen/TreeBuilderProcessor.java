@@ -21,6 +21,7 @@ import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 
+import com.mindlin.nautilus.tools.irgen.ir.NamePool;
 import com.mindlin.nautilus.tools.irgen.ir.TreeSpec;
 import com.mindlin.nautilus.tools.irgen.ir.TreeSpec.GetterSpec;
 import com.mindlin.nautilus.tools.irgen.util.Orderable;
@@ -48,6 +49,10 @@ public class TreeBuilderProcessor extends AnnotationProcessorBase {
 	}
 	
 	private final TreeSpec.@Nullable Kind kind;
+	/** Canonical type names (replace with the processor's pool to share it) */
+	protected NamePool names = new NamePool();
+	/** Shared between trees, so its dispatch table is only built once (processor thread only) */
+	private @Nullable GetterSpecFactory getterFactory;
 	
 	public TreeBuilderProcessor(ProcessingEnvironment procEnv, DeclaredType annotation) {
 		this(procEnv, annotation, getKind(annotation));
@@ -58,7 +63,15 @@ public class TreeBuilderProcessor extends AnnotationProcessorBase {
 	}
 	
 	public TreeBuilderProcessor(ProcessingEnvironment procEnv, DeclaredType annotation, TreeSpec.Kind kind) {
-		super(procEnv, annotation);
+		this(procEnv, annotation, kind, new Logger(procEnv.getMessager()));
+	}
+	
+	public TreeBuilderProcessor(ProcessingEnvironment procEnv, DeclaredType annotation, Logger logger) {
+		this(procEnv, annotation, getKind(annotation), logger);
+	}
+	
+	public TreeBuilderProcessor(ProcessingEnvironment procEnv, DeclaredType annotation, TreeSpec.Kind kind, Logger logger) {
+		super(procEnv, annotation, logger);
 		this.kind = kind;
 	}
 	
@@ -115,49 +128,64 @@ public class TreeBuilderProcessor extends AnnotationProcessorBase {
 	}
 	
 	protected Collection<TypeName> getParents(TypeElement target) {
-		Collection<TypeName> parents = Utils.stream(target.getInterfaces())
+		Collection<TypeName> parents = target.getInterfaces().stream()
 			.map(iface -> (iface instanceof DeclaredType ? (DeclaredType) iface : null))
 			.filter(Objects::nonNull)
-			.map(TypeName::wrap)
+			.map(this.names::wrap)
 			.collect(Collectors.toList());
 		// Remove Tree because it isn't real
 		parents.remove(IRTypes.TREE);
 		return parents;
 	}
 	
-	protected List<GetterSpec> buildGetters(@NonNull TypeElement target) {
-		GetterSpecFactory getterFactory = new GetterSpecFactory(this.procEnv.getElementUtils(), getLogger());
-		List<GetterSpec> getters = Utils.stream(ElementFilter.methodsIn(target.getEnclosedElements()))
+	/**
+	 * Read getters declared on target (in declaration order)
+	 */
+	protected List<GetterSpec> extractGetters(@NonNull TypeElement target) {
+		GetterSpecFactory getterFactory = this.getterFactory;
+		if (getterFactory == null)
+			getterFactory = this.getterFactory = new GetterSpecFactory(this.procEnv.getElementUtils(), getLogger(), this.names);
+		return ElementFilter.methodsIn(target.getEnclosedElements()).stream()
 				.map(getterFactory)
 				.filter(Objects::nonNull)
 				.collect(Collectors.toList());
-		
-		
-		// Toposort getters
+	}
+	
+	/**
+	 * Toposort getters. Only uses the spec, so it's safe to call from any thread.
+	 */
+	protected List<GetterSpec> sortGetters(TreeSpec spec) {
+		List<GetterSpec> getters = spec.getters;
 		try {
-			Set<GetterSpec> marked = new HashSet<>();//TODO: concurrency?
+			Set<GetterSpec> marked = new HashSet<>();
 			
 			getters = Orderable.sorted(getters, available -> {
 				// This is bad because this function has side effects.
+				// Report each group of tied getters once (on the tree, so the warning is the same for every getter),
+				// unless they were all already reported in an earlier group.
 				if (available.size() > 1) {
-					for (GetterSpec spec : available) {
-						if (marked.add(spec)) {
-							getLogger().withTarget(spec.target)
-								.warn("Unstable ordering (parallel = %s)", Utils.map(available, g -> g.fName));
-						}
-					}
+					boolean unreported = false;
+					for (GetterSpec getter : available)
+						unreported |= marked.add(getter);
+					if (unreported)
+						spec.getLogger().warn("Unstable ordering (parallel = %s)", Utils.map(available, g -> g.fName));
 				}
 				return Orderable.selectAny(available);
 			});
 		} catch (IllegalArgumentException e) {
 			// Toposort failed
-			getLogger().withTarget(target).error("Error sorting getters: " + e.getMessage());
+			spec.getLogger().error("Error sorting getters: " + e.getMessage());
 		}
 		
 		return getters;
 	}
-
-	public @Nullable TreeSpec buildTreeSpec(@NonNull TypeElement target) {
+	
+	/**
+	 * Copy everything we need from target into a new spec. Uses javac, so it must be called from
+	 * the processor thread.
+	 * @see #analyzeTreeSpec(TreeSpec)
+	 */
+	public @Nullable TreeSpec extractTreeSpec(@NonNull TypeElement target) {
 		// Warner bound to target
 		Logger logger = getLogger().withTarget(target);
 		
@@ -168,17 +196,28 @@ public class TreeBuilderProcessor extends AnnotationProcessorBase {
 		
 		TreeSpec spec = new TreeSpec();
 		spec.source = target;
+		spec.name = this.names.get(target);
 		spec.logger = logger;
 		spec.kind = this.getKind();
 		spec.kinds = this.getValues(logger, mirrors);
 		
 		spec.parents.addAll(this.getParents(target));
-		if (Utils.isVerbose())
-			getLogger().note("Parent of %s: %s", target.getQualifiedName(), spec.parents);
+		if (getLogger().isVerbose())
+			getLogger().note("Parent of %s: %s", spec.name, spec.parents);
+		
+		spec.getters = this.extractGetters(target);
 		
-		spec.getters = this.buildGetters(target);
+		return spec;
+	}
+	
+	/**
+	 * Finish a spec from {@link #extractTreeSpec(TypeElement)}. Doesn't touch javac, so specs can be
+	 * analysed concurrently.
+	 */
+	public TreeSpec analyzeTreeSpec(TreeSpec spec) {
+		spec.getters = this.sortGetters(spec);
 		
-		if (Utils.isVerbose()) {
+		if (getLogger().isVerbose()) {
 			int i = 0;
 			for (GetterSpec getter : spec.getters)
 				getLogger().withTarget(getter.target).warn("Getter %d: %s", i++, getter);
@@ -186,4 +225,11 @@ public class TreeBuilderProcessor extends AnnotationProcessorBase {
 		
 		return spec;
 	}
+	
+	public @Nullable TreeSpec buildTreeSpec(@NonNull TypeElement target) {
+		TreeSpec spec = this.extractTreeSpec(target);
+		if (spec == null)
+			return null;
+		return this.analyzeTreeSpec(spec);
+	}
 }
@@ -16,8 +16,8 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
-import java.util.stream.Stream;
 
+import javax.annotation.processing.Filer;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
@@ -25,15 +25,15 @@ import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeMirror;
+import javax.tools.StandardLocation;
 
 import org.eclipse.jdt.annotation.Nullable;
 
 import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.ir.AnnotationSpec;
 import com.mindlin.nautilus.tools.irgen.ir.TypeName;
 
 public class Utils {
-	public static boolean MP = false;
-	private static final boolean VERBOSE = true;
 	private Utils() {
 	}
 	
@@ -44,14 +44,6 @@ public class Utils {
 		return result;
 	}
 	
-	public static boolean isVerbose() {
-		return VERBOSE;
-	}
-	
-	public static <T> Stream<T> stream(Collection<T> src) {
-		return MP ? src.parallelStream() : src.stream();
-	}
-	
 	public static void writeModifiers(Writer out, int modifiers) throws IOException {
 		out.append(Modifier.toString(modifiers));
 		if (modifiers != 0)
@@ -150,6 +142,13 @@ public class Utils {
 		return nna != null;
 	}
 	
+	public static boolean isNonNull(TypeName type, boolean requireCheck) {
+		for (AnnotationSpec annotation : type.annotations)
+			if (Objects.equals(annotation.type.toString(), IRTypes.NONNULL))
+				return true;
+		return false;
+	}
+	
 	public static String invoke(String base, String mName, String...params) {
 		return invoke(base, mName, Arrays.asList(params));
 	}
@@ -209,6 +208,29 @@ public class Utils {
 		}
 	}
 	
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	public static String toHex(byte[] data) {
+		char[] result = new char[data.length * 2];
+		for (int i = 0; i < data.length; i++) {
+			result[i * 2] = HEX_DIGITS[(data[i] >> 4) & 0xF];
+			result[i * 2 + 1] = HEX_DIGITS[data[i] & 0xF];
+		}
+		return new String(result);
+	}
+	
+	/**
+	 * Check if a source generated by an earlier build is still around
+	 */
+	public static boolean hasGeneratedSource(Filer filer, String packageName, String fileName) {
+		try {
+			filer.getResource(StandardLocation.SOURCE_OUTPUT, packageName, fileName).openInputStream().close();
+			return true;
+		} catch (IOException | IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
 	public static String escapeIdentifier(String raw) {
 		if (isReserved(raw))
 			raw = "__" + raw;
@@ -286,9 +308,10 @@ public class Utils {
 		
 		public T get(String key) {
 			Object result = this.delegate.getOrDefault(key, null);
-			if (result == null) {
+			if (result == null && !this.delegate.containsKey(key)) {
 				// Ensure key is computed
 				this.computeValue(key);
+				result = this.delegate.getOrDefault(key, null);
 			}
 			return deref(result);
 		}
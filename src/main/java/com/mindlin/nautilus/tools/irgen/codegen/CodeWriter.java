@@ -6,8 +6,6 @@ import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 
-import javax.lang.model.type.TypeMirror;
-
 import org.eclipse.jdt.annotation.NonNull;
 
 import com.mindlin.nautilus.tools.irgen.IndentWriter;
@@ -56,14 +54,20 @@ public class CodeWriter extends IndentWriter {
 	}
 	
 	public void emitPackageDeclaration(String packageName) {
-		this.format("package %s;\n\n", packageName);
+		this.print("package ");
+		this.print(packageName);
+		this.print(";\n\n");
 	}
 	
 	public void emitImport(ClassName name) {
-		if (name.getSimpleName() == null)
-			this.format("import %s.*;", name.getPackageName());
-		else
-			this.format("import %s;", name.getQualifiedName());
+		this.print("import ");
+		if (name.getSimpleName() == null) {
+			this.print(name.getPackageName());
+			this.print(".*;");
+		} else {
+			this.print(name.getQualifiedName());
+			this.print(';');
+		}
 		this.setEOL();
 	}
 	
@@ -72,19 +76,24 @@ public class CodeWriter extends IndentWriter {
 	}
 	
 	public void emitLiteral(String value) {
-		this.format("\"%s\"", value);//TODO: escape
+		this.print('"');
+		this.print(value);//TODO: escape
+		this.print('"');
 	}
 	
 	public void emitLiteral(char value) {
-		this.format("'%c'", value);//TODO: escape
+		this.print('\'');
+		this.print(value);//TODO: escape
+		this.print('\'');
 	}
 	
 	public void emitLiteral(int value) {
-		this.format("%d", value);
+		this.print(value);
 	}
 	
 	public void emitLiteral(long value) {
-		this.format("%dL", value);
+		this.print(value);
+		this.print('L');
 	}
 	
 	public void emitLiteral(double value) {
@@ -117,10 +126,6 @@ public class CodeWriter extends IndentWriter {
 		value.write(this);
 	}
 	
-	public void emitType(TypeMirror value) {
-		this.emitType(TypeName.wrap(value));
-	}
-	
 	public void emitType(Class<?> value) {
 		this.emitType(ClassName.get(value));
 	}
@@ -132,105 +137,70 @@ public class CodeWriter extends IndentWriter {
 			emitType((TypeName) value);
 		else if (value instanceof Class)
 			emitType((Class<?>) value);
-		else if (value instanceof TypeMirror)
-			emitType((TypeMirror) value);
 		else if (value instanceof String)
 			this.print((String) value);
 		else
 			throw new IllegalArgumentException("Can't cast to type");
 	}
 	
-	protected void emitArgument(@NonNull String option, Object value) {
+	/**
+	 * Emit a single template argument.
+	 * @param option Placeholder option (the {@code X} in {@code $X})
+	 */
+	protected void emitArgument(char option, Object value) {
 		switch (option) {
-			case "$":
-				this.append("$");
+			case '$':
+				this.append('$');
 				break;
-			case "M":
+			case 'M':
 				this.emitModifiers((int) value);
 				break;
-			case "L":
+			case 'L':
 				this.emitLiteral(value);
 				break;
-			case "T":
+			case 'T':
 				this.emitType(value);
 				break;
-			case "N":
+			case 'N':
 				if (value instanceof Named)
 					this.print(((Named) value).getName());
 				else
 					this.print((String) value);
 				break;
-			case "n":
+			case 'n':
 				if (value instanceof Writable)
 					((Writable) value).write(this);
 				else
 					throw new IllegalArgumentException("Can't cast to type");
 				break;
 			default:
-				if (option.startsWith(",")) {
-					String op = option.substring(1);
-					if (value instanceof Iterable) {
-						boolean first = true;
-						for (Object elem : ((Iterable<?>) value)) {
-							if (first)
-								first = false;
-							else
-								this.print(", ");
-							this.emitArgument(op, elem);
-						}
-					} else {
-						this.emitArgument(op, value);
-					}
-					break;
-				}
-				
-				this.append("Unknown option '" + option + "'");
+				this.append("Unknown option '").append(option).append('\'');
 		}
 	}
 	
-	protected void splitPattern(String pattern, FormatPartCallback callback) {
-		int index = 0;
-		for (int i = 0; i < pattern.length(); ) {
-			if (pattern.charAt(i) != '$') {
-				int next = pattern.indexOf('$', i + 1);
-				if (next == -1)
-					next = pattern.length();
-				callback.nextText(pattern, i, next);
-				i = next;
-				continue;
-			}
-			
-			i++; // Pass '$'
-			
-			int start = i;
-			if (pattern.charAt(i) == ',')
-				i++;
-			
-			callback.nextArgument(index++, pattern.substring(start, ++i));
+	/**
+	 * Emit a spread ({@code $,X}) template argument.
+	 */
+	protected void emitArguments(char option, Object value) {
+		if (!(value instanceof Iterable)) {
+			this.emitArgument(option, value);
+			return;
+		}
+		boolean first = true;
+		for (Object elem : ((Iterable<?>) value)) {
+			if (first)
+				first = false;
+			else
+				this.print(", ");
+			this.emitArgument(option, elem);
 		}
 	}
 	
+	public void emit(Template template, Object...args) {
+		template.emit(this, args);
+	}
+	
 	public void emit(String pattern, Object...args) {
-		this.splitPattern(pattern, new FormatPartCallback() {
-			@Override
-			public void nextArgument(int index, String option) {
-				if (Objects.equals("$", option)) {
-					CodeWriter.this.append("$");
-				} else {
-					CodeWriter.this.emitArgument(option, args[index % args.length]);
-				}
-			}
-			
-			@Override
-			public void nextText(String value, int start, int end) {
-				CodeWriter.this.append(value, start, end);
-			}
-		});
-	}
-	
-	protected static interface FormatPartCallback {
-		void nextText(String value, int start, int end);
-		
-		void nextArgument(int index, String option);
+		this.emit(Template.compile(pattern), args);
 	}
 }
@@ -0,0 +1,100 @@
+package com.mindlin.nautilus.tools.irgen.codegen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Growable character buffer to render sources into. Unlike a {@link java.io.StringWriter}, the buffer
+ * is kept when it's {@link #reset() reset}, so it can be reused for the next source (see {@link RenderBufferPool}).
+ * <p>
+ * Not thread-safe.
+ * </p>
+ */
+public class RenderBuffer extends Writer implements CharSequence {
+	protected char[] data;
+	protected int length = 0;
+	/** Capacity that the pool has accounted for */
+	int accounted;
+	
+	public RenderBuffer(int capacity) {
+		this.data = new char[Math.max(16, capacity)];
+	}
+	
+	public int capacity() {
+		return this.data.length;
+	}
+	
+	protected void ensureCapacity(int capacity) {
+		if (capacity <= this.data.length)
+			return;
+		int newCapacity = Math.max(capacity, this.data.length * 2);
+		this.data = Arrays.copyOf(this.data, newCapacity);
+	}
+	
+	/**
+	 * Discard contents (keeping the storage)
+	 */
+	public void reset() {
+		this.length = 0;
+	}
+	
+	@Override
+	public void write(int c) {
+		this.ensureCapacity(this.length + 1);
+		this.data[this.length++] = (char) c;
+	}
+	
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		this.ensureCapacity(this.length + len);
+		System.arraycopy(cbuf, off, this.data, this.length, len);
+		this.length += len;
+	}
+	
+	@Override
+	public void write(String str, int off, int len) {
+		this.ensureCapacity(this.length + len);
+		str.getChars(off, off + len, this.data, this.length);
+		this.length += len;
+	}
+	
+	/**
+	 * Write contents to {@code out} (without copying them)
+	 */
+	public void writeTo(Writer out) throws IOException {
+		out.write(this.data, 0, this.length);
+	}
+	
+	@Override
+	public int length() {
+		return this.length;
+	}
+	
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= this.length)
+			throw new IndexOutOfBoundsException();
+		return this.data[index];
+	}
+	
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > this.length || start > end)
+			throw new IndexOutOfBoundsException();
+		return new String(this.data, start, end - start);
+	}
+	
+	@Override
+	public String toString() {
+		return new String(this.data, 0, this.length);
+	}
+	
+	@Override
+	public void flush() {
+	}
+	
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,76 @@
+package com.mindlin.nautilus.tools.irgen.codegen;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of {@link RenderBuffer}s, with a memory budget.
+ * <p>
+ * Buffers are only allocated while the total capacity of the pool is under budget; after that,
+ * {@link #acquire()} blocks until another buffer is {@link #release(RenderBuffer) released}. That's the
+ * backpressure between render threads and the thread that writes their output: renders can't get more
+ * than a budget's worth ahead of it. A single source that's larger than the budget still gets rendered
+ * (into a buffer of its own), so the budget can be exceeded by at most one buffer.
+ * </p>
+ * Thread-safe.
+ */
+public class RenderBufferPool {
+	/** Initial buffer capacity (most impls are a few KiB) */
+	protected static final int INITIAL_CAPACITY = 8 * 1024;
+	
+	/** Budget (in chars) */
+	protected final long budget;
+	protected final Deque<RenderBuffer> free = new ArrayDeque<>();
+	/** Total capacity of all buffers (free or acquired), in chars */
+	protected long allocated = 0;
+	/** Number of buffers that are acquired */
+	protected int outstanding = 0;
+	
+	/**
+	 * @param budget Budget in bytes (buffers take two bytes per char)
+	 */
+	public RenderBufferPool(long budget) {
+		this.budget = Math.max(1, budget / 2);
+	}
+	
+	/**
+	 * Get an empty buffer, waiting until one is available if the pool is over budget.
+	 */
+	public synchronized RenderBuffer acquire() throws InterruptedException {
+		while (this.free.isEmpty() && this.allocated >= this.budget && this.outstanding > 0)
+			this.wait();
+		
+		RenderBuffer result = this.free.poll();
+		if (result == null) {
+			result = new RenderBuffer((int) Math.min(INITIAL_CAPACITY, this.budget));
+			result.accounted = result.capacity();
+			this.allocated += result.accounted;
+		}
+		this.outstanding++;
+		return result;
+	}
+	
+	/**
+	 * Return buffer to the pool. Buffers that grew while they were acquired are dropped if that put the
+	 * pool over budget.
+	 */
+	public synchronized void release(RenderBuffer buffer) {
+		buffer.reset();
+		this.allocated += buffer.capacity() - buffer.accounted;
+		buffer.accounted = buffer.capacity();
+		this.outstanding--;
+		
+		if (this.allocated > this.budget && (this.outstanding > 0 || !this.free.isEmpty()))
+			this.allocated -= buffer.accounted;
+		else
+			this.free.push(buffer);
+		this.notifyAll();
+	}
+	
+	/**
+	 * @return Total capacity of the pool's buffers, in chars
+	 */
+	public synchronized long getAllocated() {
+		return this.allocated;
+	}
+}
@@ -0,0 +1,129 @@
+package com.mindlin.nautilus.tools.irgen.codegen;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * Pattern for {@link CodeWriter#emit(Template, Object...)}, parsed once into segments.
+ * <p>
+ * Patterns are text with placeholders: {@code $X} emits the next argument with option {@code X}
+ * (see {@link CodeWriter#emitArgument(char, Object)}), {@code $,X} emits each element of an
+ * {@link Iterable} argument (comma-separated), and {@code $$} emits a literal {@code $}.
+ * Every placeholder (including {@code $$}) consumes an argument index, and indices wrap around the
+ * argument array, so {@code "$T $N $N"} can be used with two arguments.
+ * </p>
+ * <p>
+ * Templates are immutable, so they can be stored in constants and shared between threads.
+ * </p>
+ */
+public final class Template {
+	/** Upper bound on cache size, in case someone emits dynamically built patterns */
+	private static final int MAX_CACHED = 4096;
+	private static final Map<String, Template> CACHE = new ConcurrentHashMap<>();
+	/** Option for text segments */
+	static final char TEXT = '\0';
+	
+	/**
+	 * Get compiled template for pattern.
+	 */
+	public static Template compile(@NonNull String pattern) {
+		Template result = CACHE.get(pattern);
+		if (result == null) {
+			result = new Template(pattern);
+			if (CACHE.size() < MAX_CACHED) {
+				Template existing = CACHE.putIfAbsent(pattern, result);
+				if (existing != null)
+					result = existing;
+			}
+		}
+		return result;
+	}
+	
+	protected final String pattern;
+	/** Option for each segment ({@link #TEXT} for text) */
+	protected final char[] options;
+	/** If the argument for the segment should be iterated */
+	protected final boolean[] spread;
+	/** Start of text segment in pattern, or argument index */
+	protected final int[] start;
+	/** End of text segment in pattern */
+	protected final int[] end;
+	
+	private Template(String pattern) {
+		this.pattern = pattern;
+		int count = 0;
+		for (int i = 0; i < pattern.length(); count++) {
+			if (pattern.charAt(i) != '$') {
+				int next = pattern.indexOf('$', i + 1);
+				i = next == -1 ? pattern.length() : next;
+			} else {
+				i++;
+				if (i < pattern.length() && pattern.charAt(i) == ',')
+					i++;
+				i++;
+			}
+		}
+		
+		this.options = new char[count];
+		this.spread = new boolean[count];
+		this.start = new int[count];
+		this.end = new int[count];
+		
+		int index = 0;
+		int segment = 0;
+		for (int i = 0; i < pattern.length(); segment++) {
+			if (pattern.charAt(i) != '$') {
+				int next = pattern.indexOf('$', i + 1);
+				if (next == -1)
+					next = pattern.length();
+				this.options[segment] = TEXT;
+				this.start[segment] = i;
+				this.end[segment] = next;
+				i = next;
+				continue;
+			}
+			
+			i++; // Pass '$'
+			if (i < pattern.length() && pattern.charAt(i) == ',') {
+				this.spread[segment] = true;
+				i++;
+			}
+			if (i >= pattern.length())
+				throw new IllegalArgumentException("Unterminated placeholder in pattern: " + pattern);
+			
+			this.options[segment] = pattern.charAt(i++);
+			this.start[segment] = index++;
+		}
+	}
+	
+	/**
+	 * Emit template with arguments
+	 */
+	void emit(CodeWriter out, Object[] args) {
+		for (int i = 0; i < this.options.length; i++) {
+			char option = this.options[i];
+			if (option == TEXT) {
+				out.append(this.pattern, this.start[i], this.end[i]);
+			} else if (option == '$' && !this.spread[i]) {
+				out.append('$');
+			} else {
+				Object value = args[this.start[i] % args.length];
+				if (this.spread[i])
+					out.emitArguments(option, value);
+				else
+					out.emitArgument(option, value);
+			}
+		}
+	}
+	
+	public String getPattern() {
+		return this.pattern;
+	}
+	
+	@Override
+	public String toString() {
+		return "Template{" + this.pattern + "}";
+	}
+}
@@ -15,16 +15,19 @@ import com.mindlin.nautilus.tools.irgen.Utils.Writable;
 import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
 
 public class AnnotationSpec implements Writable {
-	public static AnnotationSpec get(AnnotationMirror mirror) {
-		TypeName type = TypeName.wrap(mirror.getAnnotationType());
+	/**
+	 * @param names Pool for the annotation's type (may be null)
+	 */
+	public static AnnotationSpec get(NamePool names, AnnotationMirror mirror) {
+		TypeName type = names == null ? TypeName.wrap(mirror.getAnnotationType()) : names.wrap(mirror.getAnnotationType());
 		Map<String, AnnotationValue> members = new LinkedHashMap<>();
 		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> member : mirror.getElementValues().entrySet())
 			members.put(member.getKey().getSimpleName().toString(), member.getValue());
 		
 		return new AnnotationSpec(type, members);
 	}
-	public static List<? extends AnnotationSpec> from(AnnotatedConstruct source) {
-		return Utils.map(source.getAnnotationMirrors(), AnnotationSpec::get);
+	public static List<? extends AnnotationSpec> from(NamePool names, AnnotatedConstruct source) {
+		return Utils.map(source.getAnnotationMirrors(), mirror -> get(names, mirror));
 	}
 	
 	public final TypeName type;
@@ -40,6 +43,32 @@ public class AnnotationSpec implements Writable {
 		this.writeInline(out);
 	}
 	
+	@Override
+	public int hashCode() {
+		int h = this.type.hashCode();
+		// AnnotationValue doesn't implement equals/hashCode, but its toString is in source form
+		for (Map.Entry<String, ? extends AnnotationValue> member : this.members.entrySet())
+			h += member.getKey().hashCode() ^ String.valueOf(member.getValue()).hashCode();
+		return h;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof AnnotationSpec))
+			return false;
+		AnnotationSpec other = (AnnotationSpec) obj;
+		if (!this.type.equals(other.type) || this.members.size() != other.members.size())
+			return false;
+		for (Map.Entry<String, ? extends AnnotationValue> member : this.members.entrySet()) {
+			AnnotationValue value = other.members.get(member.getKey());
+			if (value == null || !String.valueOf(member.getValue()).equals(value.toString()))
+				return false;
+		}
+		return true;
+	}
+	
 	protected void writeValues(CodeWriter out, AnnotationValue values) {
 		values.accept(new AnnotationValueWriter(), out);
 	}
@@ -34,6 +34,7 @@ public class ClassName extends TypeName implements Named {
 	protected final String packageName;
 	protected final ClassName enclosingClass;
 	protected final String simpleName;
+	private transient String qualifiedName;
 	
 	public ClassName(String packageName, String simpleName) {
 		this(packageName, null, simpleName);
@@ -82,11 +83,16 @@ public class ClassName extends TypeName implements Named {
 	}
 	
 	public String getQualifiedName() {
+		String result = this.qualifiedName;
+		if (result != null)
+			return result;
 		if (this.enclosingClass != null)
-			return String.format("%s.%s", this.enclosingClass.getQualifiedName(), this.simpleName);
-		if (!this.packageName.isEmpty())
-			return String.format("%s.%s", this.packageName, this.simpleName);
-		return this.simpleName;
+			result = this.enclosingClass.getQualifiedName() + "." + this.simpleName;
+		else if (!this.packageName.isEmpty())
+			result = this.packageName + "." + this.simpleName;
+		else
+			result = this.simpleName;
+		return this.qualifiedName = result;
 	}
 	
 	public ClassName peerClass(String name) {
@@ -103,7 +109,7 @@ public class ClassName extends TypeName implements Named {
 	}
 	
 	@Override
-	public int hashCode() {
+	protected int computeHash() {
 		return Objects.hash(this.packageName, this.enclosingClass, this.simpleName);
 	}
 	
@@ -131,16 +137,15 @@ public class ClassName extends TypeName implements Named {
 		out.print(this.getSimpleName());
 	}
 	
+	/**
+	 * Annotations are ignored, so annotated uses of a class are equal to the class itself.
+	 */
 	@Override
-	public boolean equals(Object obj) {
-		if (obj == this)
-			return true;
-		if (!(obj instanceof ClassName))
-			return false;
-		ClassName c2 = (ClassName) obj;
-		return Objects.equals(this.getPackageName(), c2.getPackageName())
-				&& Objects.equals(this.getEnclosingClass(), c2.getEnclosingClass())
-				&& Objects.equals(this.getSimpleName(), c2.getSimpleName());
+	protected boolean equalTo(TypeName other) {
+		ClassName c2 = (ClassName) other;
+		return Objects.equals(this.simpleName, c2.simpleName)
+				&& Objects.equals(this.enclosingClass, c2.enclosingClass)
+				&& Objects.equals(this.packageName, c2.packageName);
 	}
 	
 	protected static class ElementMapper extends SimpleElementVisitor8<ClassName, String> {
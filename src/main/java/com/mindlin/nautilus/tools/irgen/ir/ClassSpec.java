@@ -19,6 +19,7 @@ import javax.lang.model.element.Element;
 import javax.tools.JavaFileObject;
 
 import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.codegen.RenderBuffer;
 
 public abstract class ClassSpec {
 	protected static String getNamespace(String pkg) {
@@ -136,7 +137,23 @@ public abstract class ClassSpec {
 	public static class OutputInfo {
 		public String className;
 		public Element[] sources;
+		/** Rendered source (if rendered to a string) */
 		public String value;
+		/** Rendered source (if rendered into a pooled buffer, which has to be released once written) */
+		public RenderBuffer buffer;
+		/** Digest of the rendered source (if requested) */
+		public String digest;
+		
+		public CharSequence getContent() {
+			return this.buffer != null ? this.buffer : this.value;
+		}
+		
+		public void writeTo(Writer out) throws IOException {
+			if (this.buffer != null)
+				this.buffer.writeTo(out);
+			else
+				out.write(this.value);
+		}
 	}
 	
 	public OutputInfo writeMP() throws IOException {
@@ -152,6 +169,18 @@ public abstract class ClassSpec {
 		return result;
 	}
 	
+	/**
+	 * Render into a (pooled) buffer, instead of a string
+	 */
+	public OutputInfo writeMP(RenderBuffer buffer) throws IOException {
+		this.write(buffer);
+		OutputInfo result = new OutputInfo();
+		result.className = getClassName().toString();
+		result.sources = this.getSources();
+		result.buffer = buffer;
+		return result;
+	}
+	
 	protected void writeImports(CodeWriter writer) {
 		List<ClassName> imports = new ArrayList<>();
 		this.getImports(imports);
@@ -191,6 +220,20 @@ public abstract class ClassSpec {
 		writer.println();
 	}
 	
+	/**
+	 * Kind of type that's declared ({@code class}/{@code interface})
+	 */
+	protected String getKeyword() {
+		return "class";
+	}
+	
+	/**
+	 * Write type parameters (including the angle brackets), if the class is generic
+	 */
+	protected void writeTypeParameters(@SuppressWarnings("unused") CodeWriter writer) {
+	
+	}
+	
 	/**
 	 * @throws IOException 
 	 */
@@ -228,7 +271,9 @@ public abstract class ClassSpec {
 		// Mark with @Generated
 		writer.emit("@$T(value = $L)\n", Generated.class, "com.mindlin.nautilus.tools.irgen.IRAnnotationProcessor");
 		
-		writer.emit("$M class $N ", this.getModifiers(), this.getSimpleName());
+		writer.emit("$M $N $N", this.getModifiers(), this.getKeyword(), this.getSimpleName());
+		this.writeTypeParameters(writer);
+		writer.print(' ');
 		
 		this.writeHeritage(writer);
 		
@@ -240,6 +285,7 @@ public abstract class ClassSpec {
 		writer.popIndent();
 		writer.setEOL();
 		writer.print("}");
+		writer.flush();
 	}
 
 }
@@ -4,8 +4,12 @@ import java.util.Collection;
 
 import com.mindlin.nautilus.tools.irgen.Utils.Writable;
 import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.codegen.Template;
 
 public abstract class CtorSpec implements Writable {
+	/** Constructor signature: modifiers, name, parameters */
+	protected static final Template T_DECLARATION = Template.compile("$M $N($,n) {");
+	
 	
 	public CtorSpec() {
 	}
@@ -25,7 +29,7 @@ public abstract class CtorSpec implements Writable {
 	
 	@Override
 	public void write(CodeWriter out) {
-		out.emit("$M $N($,n) {", this.getModifiers(), this.getName(), this.getParameters());
+		out.emit(T_DECLARATION, this.getModifiers(), this.getName(), this.getParameters());
 		out.setEOL();
 		
 		out.pushIndent();
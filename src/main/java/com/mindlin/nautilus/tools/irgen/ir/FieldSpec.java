@@ -2,23 +2,25 @@ package com.mindlin.nautilus.tools.irgen.ir;
 
 import java.util.Objects;
 
-import javax.lang.model.type.TypeMirror;
-
 import com.mindlin.nautilus.tools.irgen.Utils.Writable;
 import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.codegen.Template;
 import com.mindlin.nautilus.tools.irgen.util.Named;
 
 public class FieldSpec implements Writable, Named {
+	protected static final Template T_DECLARATION = Template.compile("$M $T $N;");
+	protected static final Template T_DECLARATION_INIT = Template.compile("$M $T $N = $N;");
+	
 	public final int modifiers;
-	public final TypeMirror type;
+	public final TypeName type;
 	public final String name;
 	public final String defaultValue;
 	
-	public FieldSpec(int modifiers, TypeMirror type, String name) {
+	public FieldSpec(int modifiers, TypeName type, String name) {
 		this(modifiers, type, name, null);
 	}
 	
-	public FieldSpec(int modifiers, TypeMirror type, String name, String defaultValue) {
+	public FieldSpec(int modifiers, TypeName type, String name, String defaultValue) {
 		this.modifiers = modifiers;
 		this.type = Objects.requireNonNull(type);
 		this.name = Objects.requireNonNull(name);
@@ -28,14 +30,14 @@ public class FieldSpec implements Writable, Named {
 	@Override
 	public void write(CodeWriter out) {
 		if (this.defaultValue == null) {
-			out.emit("$M $T $N;", this.modifiers, this.type, this.name);
+			out.emit(T_DECLARATION, this.modifiers, this.getType(), this.name);
 		} else {
-			out.emit("$M $T $N = %s;", this.modifiers, this.type, this.name, this.defaultValue);
+			out.emit(T_DECLARATION_INIT, this.modifiers, this.getType(), this.name, this.defaultValue);
 		}
 	}
 	
 	public TypeName getType() {
-		return TypeName.wrap(type);
+		return this.type;
 	}
 	
 	@Override
@@ -0,0 +1,359 @@
+package com.mindlin.nautilus.tools.irgen.ir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mindlin.nautilus.tools.irgen.ir.TreeSpec.GetterSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.ArrayTypeName;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.KeywordTypeName;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.ParameterizedTypeName;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.TypeNameWithAnnotations;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.TypeVariableName;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.WildcardTypeName;
+
+/**
+ * Binary encoding of specs, for the cross-module spec index.
+ * <p>
+ * Only what another module needs to extend a tree is written. Elements & mirrors are dropped, and so are
+ * type annotations with members (their values are javac objects).
+ * </p>
+ */
+public class IndexCodec {
+	// Type tags
+	protected static final int T_NULL = 0;
+	protected static final int T_KEYWORD = 1;
+	protected static final int T_CLASS = 2;
+	protected static final int T_PARAMETERIZED = 3;
+	protected static final int T_ARRAY = 4;
+	protected static final int T_WILDCARD = 5;
+	protected static final int T_VARIABLE = 6;
+	
+	// GetterSpec flags
+	protected static final int G_OVERRIDE = 1 << 0;
+	protected static final int G_HASH = 1 << 1;
+	protected static final int G_COMPARE = 1 << 2;
+	protected static final int G_OPTIONAL = 1 << 3;
+	protected static final int G_FIRST = 1 << 4;
+	protected static final int G_LAST = 1 << 5;
+	
+	private IndexCodec() {
+	}
+	
+	protected static void writeNullableUTF(DataOutput out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+	
+	protected static String readNullableUTF(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
+	protected static void writeStrings(DataOutput out, Collection<String> values) throws IOException {
+		out.writeShort(values.size());
+		for (String value : values)
+			out.writeUTF(value);
+	}
+	
+	protected static void readStrings(DataInput in, Collection<String> result) throws IOException {
+		for (int i = in.readUnsignedShort(); i > 0; i--)
+			result.add(in.readUTF());
+	}
+	
+	protected static TypeName keyword(String keyword) throws IOException {
+		switch (keyword) {
+			case "void":
+				return TypeName.VOID;
+			case "boolean":
+				return TypeName.BOOLEAN;
+			case "char":
+				return TypeName.CHAR;
+			case "byte":
+				return TypeName.BYTE;
+			case "short":
+				return TypeName.SHORT;
+			case "int":
+				return TypeName.INT;
+			case "long":
+				return TypeName.LONG;
+			case "float":
+				return TypeName.FLOAT;
+			case "double":
+				return TypeName.DOUBLE;
+			default:
+				throw new IOException("Unknown keyword type " + keyword);
+		}
+	}
+	
+	public static void writeTypeName(DataOutput out, TypeName type) throws IOException {
+		if (type == null) {
+			out.writeByte(T_NULL);
+			return;
+		}
+		
+		// Wrapper annotations are written as if they were on the inner type
+		TypeName body = type;
+		while (body instanceof TypeNameWithAnnotations)
+			body = ((TypeNameWithAnnotations) body).inner;
+		
+		if (body instanceof KeywordTypeName) {
+			out.writeByte(T_KEYWORD);
+			out.writeUTF(((KeywordTypeName) body).keyword);
+		} else if (body instanceof ClassName) {
+			ClassName name = (ClassName) body;
+			out.writeByte(T_CLASS);
+			out.writeUTF(name.getPackageName());
+			writeTypeName(out, name.getEnclosingClass());
+			out.writeUTF(name.getSimpleName());
+		} else if (body instanceof ParameterizedTypeName) {
+			ParameterizedTypeName ptn = (ParameterizedTypeName) body;
+			out.writeByte(T_PARAMETERIZED);
+			writeTypeName(out, ptn.getEnclosing());
+			writeTypeName(out, ptn.getRaw());
+			writeTypeNames(out, ptn.getArgs());
+		} else if (body instanceof ArrayTypeName) {
+			out.writeByte(T_ARRAY);
+			writeTypeName(out, ((ArrayTypeName) body).getComponent());
+		} else if (body instanceof WildcardTypeName) {
+			out.writeByte(T_WILDCARD);
+			writeTypeName(out, ((WildcardTypeName) body).getSuperBound());
+			writeTypeName(out, ((WildcardTypeName) body).getExtendBound());
+		} else if (body instanceof TypeVariableName) {
+			out.writeByte(T_VARIABLE);
+			out.writeUTF(((TypeVariableName) body).getName());
+			writeTypeNames(out, ((TypeVariableName) body).getBounds());
+		} else {
+			throw new IOException("Unable to encode type " + type + " (" + type.getClass() + ")");
+		}
+		
+		List<AnnotationSpec> annotations = new ArrayList<>(type.annotations.size());
+		for (AnnotationSpec annotation : type.annotations)
+			if (annotation.members.isEmpty())
+				annotations.add(annotation);
+		out.writeByte(annotations.size());
+		for (AnnotationSpec annotation : annotations)
+			writeTypeName(out, annotation.type);
+	}
+	
+	/**
+	 * Read type name
+	 * @param names Pool to intern names in (may be null)
+	 */
+	public static TypeName readTypeName(DataInput in, NamePool names) throws IOException {
+		int tag = in.readUnsignedByte();
+		TypeName result;
+		switch (tag) {
+			case T_NULL:
+				return null;
+			case T_KEYWORD:
+				result = keyword(in.readUTF());
+				break;
+			case T_CLASS: {
+				String packageName = in.readUTF();
+				ClassName enclosing = readTypeName(in, names, ClassName.class);
+				result = new ClassName(packageName, enclosing, in.readUTF());
+				break;
+			}
+			case T_PARAMETERIZED: {
+				ParameterizedTypeName enclosing = readTypeName(in, names, ParameterizedTypeName.class);
+				ClassName raw = readTypeName(in, names, ClassName.class);
+				result = new ParameterizedTypeName(enclosing, raw, readTypeNames(in, names), Collections.emptyList());
+				break;
+			}
+			case T_ARRAY:
+				result = new ArrayTypeName(readTypeName(in, names));
+				break;
+			case T_WILDCARD: {
+				TypeName superBound = readTypeName(in, names);
+				result = new WildcardTypeName(superBound, readTypeName(in, names), Collections.emptyList());
+				break;
+			}
+			case T_VARIABLE: {
+				String name = in.readUTF();
+				result = new TypeVariableName(name, readTypeNames(in, names), Collections.emptyList());
+				break;
+			}
+			default:
+				throw new IOException("Unknown type tag " + tag);
+		}
+		
+		int annotationCount = in.readUnsignedByte();
+		if (annotationCount == 0) {
+			return names == null ? result : names.intern(result);
+		}
+		List<AnnotationSpec> annotations = new ArrayList<>(annotationCount);
+		for (int i = 0; i < annotationCount; i++)
+			annotations.add(new AnnotationSpec(readTypeName(in, names), Collections.emptyMap()));
+		return result.withAnnotations(annotations);
+	}
+	
+	/**
+	 * Read type name that has to be of some kind (or null)
+	 * @throws IOException If the index is malformed
+	 */
+	public static <T extends TypeName> T readTypeName(DataInput in, NamePool names, Class<T> kind) throws IOException {
+		TypeName result = readTypeName(in, names);
+		if (result != null && !kind.isInstance(result))
+			throw new IOException("Malformed index (expected " + kind.getSimpleName() + ", but found " + result + ")");
+		return kind.cast(result);
+	}
+	
+	public static void writeTypeNames(DataOutput out, List<? extends TypeName> types) throws IOException {
+		out.writeShort(types.size());
+		for (TypeName type : types)
+			writeTypeName(out, type);
+	}
+	
+	public static List<TypeName> readTypeNames(DataInput in, NamePool names) throws IOException {
+		int count = in.readUnsignedShort();
+		List<TypeName> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			result.add(readTypeName(in, names));
+		return result;
+	}
+	
+	public static void writeGetter(DataOutput out, GetterSpec getter) throws IOException {
+		out.writeUTF(getter.name);
+		out.writeUTF(getter.fName);
+		writeTypeName(out, getter.type);
+		out.writeUTF(getter.invokerName);
+		writeNullableUTF(out, getter.boundValue);
+		int flags = (getter.override ? G_OVERRIDE : 0)
+				| (getter.hash ? G_HASH : 0)
+				| (getter.compare ? G_COMPARE : 0)
+				| (getter.optional ? G_OPTIONAL : 0)
+				| (getter.first ? G_FIRST : 0)
+				| (getter.last ? G_LAST : 0);
+		out.writeByte(flags);
+		writeStrings(out, getter.before);
+		writeStrings(out, getter.after);
+	}
+	
+	public static GetterSpec readGetter(DataInput in, NamePool names, ClassName owner) throws IOException {
+		GetterSpec result = new GetterSpec();
+		result.owner = owner;
+		result.name = in.readUTF();
+		result.fName = in.readUTF();
+		result.type = readTypeName(in, names);
+		result.invokerName = in.readUTF();
+		result.boundValue = readNullableUTF(in);
+		int flags = in.readUnsignedByte();
+		result.override = (flags & G_OVERRIDE) != 0;
+		result.hash = (flags & G_HASH) != 0;
+		result.compare = (flags & G_COMPARE) != 0;
+		result.optional = (flags & G_OPTIONAL) != 0;
+		result.first = (flags & G_FIRST) != 0;
+		result.last = (flags & G_LAST) != 0;
+		readStrings(in, result.before);
+		readStrings(in, result.after);
+		return result;
+	}
+	
+	/**
+	 * Write tree spec (name, kind, parents, impl kinds, and sorted getters)
+	 */
+	public static void writeTreeSpec(DataOutput out, TreeSpec spec) throws IOException {
+		writeTypeName(out, spec.getName());
+		out.writeByte(spec.kind.ordinal());
+		writeTypeNames(out, spec.parents);
+		writeStrings(out, spec.kinds == null ? Collections.emptySet() : spec.kinds.keySet());
+		out.writeShort(spec.getters.size());
+		for (GetterSpec getter : spec.getters)
+			writeGetter(out, getter);
+	}
+	
+	/**
+	 * Read tree spec. The caller has to fill in the source & loggers.
+	 * @param kinds Names of impl kinds
+	 */
+	public static TreeSpec readTreeSpec(DataInput in, NamePool names, Collection<String> kinds) throws IOException {
+		TreeSpec result = new TreeSpec();
+		result.name = readTypeName(in, names, ClassName.class);
+		int kind = in.readUnsignedByte();
+		if (kind >= TreeSpec.Kind.values().length)
+			throw new IOException("Unknown tree kind " + kind);
+		result.kind = TreeSpec.Kind.values()[kind];
+		result.parents.addAll(readTypeNames(in, names));
+		readStrings(in, kinds);
+		int getterCount = in.readUnsignedShort();
+		result.getters = new ArrayList<>(getterCount);
+		for (int i = 0; i < getterCount; i++)
+			result.getters.add(readGetter(in, names, result.name));
+		return result;
+	}
+	
+	/**
+	 * Write the layout of an impl: its name, parent impl, fields, and getters (as references to the
+	 * trees that declare them).
+	 */
+	public static void writeImplLayout(DataOutput out, TreeImplSpec impl) throws IOException {
+		out.writeUTF(impl.getSimpleName());
+		writeTypeName(out, impl.baseType);
+		writeTypeName(out, impl.resolvedParent == null ? null : impl.resolvedParent.baseType);
+		
+		Set<FieldSpec> declared = Collections.newSetFromMap(new IdentityHashMap<>());
+		declared.addAll(impl.declaredFields);
+		out.writeShort(impl.fields.size());
+		for (FieldSpec field : impl.fields.values()) {
+			out.writeBoolean(declared.contains(field));
+			out.writeInt(field.modifiers);
+			writeTypeName(out, field.type);
+			out.writeUTF(field.name);
+			writeNullableUTF(out, field.defaultValue);
+		}
+		
+		out.writeShort(impl.getters.size());
+		for (GetterSpec getter : impl.getters.values()) {
+			writeTypeName(out, getter.owner);
+			out.writeUTF(getter.name);
+		}
+	}
+	
+	/**
+	 * Impl layout, before its parent & getters are resolved
+	 */
+	public static class ImplLayout {
+		public String name;
+		public ClassName baseType;
+		public ClassName parent;
+		public final Map<String, FieldSpec> fields = new LinkedHashMap<>();
+		public final Set<FieldSpec> declaredFields = new LinkedHashSet<>();
+		/** Getters, as (declaring tree, getter name) */
+		public final List<Map.Entry<ClassName, String>> getters = new ArrayList<>();
+	}
+	
+	public static ImplLayout readImplLayout(DataInput in, NamePool names) throws IOException {
+		ImplLayout result = new ImplLayout();
+		result.name = in.readUTF();
+		result.baseType = readTypeName(in, names, ClassName.class);
+		result.parent = readTypeName(in, names, ClassName.class);
+		
+		for (int i = in.readUnsignedShort(); i > 0; i--) {
+			boolean declared = in.readBoolean();
+			int modifiers = in.readInt();
+			TypeName type = readTypeName(in, names);
+			String name = in.readUTF();
+			FieldSpec field = new FieldSpec(modifiers, type, name, readNullableUTF(in));
+			result.fields.put(name, field);
+			if (declared)
+				result.declaredFields.add(field);
+		}
+		
+		for (int i = in.readUnsignedShort(); i > 0; i--) {
+			ClassName owner = readTypeName(in, names, ClassName.class);
+			result.getters.add(new AbstractMap.SimpleImmutableEntry<>(owner, in.readUTF()));
+		}
+		return result;
+	}
+}
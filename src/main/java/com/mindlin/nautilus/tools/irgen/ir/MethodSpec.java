@@ -5,15 +5,22 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Objects;
 
-import javax.lang.model.type.TypeMirror;
-
 import com.mindlin.nautilus.tools.irgen.IRTypes;
 import com.mindlin.nautilus.tools.irgen.Utils;
 import com.mindlin.nautilus.tools.irgen.Utils.Writable;
 import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.codegen.Template;
 import com.mindlin.nautilus.tools.irgen.util.Named;
 
 public abstract class MethodSpec implements Writable, Named {
+	/** Method signature: modifiers, return type, name, parameters */
+	protected static final Template T_DECLARATION = Template.compile("$M $T $N($,n) {");
+	protected static final Template T_RETURN_FIELD = Template.compile("return this.$N;");
+	protected static final Template T_COPY_FIELD = Template.compile("$T result = this.$N;");
+	protected static final Template T_WRAP_IMMUTABLE = Template.compile("result = $T.$N($N);");
+	protected static final Template T_RETURN_NARROW_NONNULL = Template.compile("return $T.requireNonNull(($T) super.$N());");
+	protected static final Template T_RETURN_NARROW = Template.compile("return ($T) super.$N();");
+	
 	public int flags;
 	protected final String name;
 	
@@ -48,7 +55,7 @@ public abstract class MethodSpec implements Writable, Named {
 	public void write(CodeWriter out) {
 		this.writeBefore(out);
 		
-		out.emit("$M $T $N($,n) {", this.getModifiers(), this.getReturnType(), this.getName(), this.getParameters());
+		out.emit(T_DECLARATION, this.getModifiers(), this.getReturnType(), this.getName(), this.getParameters());
 		out.println();
 		
 		out.pushIndent();
@@ -109,7 +116,7 @@ public abstract class MethodSpec implements Writable, Named {
 		
 		@Override
 		protected void writeBody(CodeWriter out) {
-			out.emit("return this.$N;", this.field);
+			out.emit(T_RETURN_FIELD, this.field);
 			out.println();
 		}
 		
@@ -150,11 +157,11 @@ public abstract class MethodSpec implements Writable, Named {
 		@Override
 		protected void writeBody(CodeWriter out) {
 			TypeName type = this.getReturnType();
-			out.emit("$T result = this.$N;", type, this.field);
+			out.emit(T_COPY_FIELD, type, this.field);
 			out.println();
 			
 			if (this.immutable) {
-				out.emit("result = $T.$N($N);", Collections.class, Utils.immutableMethod(type), "result");
+				out.emit(T_WRAP_IMMUTABLE, Collections.class, Utils.immutableMethod(type), "result");
 				out.println();
 			}
 			
@@ -163,9 +170,9 @@ public abstract class MethodSpec implements Writable, Named {
 	}
 	
 	public static class NarrowGetterSpec extends OverrideMethod {
-		TypeMirror type;
+		TypeName type;
 		
-		public NarrowGetterSpec(int flags, String name, TypeMirror type) {
+		public NarrowGetterSpec(int flags, String name, TypeName type) {
 			super(name);
 			this.flags = flags;
 			this.type = type;
@@ -173,7 +180,7 @@ public abstract class MethodSpec implements Writable, Named {
 
 		@Override
 		public TypeName getReturnType() {
-			return TypeName.wrap(this.type);
+			return this.type;
 		}
 		
 		protected boolean shouldCheckForNull() {
@@ -183,9 +190,9 @@ public abstract class MethodSpec implements Writable, Named {
 		@Override
 		protected void writeBody(CodeWriter out) {
 			if (this.shouldCheckForNull())
-				out.emit("return $T.requireNonNull(($T) super.$N());", Objects.class, this.type, this.name);
+				out.emit(T_RETURN_NARROW_NONNULL, Objects.class, this.type, this.name);
 			else
-				out.emit("return ($T) super.$N();", this.type, this.name);
+				out.emit(T_RETURN_NARROW, this.type, this.name);
 		}
 	}
 }
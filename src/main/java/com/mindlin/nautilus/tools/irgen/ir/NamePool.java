@@ -0,0 +1,108 @@
+package com.mindlin.nautilus.tools.irgen.ir;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.ArrayTypeName;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.ParameterizedTypeName;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.TypeVariableName;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName.WildcardTypeName;
+
+/**
+ * Interning pool for {@link TypeName}s, so each distinct type has one canonical instance.
+ * <p>
+ * Elements and mirrors belong to a single processing environment, so each processor creates its own pool
+ * in {@code init} and passes it to everything that maps elements to names. {@link ClassName#get(TypeElement)}
+ * and {@link TypeName#wrap(TypeMirror)} don't use a pool, and allocate new names on every call, so the
+ * processor doesn't call them (and {@link com.mindlin.nautilus.tools.irgen.codegen.CodeWriter CodeWriter}
+ * doesn't accept mirrors).
+ * </p>
+ * <p>
+ * Because {@link ClassName} equality ignores annotations, only names with no annotations anywhere in
+ * their structure are interned (interning {@code List<@NonNull Foo>} could return {@code List<Foo>}).
+ * </p>
+ */
+public class NamePool {
+	protected static boolean isAnnotated(TypeName name) {
+		if (name == null)
+			return false;
+		if (!name.annotations.isEmpty())
+			return true;
+		if (name instanceof ClassName)
+			return isAnnotated(((ClassName) name).getEnclosingClass());
+		if (name instanceof ArrayTypeName)
+			return isAnnotated(((ArrayTypeName) name).getComponent());
+		if (name instanceof WildcardTypeName)
+			return isAnnotated(((WildcardTypeName) name).getSuperBound()) || isAnnotated(((WildcardTypeName) name).getExtendBound());
+		if (name instanceof ParameterizedTypeName) {
+			ParameterizedTypeName ptn = (ParameterizedTypeName) name;
+			if (isAnnotated(ptn.getEnclosing()) || isAnnotated(ptn.getRaw()))
+				return true;
+			for (TypeName arg : ptn.getArgs())
+				if (isAnnotated(arg))
+					return true;
+			return false;
+		}
+		if (name instanceof TypeVariableName) {
+			for (TypeName bound : ((TypeVariableName) name).getBounds())
+				if (isAnnotated(bound))
+					return true;
+			return false;
+		}
+		// Unknown subclass; don't risk it
+		return true;
+	}
+	
+	protected final Map<TypeName, TypeName> names = new ConcurrentHashMap<>();
+	protected final Map<TypeElement, ClassName> elements = new ConcurrentHashMap<>();
+	/** Javac mirrors don't override equals, so this is effectively keyed on identity */
+	protected final Map<TypeMirror, TypeName> mirrors = new ConcurrentHashMap<>();
+	
+	public NamePool() {
+	}
+	
+	/**
+	 * Get canonical instance of name
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TypeName> T intern(T name) {
+		if (name == null || isAnnotated(name))
+			return name;
+		TypeName existing = this.names.putIfAbsent(name, name);
+		// Equal names always have the same class
+		return existing == null ? name : (T) existing;
+	}
+	
+	public ClassName get(TypeElement element) {
+		// Not computeIfAbsent, because resolving a nested class recurses into the pool
+		ClassName result = this.elements.get(element);
+		if (result == null) {
+			result = this.intern(ClassName.get(element));
+			ClassName existing = this.elements.putIfAbsent(element, result);
+			if (existing != null)
+				result = existing;
+		}
+		return result;
+	}
+	
+	public TypeName wrap(TypeMirror type) {
+		TypeName result = this.mirrors.get(type);
+		if (result == null) {
+			result = this.intern(type.accept(new TypeName.TypeMapper(this), null));
+			TypeName existing = this.mirrors.putIfAbsent(type, result);
+			if (existing != null)
+				result = existing;
+		}
+		return result;
+	}
+	
+	/**
+	 * @return Number of canonical names
+	 */
+	public int size() {
+		return this.names.size();
+	}
+}
@@ -53,6 +53,7 @@ public class ParameterSpec implements Writable, Named {
 		try (StringWriter sw = new StringWriter();
 				CodeWriter cw = new CodeWriter(sw)){
 			this.write(cw);
+			cw.flush();
 			return sw.toString();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
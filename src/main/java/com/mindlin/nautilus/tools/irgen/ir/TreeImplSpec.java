@@ -5,6 +5,7 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -15,15 +16,54 @@ import java.util.Optional;
 
 import javax.lang.model.element.TypeElement;
 
+import com.mindlin.nautilus.tools.irgen.ChildListSpec;
 import com.mindlin.nautilus.tools.irgen.IRTypes;
 import com.mindlin.nautilus.tools.irgen.NameHelper;
 import com.mindlin.nautilus.tools.irgen.Utils;
 import com.mindlin.nautilus.tools.irgen.codegen.CodeWriter;
+import com.mindlin.nautilus.tools.irgen.codegen.Template;
 import com.mindlin.nautilus.tools.irgen.ir.MethodSpec.OverrideMethod;
 import com.mindlin.nautilus.tools.irgen.ir.TreeSpec.GetterSpec;
 import com.mindlin.nautilus.tools.irgen.ir.TypeName.ParameterizedTypeName;
 
 public class TreeImplSpec extends AbstractTreeSpec {
+	// Templates for the inner specs (which can't declare static fields)
+	protected static final Template T_MERGE_RANGE = Template.compile("this(new $T($N, $N));");
+	protected static final Template T_MERGE_RANGE_FORWARD = Template.compile("this(new $T($N, $N), $,N);");
+	protected static final Template T_SPLIT_RANGE = Template.compile("this($T.requireNonNull($N).getStart(), $N.getEnd());");
+	protected static final Template T_SPLIT_RANGE_FORWARD = Template.compile("this($T.requireNonNull($N).getStart(), $N.getEnd(), $,N);");
+	protected static final Template T_SUPER_POSITIONS = Template.compile("super($N, $N);");
+	protected static final Template T_SUPER_POSITIONS_FORWARD = Template.compile("super($N, $N, $,N);");
+	protected static final Template T_LAZY_RANGE = Template.compile("return new $T(this.$N, this.$N);");
+	protected static final Template T_REQUIRE_NONNULL = Template.compile("$T.requireNonNull($N)");
+	protected static final Template T_FORWARD_REQUIRE_NONNULL = Template.compile(", $T.requireNonNull($N)");
+	protected static final Template T_FORWARD = Template.compile(", $N");
+	protected static final Template T_ASSIGN_FIELD = Template.compile("this.$N = $N;");
+	protected static final Template T_ASSIGN_FIELD_NONNULL = Template.compile("this.$N = $T.requireNonNull($N);");
+	protected static final Template T_ASSIGN_COPY = Template.compile("this.$N = $T.copyOf($N);");
+	protected static final Template T_ASSIGN_COPY_NONNULL = Template.compile("this.$N = $T.copyOf($T.requireNonNull($N));");
+	protected static final Template T_HASH = Template.compile("return $T.hash(super.hash(), $,N);");
+	protected static final Template T_HASH_FOLD = Template.compile("h = 31 * h + $T.hashCode(this.$N());");
+	protected static final Template T_HASH_CACHE = Template.compile("int h = this.$N;");
+	protected static final Template T_HASH_CACHE_STORE = Template.compile("this.$N = h = this.hash();");
+	protected static final Template T_EQUIVALENT_CAST = Template.compile("return (other instanceof $T) && this.equivalentTo(($T) other);");
+	protected static final Template T_EQUIV_PRIMITIVE = Template.compile("\n&& (this.$N() == other.$N())");
+	protected static final Template T_EQUIV_OBJECT = Template.compile("\n&& $T.equals(this.$N(), other.$N())");
+	protected static final Template T_EQUIV_CHILD = Template.compile("\n&& $T.equivalentTo(this.$N(), other.$N())");
+	protected static final Template T_EQUIV_CHILDREN_UNORDERED = Template.compile("\n&& $T.equivalentToUnordered(this.$N(), other.$N())");
+	protected static final Template T_SHALLOW_ROOT = Template.compile("if (!(other instanceof $T) || !super.equivalentTo(other))");
+	protected static final Template T_SHALLOW_SUPER = Template.compile("if (!(other instanceof $T) || !super.equivalentShallow(other, pending))");
+	protected static final Template T_SHALLOW_CAST = Template.compile("$T that = ($T) other;");
+	protected static final Template T_SHALLOW_PRIMITIVE = Template.compile("this.$N() != that.$N()");
+	protected static final Template T_SHALLOW_OBJECT = Template.compile("!$T.equals(this.$N(), that.$N())");
+	protected static final Template T_SHALLOW_UNORDERED = Template.compile("!$T.equivalentToUnordered(this.$N(), that.$N())");
+	protected static final Template T_SHALLOW_PUSH = Template.compile("pending.add(this.$N());\npending.add(that.$N());");
+	protected static final Template T_SHALLOW_PUSH_ALL = Template.compile("if (!$T.pushChildren(pending, this.$N(), that.$N()))");
+	protected static final Template T_ITER_DELEGATE = Template.compile("return $T.equivalentTo(this, other);");
+	protected static final Template T_ITER_HASH = Template.compile("return this.isHashConsistent() ? this.$N : 0;");
+	/** {@code List<Tree>} (work stack for iterative equivalence) */
+	protected static final TypeName PENDING_TYPE = new ParameterizedTypeName(null, ClassName.get(List.class), Arrays.asList(IRTypes.TREE), Collections.emptyList());
+	
 	public final TypeElement source;
 	String name;
 	
@@ -32,6 +72,23 @@ public class TreeImplSpec extends AbstractTreeSpec {
 	public final Map<String, FieldSpec> fields = new LinkedHashMap<>();
 	/** Contains all getters (declared & inherited) by name */
 	public final Map<String, GetterSpec> getters = new HashMap<>();
+	/** Fold hashes without varargs, and memoize the hash (in the first generated impl of a hierarchy) */
+	public boolean cacheHash = false;
+	/** Memoized hash (only declared by the first generated impl of a hierarchy) */
+	protected FieldSpec hashCacheField;
+	/** Compare trees with an explicit work stack, instead of recursing into children */
+	public boolean iterativeEquivalence = false;
+	/** Copy collections into {@code ChildList}s in the c'tor (see {@link ChildListSpec}) */
+	public boolean childLists = false;
+	/** Store start & end positions, instead of a SourceRange that's built for every tree (in the first generated impl of a hierarchy) */
+	public boolean lazyRange = false;
+	/** Start & end positions (only declared by the first generated impl of a hierarchy, if the range is lazy) */
+	protected FieldSpec startField, endField;
+	/**
+	 * If every property that's hashed by this impl (and its ancestors) is also compared (and hashed structurally),
+	 * so trees with different hashes can't be equivalent. Unknown (false) for impls from other modules.
+	 */
+	protected boolean hashConsistent = false;
 	
 	
 	public TreeImplSpec(TypeElement source, String name) {
@@ -89,7 +146,9 @@ public class TreeImplSpec extends AbstractTreeSpec {
 	
 	@Override
 	protected Collection<TypeName> getImplementing() {
-		return Arrays.asList(ClassName.get(this.source));
+		if (this.iterativeEquivalence && this.resolvedParent == null)
+			return Arrays.asList(this.baseType, IRTypes.EQUIVALENCE);
+		return Arrays.asList(this.baseType);
 	}
 	
 	@Override
@@ -137,6 +196,16 @@ public class TreeImplSpec extends AbstractTreeSpec {
 		return result;
 	}
 	
+	/**
+	 * Parameters of the primary (range + fields) c'tor, for code that creates instances of this impl
+	 */
+	public List<? extends ParameterSpec> getConstructorParameters() {
+		for (CtorSpec ctor : this.constructors)
+			if (ctor instanceof ForwardingCtorSpec)
+				return ((ForwardingCtorSpec) ctor).getParameters();
+		return new ForwardingCtorSpec().getParameters();
+	}
+	
 	public MethodSpec lookupMethod(String name) {
 		//TODO
 		return null;
@@ -147,17 +216,72 @@ public class TreeImplSpec extends AbstractTreeSpec {
 		this.declaredMethods.add(spec);
 	}
 	
+	/**
+	 * Name for a field that isn't a property
+	 */
+	protected String getSyntheticFieldName(String name) {
+		while (this.fields.containsKey(name))
+			name = "_" + name;
+		return name;
+	}
+	
 	public void buildMethods() {
+		// Add getRange() (subclasses inherit the positions)
+		if (this.lazyRange && this.resolvedParent == null) {
+			this.startField = new FieldSpec(Modifier.PRIVATE | Modifier.FINAL, IRTypes.SOURCEPOSITION, this.getSyntheticFieldName("start"));
+			this.endField = new FieldSpec(Modifier.PRIVATE | Modifier.FINAL, IRTypes.SOURCEPOSITION, this.getSyntheticFieldName("end"));
+			this.addMethod(new LazyRangeMethodSpec(), 0);
+		}
+		// Add hashCode() (subclasses inherit it, and their hash() is called through it)
+		if (this.cacheHash && this.resolvedParent == null) {
+			this.hashCacheField = new FieldSpec(Modifier.PRIVATE, TypeName.INT, this.getSyntheticFieldName("hashCache"));
+			this.addMethod(new HashCodeMethodSpec(), 0);
+		}
 		// Add hash()
 		this.addMethod(new HashInnerMethodSpec(), 0);
-		// Add equivalentTo(Tree)
-		this.addMethod(new EquivalentToMethodSpec(), 0);
-		// Add equivalentTo(self)
-		this.addMethod(new EquivalentToSelfMethodSpec(), 0);
+		if (this.iterativeEquivalence) {
+			boolean parentConsistent = this.resolvedParent == null || this.resolvedParent.hashConsistent;
+			this.hashConsistent = parentConsistent;
+			for (MethodSpec spec : this.getMethods(AbstractTreeSpec.MF_HASH))
+				if (!isHashConsistent(spec))
+					this.hashConsistent = false;
+			
+			if (this.resolvedParent == null) {
+				// Add equivalentTo(Tree), which walks the trees with the shared loop
+				this.addMethod(new EquivalentToIterativeMethodSpec(), 0);
+				// Add getEquivalenceHash(), so the loop can compare cached hashes
+				if (this.hashCacheField != null)
+					this.addMethod(new EquivalenceHashMethodSpec(), 0);
+			}
+			// Add isHashConsistent() (if it changed)
+			if (this.hashCacheField != null || (this.cacheHash && this.hashConsistent != parentConsistent))
+				this.addMethod(new HashConsistentMethodSpec(), 0);
+			// Add equivalentShallow(Tree, List<Tree>)
+			this.addMethod(new EquivalentShallowMethodSpec(), 0);
+		} else {
+			// Add equivalentTo(Tree)
+			this.addMethod(new EquivalentToMethodSpec(), 0);
+			// Add equivalentTo(self)
+			this.addMethod(new EquivalentToSelfMethodSpec(), 0);
+		}
 		// Add equals(Object)
 		// Add equals(self)
 	}
 	
+	/**
+	 * If trees with different hashes for a getter can't be equivalent.
+	 * <p>
+	 * Children are hashed with {@code hashCode()}, which is only structural for impls that memoize it, and a child
+	 * could be any impl of its type (including ones that weren't generated), so their hashes are never trusted.
+	 * Unordered collections of children are also hashed in order, but compared without it.
+	 * </p>
+	 */
+	protected static boolean isHashConsistent(MethodSpec getter) {
+		if ((getter.flags & AbstractTreeSpec.MF_EQUIV) == 0)
+			return false;
+		return (getter.flags & (AbstractTreeSpec.MF_GCHILD | AbstractTreeSpec.MF_GCHILDREN)) == 0;
+	}
+	
 	@Override
 	protected String getPackage() {
 		return IRTypes.IMPL_PACKAGE;
@@ -184,12 +308,18 @@ public class TreeImplSpec extends AbstractTreeSpec {
 	@Override
 	protected void writeBody(CodeWriter writer) throws IOException {
 		super.writeBody(writer);
-		for (FieldSpec field : this.declaredFields) {
+		List<FieldSpec> fields = new ArrayList<>(this.declaredFields);
+		// Fields that aren't properties
+		for (FieldSpec field : Arrays.asList(this.startField, this.endField, this.hashCacheField))
+			if (field != null)
+				fields.add(field);
+		
+		for (FieldSpec field : fields) {
 			field.write(writer);
 			writer.setEOL();
 		}
 		
-		if (!this.declaredFields.isEmpty())
+		if (!fields.isEmpty())
 			writer.println();
 		
 		for (CtorSpec ctor : this.constructors) {
@@ -258,11 +388,38 @@ public class TreeImplSpec extends AbstractTreeSpec {
 			List<? extends ParameterSpec> parameters = this.getParameters();
 			final ParameterSpec paramStart = parameters.get(0), paramEnd = parameters.get(1);
 			
+			if (TreeImplSpec.this.lazyRange) {
+				this.writeLazyBody(out, paramStart, paramEnd, parameters.subList(2, parameters.size()));
+				return;
+			}
+			
 			if (parameters.size() == 2)
-				out.emit("this(new $T($N, $N));", IRTypes.SOURCERANGE, paramStart, paramEnd);
+				out.emit(T_MERGE_RANGE, IRTypes.SOURCERANGE, paramStart, paramEnd);
 			else
-				out.emit("this(new $T($N, $N), $,N);", IRTypes.SOURCERANGE, paramStart, paramEnd, parameters.subList(2, parameters.size()));
+				out.emit(T_MERGE_RANGE_FORWARD, IRTypes.SOURCERANGE, paramStart, paramEnd, parameters.subList(2, parameters.size()));
+			out.setEOL();
+		}
+		
+		/**
+		 * With a lazy range, this is the primary c'tor: the positions are stored by the first generated impl
+		 */
+		protected void writeLazyBody(CodeWriter out, ParameterSpec paramStart, ParameterSpec paramEnd, List<? extends ParameterSpec> params) {
+			int localFieldParamCount = TreeImplSpec.this.declaredFields.size();
+			List<? extends ParameterSpec> inherited = params.subList(0, params.size() - localFieldParamCount);
+			if (TreeImplSpec.this.resolvedParent == null) {
+				// The base range is unused (see getRange())
+				out.println("super(null);");
+				out.emit(T_ASSIGN_FIELD, TreeImplSpec.this.startField, paramStart);
+				out.println();
+				out.emit(T_ASSIGN_FIELD, TreeImplSpec.this.endField, paramEnd);
+			} else if (inherited.isEmpty()) {
+				out.emit(T_SUPER_POSITIONS, paramStart, paramEnd);
+			} else {
+				out.emit(T_SUPER_POSITIONS_FORWARD, paramStart, paramEnd, inherited);
+			}
 			out.setEOL();
+			
+			TreeImplSpec.this.writeFieldAssignments(out, params.subList(params.size() - localFieldParamCount, params.size()));
 		}
 	}
 	
@@ -275,6 +432,13 @@ public class TreeImplSpec extends AbstractTreeSpec {
 		protected int getModifiers() {
 			return Modifier.PUBLIC;
 		}
+		
+		@Override
+		protected void getImports(Collection<? super ClassName> result) {
+			super.getImports(result);
+			// The range is always checked
+			result.add(ClassName.get(Objects.class));
+		}
 
 		@Override
 		protected String getName() {
@@ -302,37 +466,62 @@ public class TreeImplSpec extends AbstractTreeSpec {
 			List<? extends ForwardingParameterSpec> params = this.getParameters();
 			int localFieldParamCount = TreeImplSpec.this.declaredFields.size();
 			
+			if (TreeImplSpec.this.lazyRange) {
+				// Split range, and delegate to RangeMergeCtorSpec
+				ParameterSpec rangeParam = params.get(0);
+				if (params.size() == 1)
+					out.emit(T_SPLIT_RANGE, Objects.class, rangeParam, rangeParam);
+				else
+					out.emit(T_SPLIT_RANGE_FORWARD, Objects.class, rangeParam, rangeParam, params.subList(1, params.size()));
+				out.setEOL();
+				return;
+			}
+			
 			// Write call to super
 			out.print("super(");
 			
 			// Forward range param
 			//TODO: should we allow null ranges?
 			ParameterSpec rangeParam = params.get(0);
-			out.emit("$T.requireNonNull($N)", Objects.class, rangeParam);
+			out.emit(T_REQUIRE_NONNULL, Objects.class, rangeParam);
 			
 			// Call super, injecting nonnull checks if delta
 			for (ForwardingParameterSpec param : params.subList(1, params.size() - localFieldParamCount)) {
 				if (param.injectNonNull)
-					out.emit(", $T.requireNonNull($N)", Objects.class, param);
+					out.emit(T_FORWARD_REQUIRE_NONNULL, Objects.class, param);
 				else
-					out.emit(", $N", param);
+					out.emit(T_FORWARD, param);
 			}
 			out.println(");");
 			
-			// Generate field assignments
-			for (ForwardingParameterSpec param : params.subList(params.size() - localFieldParamCount, params.size())) {
-				FieldSpec field = param.target;
-				if (field == null) {
-					out.format("//XXX Error: Missing field for parameter %s", param.name);
-				} else if (IRTypes.isPrimitive(field.type)) {
-					out.emit("this.$N = $N;", field, param);
-				} else if (param.nonNull) {
-					out.emit("this.$N = $T.requireNonNull($N);", field, Objects.class, param);
-				} else {
-					out.emit("this.$N = $N;", field, param);
-				}
-				out.setEOL();
+			TreeImplSpec.this.writeFieldAssignments(out, params.subList(params.size() - localFieldParamCount, params.size()));
+		}
+	}
+	
+	/**
+	 * Assign local fields from c'tor parameters
+	 * @param params Parameters for {@link #declaredFields} (created by {@link #addLocalFieldParams(NameHelper, List)})
+	 */
+	protected void writeFieldAssignments(CodeWriter out, List<? extends ParameterSpec> params) {
+		for (ParameterSpec p : params) {
+			ForwardingParameterSpec param = (ForwardingParameterSpec) p;
+			FieldSpec field = param.target;
+			if (field == null) {
+				out.format("//XXX Error: Missing field for parameter %s", param.name);
+			} else if (this.childLists && ChildListSpec.isSupported(field.type)) {
+				// Copy once, so the getter doesn't have to wrap it
+				if (param.nonNull)
+					out.emit(T_ASSIGN_COPY_NONNULL, field, IRTypes.CHILD_LIST, Objects.class, param);
+				else
+					out.emit(T_ASSIGN_COPY, field, IRTypes.CHILD_LIST, param);
+			} else if (IRTypes.isPrimitive(field.type)) {
+				out.emit(T_ASSIGN_FIELD, field, param);
+			} else if (param.nonNull) {
+				out.emit(T_ASSIGN_FIELD_NONNULL, field, Objects.class, param);
+			} else {
+				out.emit(T_ASSIGN_FIELD, field, param);
 			}
+			out.setEOL();
 		}
 	}
 	
@@ -369,6 +558,43 @@ public class TreeImplSpec extends AbstractTreeSpec {
 		}
 	}
 	
+	/**
+	 * <pre>
+	 * {@literal @}Override
+	 * public int hashCode() {
+	 * 	int h = this.hashCache;
+	 * 	if (h == 0)
+	 * 		this.hashCache = h = this.hash();
+	 * 	return h;
+	 * }
+	 * </pre>
+	 * Trees are immutable, so their hash only has to be computed once. Like {@link String#hashCode()},
+	 * a hash of 0 is recomputed, and the race between threads computing it is benign.
+	 */
+	public class HashCodeMethodSpec extends OverrideMethod {
+		public HashCodeMethodSpec() {
+			super("hashCode");
+		}
+		
+		@Override
+		public TypeName getReturnType() {
+			return TypeName.INT;
+		}
+		
+		@Override
+		protected void writeBody(CodeWriter out) {
+			FieldSpec field = TreeImplSpec.this.hashCacheField;
+			out.emit(T_HASH_CACHE, field);
+			out.println();
+			out.println("if (h == 0)");
+			out.pushIndent();
+			out.emit(T_HASH_CACHE_STORE, field);
+			out.println();
+			out.popIndent();
+			out.println("return h;");
+		}
+	}
+	
 	/**
 	 * <pre>
 	 * {@literal @}Override
@@ -376,6 +602,18 @@ public class TreeImplSpec extends AbstractTreeSpec {
 	 * 	return Objects.hash([all properties & children]);
 	 * }
 	 * </pre>
+	 * If {@link TreeImplSpec#cacheHash} is set, the hashes of properties & children are folded in one
+	 * at a time instead (with the same result as {@link Objects#hash(Object...)}, but without allocating
+	 * an array or boxing primitives):
+	 * <pre>
+	 * {@literal @}Override
+	 * protected int hash() {
+	 * 	int h = 31 + super.hash();
+	 * 	h = 31 * h + Integer.hashCode(this.getA());
+	 * 	h = 31 * h + Objects.hashCode(this.getB());
+	 * 	return h;
+	 * }
+	 * </pre>
 	 */
 	public class HashInnerMethodSpec extends OverrideMethod {
 		public HashInnerMethodSpec() {
@@ -385,8 +623,13 @@ public class TreeImplSpec extends AbstractTreeSpec {
 		@Override
 		public void getImports(Collection<? super ClassName> result) {
 			super.getImports(result);
-			if (!getMethods(AbstractTreeSpec.MF_HASH).isEmpty())
-				result.add(ClassName.get(Objects.class));
+			for (MethodSpec spec : getMethods(AbstractTreeSpec.MF_HASH)) {
+				if (TreeImplSpec.this.cacheHash && (spec.flags & AbstractTreeSpec.MF_GPRIMITIVE) != 0) {
+					result.addAll(TypeName.getImportable(spec.getReturnType().box()));
+				} else {
+					result.add(ClassName.get(Objects.class));
+				}
+			}
 		}
 
 		@Override
@@ -401,11 +644,49 @@ public class TreeImplSpec extends AbstractTreeSpec {
 
 		@Override
 		protected void writeBody(CodeWriter out) {
-			List<String> params = Utils.map(getMethods(AbstractTreeSpec.MF_HASH), spec -> Utils.invoke("this", spec.getName()));
-			if (params.isEmpty())
+			Collection<MethodSpec> methods = getMethods(AbstractTreeSpec.MF_HASH);
+			if (methods.isEmpty()) {
 				out.print("return super.hash();");
-			else
-				out.emit("return $T.hash(super.hash(), $,N);", Objects.class, params);
+			} else if (TreeImplSpec.this.cacheHash) {
+				out.println("int h = 31 + super.hash();");
+				for (MethodSpec spec : methods) {
+					if ((spec.flags & AbstractTreeSpec.MF_GPRIMITIVE) != 0)
+						out.emit(T_HASH_FOLD, spec.getReturnType().box(), spec);
+					else
+						out.emit(T_HASH_FOLD, Objects.class, spec);
+					out.println();
+				}
+				out.print("return h;");
+			} else {
+				List<String> params = Utils.map(methods, spec -> Utils.invoke("this", spec.getName()));
+				out.emit(T_HASH, Objects.class, params);
+			}
+			out.setEOL();
+		}
+	}
+	
+	/**
+	 * <pre>
+	 * {@literal @}Override
+	 * public SourceRange getRange() {
+	 * 	return new SourceRange(this.start, this.end);
+	 * }
+	 * </pre>
+	 * Not cached, so trees only have to hold the positions.
+	 */
+	public class LazyRangeMethodSpec extends OverrideMethod {
+		public LazyRangeMethodSpec() {
+			super("getRange");
+		}
+		
+		@Override
+		public TypeName getReturnType() {
+			return IRTypes.SOURCERANGE;
+		}
+		
+		@Override
+		protected void writeBody(CodeWriter out) {
+			out.emit(T_LAZY_RANGE, IRTypes.SOURCERANGE, TreeImplSpec.this.startField, TreeImplSpec.this.endField);
 			out.setEOL();
 		}
 	}
@@ -435,7 +716,7 @@ public class TreeImplSpec extends AbstractTreeSpec {
 		@Override
 		protected void writeBody(CodeWriter out) {
 			TypeName type = TreeImplSpec.this.getBaseTreeType();
-			out.emit("return (other instanceof $T) && this.equivalentTo(($T) other);", type, type);
+			out.emit(T_EQUIVALENT_CAST, type, type);
 			out.setEOL();
 		}
 	}
@@ -480,27 +761,250 @@ public class TreeImplSpec extends AbstractTreeSpec {
 			
 			// Primitive props: (a == b)
 			for (MethodSpec spec : TreeImplSpec.this.getMethods(AbstractTreeSpec.MF_GPRIMITIVE | AbstractTreeSpec.MF_EQUIV))
-				out.emit("\n&& (this.$N() == other.$N())", spec, spec);
+				out.emit(T_EQUIV_PRIMITIVE, spec, spec);
 			
 			// Object props: Objects.equals(a, b)
 			for (MethodSpec spec : TreeImplSpec.this.getMethods(AbstractTreeSpec.MF_GOBJECT | AbstractTreeSpec.MF_EQUIV))
-				out.emit("\n&& $T.equals(this.$N(), other.$N())", Objects.class, spec, spec);
+				out.emit(T_EQUIV_OBJECT, Objects.class, spec, spec);
 			
 			// Child: Tree.equivalentTo(Tree, Tree)
 			for (MethodSpec spec : TreeImplSpec.this.getMethods(AbstractTreeSpec.MF_GCHILD | AbstractTreeSpec.MF_EQUIV))
-				out.emit("\n&& $T.equivalentTo(this.$N(), other.$N())", IRTypes.TREE, spec, spec);
+				out.emit(T_EQUIV_CHILD, IRTypes.TREE, spec, spec);
 			
 			// Children: Tree.equivalentTo(Collection<Tree>, Collection<Tree>)
 			for (MethodSpec spec : TreeImplSpec.this.getMethods(AbstractTreeSpec.MF_GCHILDREN | AbstractTreeSpec.MF_EQUIV)) {
 				if (IRTypes.withoutGenerics(spec.getReturnType()).equals(IRTypes.COLLECTION_C))
-					out.emit("\n&& $T.equivalentToUnordered(this.$N(), other.$N())", IRTypes.TREE, spec, spec);
+					out.emit(T_EQUIV_CHILDREN_UNORDERED, IRTypes.TREE, spec, spec);
 				else
-					out.emit("\n&& $T.equivalentTo(this.$N(), other.$N())", IRTypes.TREE, spec, spec);
+					out.emit(T_EQUIV_CHILD, IRTypes.TREE, spec, spec);
 			}
 			
 			out.println(";");
 			out.popIndent(2);
 		}
 		
+	}	
+	/**
+	 * Iterative equivalence (declared by the first generated impl of a hierarchy):
+	 * <pre>
+	 * {@literal @}Override
+	 * public boolean equivalentTo(final Tree other) {
+	 * 	return IterativeEquivalence.equivalentTo(this, other);
+	 * }
+	 * </pre>
+	 * The loop is shared by every generated impl (see {@link com.mindlin.nautilus.tools.irgen.EquivalenceSpec}),
+	 * so the stack depth doesn't depend on the depth of the trees, even if they mix hierarchies.
+	 */
+	public class EquivalentToIterativeMethodSpec extends OverrideMethod {
+		public EquivalentToIterativeMethodSpec() {
+			super("equivalentTo");
+		}
+		
+		@Override
+		public void getImports(Collection<? super ClassName> result) {
+			super.getImports(result);
+			result.add(IRTypes.TREE);
+		}
+		
+		@Override
+		public TypeName getReturnType() {
+			return TypeName.BOOLEAN;
+		}
+		
+		@Override
+		protected Collection<ParameterSpec> getParameters() {
+			return Arrays.asList(new ParameterSpec(true, IRTypes.TREE, "other"));
+		}
+		
+		@Override
+		protected void writeBody(CodeWriter out) {
+			out.emit(T_ITER_DELEGATE, IRTypes.EQUIVALENCE);
+			out.setEOL();
+		}
+	}
+	
+	/**
+	 * <pre>
+	 * {@literal @}Override
+	 * public int getEquivalenceHash() {
+	 * 	return this.isHashConsistent() ? this.hashCache : 0;
+	 * }
+	 * </pre>
+	 */
+	public class EquivalenceHashMethodSpec extends OverrideMethod {
+		public EquivalenceHashMethodSpec() {
+			super("getEquivalenceHash");
+		}
+		
+		@Override
+		public TypeName getReturnType() {
+			return TypeName.INT;
+		}
+		
+		@Override
+		protected void writeBody(CodeWriter out) {
+			out.emit(T_ITER_HASH, TreeImplSpec.this.hashCacheField);
+			out.setEOL();
+		}
+	}
+	
+	/**
+	 * <pre>
+	 * protected boolean isHashConsistent() {
+	 * 	return [if trees with different hashes can't be equivalent];
+	 * }
+	 * </pre>
+	 */
+	public class HashConsistentMethodSpec extends MethodSpec {
+		public HashConsistentMethodSpec() {
+			super("isHashConsistent");
+		}
+		
+		@Override
+		protected int getModifiers() {
+			return Modifier.PROTECTED;
+		}
+		
+		@Override
+		public TypeName getReturnType() {
+			return TypeName.BOOLEAN;
+		}
+		
+		@Override
+		protected Collection<ParameterSpec> getParameters() {
+			return Collections.emptyList();
+		}
+		
+		@Override
+		protected void writeBefore(CodeWriter out) {
+			super.writeBefore(out);
+			if (TreeImplSpec.this.resolvedParent != null)
+				out.println("@Override");
+		}
+		
+		@Override
+		protected void writeBody(CodeWriter out) {
+			out.print(TreeImplSpec.this.hashConsistent ? "return true;" : "return false;");
+			out.setEOL();
+		}
+	}
+	
+	/**
+	 * Compare properties, and push children to compare later:
+	 * <pre>
+	 * {@literal @}Override
+	 * public boolean equivalentShallow(final Tree other, final List&lt;Tree&gt; pending) {
+	 * 	if (!(other instanceof [base type]) || !super.equivalentShallow(other, pending))
+	 * 		return false;
+	 * 	[base type] that = ([base type]) other;
+	 * 	if ([any property differs])
+	 * 		return false;
+	 * 	[push children]
+	 * 	return true;
+	 * }
+	 * </pre>
+	 */
+	public class EquivalentShallowMethodSpec extends MethodSpec {
+		public EquivalentShallowMethodSpec() {
+			super("equivalentShallow");
+		}
+		
+		@Override
+		protected int getModifiers() {
+			return Modifier.PUBLIC;
+		}
+		
+		@Override
+		public void getImports(Collection<? super ClassName> result) {
+			super.getImports(result);
+			result.addAll(TypeName.getImportable(TreeImplSpec.this.getBaseTreeType()));
+			if (!TreeImplSpec.this.getMethods(AbstractTreeSpec.MF_GOBJECT | AbstractTreeSpec.MF_EQUIV).isEmpty())
+				result.add(ClassName.get(Objects.class));
+			result.add(IRTypes.TREE);
+			result.add(ClassName.get(List.class));
+		}
+		
+		@Override
+		public TypeName getReturnType() {
+			return TypeName.BOOLEAN;
+		}
+		
+		@Override
+		protected Collection<ParameterSpec> getParameters() {
+			return Arrays.asList(new ParameterSpec(true, IRTypes.TREE, "other"), new ParameterSpec(true, PENDING_TYPE, "pending"));
+		}
+		
+		@Override
+		protected void writeBefore(CodeWriter out) {
+			super.writeBefore(out);
+			out.println("@Override");
+		}
+		
+		@Override
+		protected void writeBody(CodeWriter out) {
+			TypeName type = TreeImplSpec.this.getBaseTreeType();
+			out.emit(TreeImplSpec.this.resolvedParent == null ? T_SHALLOW_ROOT : T_SHALLOW_SUPER, type);
+			out.println();
+			out.indentln("return false;");
+			
+			Collection<MethodSpec> methods = TreeImplSpec.this.getMethods(AbstractTreeSpec.MF_EQUIV);
+			if (methods.isEmpty()) {
+				out.print("return true;");
+				out.setEOL();
+				return;
+			}
+			out.emit(T_SHALLOW_CAST, type, type);
+			out.println();
+			
+			// Properties (and unordered children, which can't be paired up)
+			boolean first = true;
+			for (MethodSpec spec : methods) {
+				Template template;
+				Object target;
+				if ((spec.flags & AbstractTreeSpec.MF_GPRIMITIVE) != 0) {
+					template = T_SHALLOW_PRIMITIVE;
+					target = null;
+				} else if ((spec.flags & AbstractTreeSpec.MF_GOBJECT) != 0) {
+					template = T_SHALLOW_OBJECT;
+					target = Objects.class;
+				} else if ((spec.flags & AbstractTreeSpec.MF_GCHILDREN) != 0 && IRTypes.withoutGenerics(spec.getReturnType()).equals(IRTypes.COLLECTION_C)) {
+					template = T_SHALLOW_UNORDERED;
+					target = IRTypes.TREE;
+				} else {
+					continue;
+				}
+				if (first) {
+					out.print("if (");
+					out.pushIndent(2);
+					first = false;
+				} else {
+					out.println();
+					out.print("|| ");
+				}
+				if (target == null)
+					out.emit(template, spec, spec);
+				else
+					out.emit(template, target, spec, spec);
+			}
+			if (!first) {
+				out.println(")");
+				out.popIndent(2);
+				out.indentln("return false;");
+			}
+			
+			// Children
+			for (MethodSpec spec : methods) {
+				if ((spec.flags & AbstractTreeSpec.MF_GCHILD) != 0) {
+					out.emit(T_SHALLOW_PUSH, spec, spec);
+					out.println();
+				} else if ((spec.flags & AbstractTreeSpec.MF_GCHILDREN) != 0 && !IRTypes.withoutGenerics(spec.getReturnType()).equals(IRTypes.COLLECTION_C)) {
+					out.emit(T_SHALLOW_PUSH_ALL, IRTypes.EQUIVALENCE, spec, spec);
+					out.println();
+					out.indentln("return false;");
+				}
+			}
+			out.print("return true;");
+			out.setEOL();
+		}
 	}
 }
\ No newline at end of file
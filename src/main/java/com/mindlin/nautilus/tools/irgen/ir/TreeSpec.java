@@ -1,9 +1,12 @@
 package com.mindlin.nautilus.tools.irgen.ir;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -14,26 +17,38 @@ import java.util.function.Function;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.type.TypeMirror;
 
 import com.mindlin.nautilus.tools.irgen.Logger;
 import com.mindlin.nautilus.tools.irgen.Utils;
 import com.mindlin.nautilus.tools.irgen.util.Orderable;
 
+/**
+ * Snapshot of a tree interface.
+ * <p>
+ * Specs are read from javac on the processor thread, and everything later phases need (names, types,
+ * annotation values) is copied in. Elements & mirrors are only kept as positions for diagnostics,
+ * so specs can be analysed on any thread.
+ * </p>
+ */
 public class TreeSpec implements Orderable<TypeName> {
+	/** Source element (only for diagnostics & originating elements) */
 	public TypeElement source;
+	public ClassName name;
 	public Kind kind;
 	public Logger logger;
 	public List<TypeName> parents = new ArrayList<>();
 	public Map<String, Logger> kinds;
 	public List<GetterSpec> getters;
-	public Map<String, GetterSpec> resolvedGetters;
+	/** Memoized {@link #getAllParents(Function)} */
+	private List<TreeSpec> allParents;
+	/** Memoized {@link #getInheritedGetters(Function)} */
+	private InheritedGetters inheritedGetters;
 	
 	public TreeSpec() {
 	}
 	
-	public TypeName getName() {
-		return ClassName.get(this.source);
+	public ClassName getName() {
+		return this.name;
 	}
 	
 	@Override
@@ -65,28 +80,143 @@ public class TreeSpec implements Orderable<TypeName> {
 		return this.logger;
 	}
 	
-	public List<TreeSpec> getAllParents(Function<TypeName, TreeSpec> lookup) {
-		Deque<TreeSpec> queue = new LinkedList<>();
-		Set<TreeSpec> visited = new HashSet<>();
-		queue.add(this);
-		visited.add(this);
+	/**
+	 * Resolve specs for this tree's direct parents (skipping ones that can't be resolved)
+	 */
+	protected List<TreeSpec> getParentSpecs(Function<TypeName, TreeSpec> lookup) {
+		List<TreeSpec> result = new ArrayList<>(this.parents.size());
+		for (TypeName parentName : this.parents) {
+			TreeSpec parent = lookup.apply(parentName);
+			if (parent != null && parent != this && !result.contains(parent))
+				result.add(parent);
+		}
+		return result;
+	}
+	
+	/**
+	 * Linearize this tree & its ancestors (ancestors first, this tree last).
+	 * <p>
+	 * The result is memoized, so {@code lookup} has to give the same answers every time it's called.
+	 * A tree with one parent extends its parent's linearization (a chain can only be ordered one way),
+	 * so linearizing a hierarchy is linear in its size. Trees with more parents are sorted from scratch.
+	 * </p>
+	 * Thread-safe.
+	 */
+	public synchronized List<TreeSpec> getAllParents(Function<TypeName, TreeSpec> lookup) {
+		List<TreeSpec> result = this.allParents;
+		if (result != null)
+			return result;
+		
+		List<TreeSpec> parentSpecs = this.getParentSpecs(lookup);
+		if (parentSpecs.isEmpty()) {
+			result = Collections.singletonList(this);
+		} else if (parentSpecs.size() == 1) {
+			List<TreeSpec> inherited = parentSpecs.get(0).getAllParents(lookup);
+			result = new ArrayList<>(inherited.size() + 1);
+			result.addAll(inherited);
+			result.add(this);
+		} else {
+			Deque<TreeSpec> queue = new LinkedList<>();
+			Set<TreeSpec> visited = new LinkedHashSet<>();
+			queue.add(this);
+			visited.add(this);
+			
+			while (!queue.isEmpty()) {
+				TreeSpec parent = queue.pop();
+				for (TypeName gpName : parent.parents) {
+					TreeSpec gp = lookup.apply(gpName);
+					if (gp == null || !visited.add(gp))
+						continue;
+					queue.add(gp);
+				}
+			}
+			result = Orderable.sorted(visited);
+		}
+		return this.allParents = Collections.unmodifiableList(result);
+	}
+	
+	/**
+	 * Getters of this tree (declared & inherited), in {@link #getAllParents(Function) linearization} order.
+	 * <p>
+	 * Memoized like {@link #getAllParents(Function)}. A tree with one parent copies its parent's table
+	 * and declares its own getters on top, instead of re-merging every ancestor.
+	 * </p>
+	 * Thread-safe.
+	 */
+	public synchronized InheritedGetters getInheritedGetters(Function<TypeName, TreeSpec> lookup) {
+		InheritedGetters result = this.inheritedGetters;
+		if (result != null)
+			return result;
 		
-		while (!queue.isEmpty()) {
-			TreeSpec parent = queue.pop();
-			for (TypeName gpName : parent.parents) {
-				TreeSpec gp = lookup.apply(gpName);
-				if (gp == null || !visited.add(gp))
+		List<TreeSpec> parentSpecs = this.getParentSpecs(lookup);
+		if (parentSpecs.size() == 1) {
+			result = new InheritedGetters(parentSpecs.get(0).getInheritedGetters(lookup));
+			result.declare(this.getters);
+		} else {
+			result = new InheritedGetters();
+			for (TreeSpec ancestor : this.getAllParents(lookup))
+				result.declare(ancestor.getters);
+		}
+		return this.inheritedGetters = result;
+	}
+	
+	/**
+	 * Getters of a tree, by name. Getters are in the order they were first declared (by the tree or an
+	 * ancestor), and a redeclared getter replaces the inherited one.
+	 */
+	public static class InheritedGetters {
+		protected final Map<String, GetterSpec> getters;
+		/** Getters that were redeclared without {@code @Override} (by name). The redeclaration is in {@link #getters}. */
+		protected final Map<String, GetterSpec> hidden;
+		
+		protected InheritedGetters() {
+			this.getters = new LinkedHashMap<>();
+			this.hidden = new HashMap<>();
+		}
+		
+		protected InheritedGetters(InheritedGetters parent) {
+			this.getters = new LinkedHashMap<>(parent.getters);
+			this.hidden = new HashMap<>(parent.hidden);
+		}
+		
+		protected void declare(List<GetterSpec> declared) {
+			for (GetterSpec getter : declared) {
+				GetterSpec old = this.getters.put(getter.name, getter);
+				if (old == null)
 					continue;
-				queue.add(gp);
+				if (getter.override)
+					this.hidden.remove(getter.name);
+				else
+					this.hidden.put(getter.name, old);
 			}
 		}
-		return Orderable.sorted(visited);
+		
+		public GetterSpec get(String name) {
+			return this.getters.get(name);
+		}
+		
+		public Collection<GetterSpec> getGetters() {
+			return Collections.unmodifiableCollection(this.getters.values());
+		}
+		
+		/**
+		 * @return Getters that were hidden by a redeclaration without {@code @Override}, by name
+		 */
+		public Map<String, GetterSpec> getHidden() {
+			return Collections.unmodifiableMap(this.hidden);
+		}
 	}
 
 	public static class GetterSpec implements Orderable<String> {
+		/** Source method (only for diagnostics) */
 		public ExecutableElement target;
+		/** Invoker annotation (only for diagnostics) */
 		public AnnotationMirror invoker;
-		public TypeMirror type;
+		/** Qualified name of invoker annotation */
+		public String invokerName;
+		/** Interface that declares this getter */
+		public ClassName owner;
+		public TypeName type;
 		/** Wrapped field name */
 		public String fName;
 		/** Method name */
@@ -122,7 +252,7 @@ public class TreeSpec implements Orderable<TypeName> {
 			if (this.last)
 				props.add("last");
 			
-			return String.format("GetterSpec{target=%s, invoker=%s, type=%s, fName=%s, name=%s, props=%s, type=%s}", this.target, this.invoker, this.type, this.fName, this.name, props, this.type);
+			return String.format("GetterSpec{owner=%s, invoker=%s, type=%s, fName=%s, name=%s, props=%s}", this.owner, this.invokerName, this.type, this.fName, this.name, props);
 		}
 		
 		public boolean checkReturnNonNull() {
@@ -35,11 +35,11 @@ import com.mindlin.nautilus.tools.irgen.util.Named;
 
 public abstract class TypeName implements Writable {
 	public static TypeName wrap(TypeMirror type) {
-		return type.accept(new TypeMapper(), null);
+		return type.accept(new TypeMapper(null), null);
 	}
 	
-	private static TypeName wrapAnnotations(AnnotatedConstruct raw, TypeName result) {
-		List<? extends AnnotationSpec> annotations = AnnotationSpec.from(raw);
+	private static TypeName wrapAnnotations(NamePool pool, AnnotatedConstruct raw, TypeName result) {
+		List<? extends AnnotationSpec> annotations = AnnotationSpec.from(pool, raw);
 		if (!annotations.isEmpty())
 			return result.withAnnotations(annotations);
 		return result;
@@ -176,6 +176,8 @@ public abstract class TypeName implements Writable {
 	
 	public final List<? extends AnnotationSpec> annotations;
 	private transient String tsCache;
+	/** Cached {@link #hashCode()} (0 if not computed yet) */
+	private transient int hash;
 	
 	protected TypeName(List<? extends AnnotationSpec> annotations) {
 		this.annotations = Objects.requireNonNull(annotations);
@@ -195,6 +197,7 @@ public abstract class TypeName implements Writable {
 		try (StringWriter sw = new StringWriter();
 				CodeWriter cw = new CodeWriter(sw)) {
 			this.write(cw);
+			cw.flush();
 			return this.tsCache = sw.toString();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -210,22 +213,50 @@ public abstract class TypeName implements Writable {
 		return new TypeNameWithAnnotations(this, annotations);
 	}
 	
+	/**
+	 * @return If this is a primitive type (not including {@code void})
+	 */
+	public boolean isPrimitive() {
+		return false;
+	}
+	
+	/**
+	 * @return Wrapper class, if this is a keyword type (otherwise this)
+	 */
+	public TypeName box() {
+		return this;
+	}
+	
+	/**
+	 * Compute hash from structure. Called at most once per instance (unless the hash is 0).
+	 */
+	protected abstract int computeHash();
+	
+	/**
+	 * Structural equality check.
+	 * @param other Type of the same class as this, with the same hash
+	 */
+	protected abstract boolean equalTo(TypeName other);
+	
 	@Override
 	public int hashCode() {
-		return Objects.hash(this.toString());
+		int h = this.hash;
+		if (h == 0)
+			this.hash = h = this.computeHash();
+		return h;
 	}
 	
 	@Override
 	public boolean equals(Object obj) {
 		if (obj == this)
 			return true;
-		if (!(obj instanceof TypeName))
+		if (obj == null || obj.getClass() != this.getClass())
 			return false;
-		
-		return Objects.equals(this.toString(), obj.toString());
+		TypeName other = (TypeName) obj;
+		return this.hashCode() == other.hashCode() && this.equalTo(other);
 	}
 	
-	private static class TypeNameWithAnnotations extends TypeName {
+	static class TypeNameWithAnnotations extends TypeName {
 		protected final TypeName inner;
 		protected TypeNameWithAnnotations(TypeName inner, List<? extends AnnotationSpec> annotations) {
 			super(annotations);
@@ -243,10 +274,30 @@ public abstract class TypeName implements Writable {
 			return new TypeNameWithAnnotations(inner, annotations);
 		}
 		
+		@Override
+		public boolean isPrimitive() {
+			return this.inner.isPrimitive();
+		}
+		
+		@Override
+		public TypeName box() {
+			return this.inner.box();
+		}
+		
+		@Override
+		protected int computeHash() {
+			return 31 * this.inner.hashCode() + this.annotations.hashCode();
+		}
+		
+		@Override
+		protected boolean equalTo(TypeName other) {
+			TypeNameWithAnnotations o = (TypeNameWithAnnotations) other;
+			return this.inner.equals(o.inner) && this.annotations.equals(o.annotations);
+		}
 	}
 	
-	private static class KeywordTypeName extends TypeName {
-		private final String keyword;
+	static class KeywordTypeName extends TypeName {
+		final String keyword;
 		public KeywordTypeName(String keyword) {
 			this(keyword, Collections.emptyList());
 		}
@@ -261,11 +312,53 @@ public abstract class TypeName implements Writable {
 			return new KeywordTypeName(keyword, annotations);
 		}
 		
+		@Override
+		public boolean isPrimitive() {
+			return !"void".equals(this.keyword);
+		}
+		
+		@Override
+		public TypeName box() {
+			switch (this.keyword) {
+				case "void":
+					return ClassName.get(Void.class);
+				case "boolean":
+					return ClassName.get(Boolean.class);
+				case "char":
+					return ClassName.get(Character.class);
+				case "byte":
+					return ClassName.get(Byte.class);
+				case "short":
+					return ClassName.get(Short.class);
+				case "int":
+					return ClassName.get(Integer.class);
+				case "long":
+					return ClassName.get(Long.class);
+				case "float":
+					return ClassName.get(Float.class);
+				case "double":
+					return ClassName.get(Double.class);
+				default:
+					throw new IllegalStateException("Unknown keyword " + this.keyword);
+			}
+		}
+		
 		@Override
 		public void write(CodeWriter out) {
 			this.writeAnnotations(out);
 			out.print(this.keyword);
 		}
+		
+		@Override
+		protected int computeHash() {
+			return 31 * this.keyword.hashCode() + this.annotations.hashCode();
+		}
+		
+		@Override
+		protected boolean equalTo(TypeName other) {
+			KeywordTypeName o = (KeywordTypeName) other;
+			return this.keyword.equals(o.keyword) && this.annotations.equals(o.annotations);
+		}
 	}
 	
 	public static class ParameterizedTypeName extends TypeName implements Named {
@@ -318,6 +411,23 @@ public abstract class TypeName implements Writable {
 			if (!this.args.isEmpty())
 				out.emit("<$,T>", this.args);
 		}
+		
+		@Override
+		protected int computeHash() {
+			int h = Objects.hashCode(this.enclosing);
+			h = 31 * h + this.raw.hashCode();
+			h = 31 * h + this.args.hashCode();
+			return 31 * h + this.annotations.hashCode();
+		}
+		
+		@Override
+		protected boolean equalTo(TypeName other) {
+			ParameterizedTypeName o = (ParameterizedTypeName) other;
+			return this.raw.equals(o.raw)
+					&& Objects.equals(this.enclosing, o.enclosing)
+					&& this.args.equals(o.args)
+					&& this.annotations.equals(o.annotations);
+		}
 	}
 	
 	public static class TypeVariableName extends TypeName {
@@ -335,11 +445,32 @@ public abstract class TypeName implements Writable {
 			return new TypeVariableName(name, bounds, annotations);
 		}
 		
+		public String getName() {
+			return this.name;
+		}
+		
+		public List<TypeName> getBounds() {
+			return this.bounds;
+		}
+		
 		@Override
 		public void write(CodeWriter out) {
 			this.writeAnnotations(out);
 			out.print(this.name);
 		}
+		
+		@Override
+		protected int computeHash() {
+			int h = this.name.hashCode();
+			h = 31 * h + this.bounds.hashCode();
+			return 31 * h + this.annotations.hashCode();
+		}
+		
+		@Override
+		protected boolean equalTo(TypeName other) {
+			TypeVariableName o = (TypeVariableName) other;
+			return this.name.equals(o.name) && this.bounds.equals(o.bounds) && this.annotations.equals(o.annotations);
+		}
 	}
 	
 	public static class ArrayTypeName extends TypeName {
@@ -359,11 +490,26 @@ public abstract class TypeName implements Writable {
 			this(component, Collections.emptyList());
 		}
 		
+		public TypeName getComponent() {
+			return this.component;
+		}
+		
 		@Override
 		public void write(CodeWriter out) {
 			this.component.write(out);
 			out.print("[]");
 		}
+		
+		@Override
+		protected int computeHash() {
+			return 31 * this.component.hashCode() + this.annotations.hashCode();
+		}
+		
+		@Override
+		protected boolean equalTo(TypeName other) {
+			ArrayTypeName o = (ArrayTypeName) other;
+			return this.component.equals(o.component) && this.annotations.equals(o.annotations);
+		}
 	}
 	
 	public static class WildcardTypeName extends TypeName {
@@ -399,9 +545,31 @@ public abstract class TypeName implements Writable {
 			else
 				out.print("?");
 		}
+		
+		@Override
+		protected int computeHash() {
+			int h = Objects.hashCode(this.superBound);
+			h = 31 * h + Objects.hashCode(this.extendBound);
+			return 31 * h + this.annotations.hashCode();
+		}
+		
+		@Override
+		protected boolean equalTo(TypeName other) {
+			WildcardTypeName o = (WildcardTypeName) other;
+			return Objects.equals(this.superBound, o.superBound)
+					&& Objects.equals(this.extendBound, o.extendBound)
+					&& this.annotations.equals(o.annotations);
+		}
 	}
 	
 	static class TypeMapper extends SimpleTypeVisitor8<TypeName, Void> {
+		/** Pool for class names (may be null) */
+		protected final NamePool pool;
+		
+		TypeMapper(NamePool pool) {
+			this.pool = pool;
+		}
+		
 		@Override
 		protected TypeName defaultAction(TypeMirror t, Void p) {
 			throw new IllegalArgumentException();
@@ -443,18 +611,19 @@ public abstract class TypeName implements Writable {
 					return this.defaultAction(t, p);
 			}
 			
-			return wrapAnnotations(t, result);
+			return wrapAnnotations(this.pool, t, result);
 		}
 
 		@Override
 		public TypeName visitArray(ArrayType t, Void p) {
 			TypeName component = t.getComponentType().accept(this, p);
-			return new ArrayTypeName(component, AnnotationSpec.from(t));
+			return new ArrayTypeName(component, AnnotationSpec.from(this.pool, t));
 		}
 
 		@Override
 		public TypeName visitDeclared(DeclaredType t, Void p) {
-			ClassName rawType = ClassName.get((TypeElement) t.asElement());
+			TypeElement element = (TypeElement) t.asElement();
+			ClassName rawType = this.pool == null ? ClassName.get(element) : this.pool.get(element);
 			
 			TypeMirror enclosingType = t.getEnclosingType();
 			TypeName enclosing = null;
@@ -462,12 +631,12 @@ public abstract class TypeName implements Writable {
 				enclosing = enclosingType.accept(this, p);
 			
 			if (t.getTypeArguments().isEmpty() && !(enclosing instanceof ParameterizedTypeName))
-				return wrapAnnotations(t, rawType);
+				return wrapAnnotations(this.pool, t, rawType);
 			
 			List<TypeName> typeArgs = Utils.map(t.getTypeArguments(), arg -> arg.accept(this, null));
 			if (enclosing instanceof ParameterizedTypeName)
-				return ((ParameterizedTypeName) enclosing).nestedClass(rawType.getSimpleName(), typeArgs, AnnotationSpec.from(t));
-			return new ParameterizedTypeName(null, rawType, typeArgs, AnnotationSpec.from(t));
+				return ((ParameterizedTypeName) enclosing).nestedClass(rawType.getSimpleName(), typeArgs, AnnotationSpec.from(this.pool, t));
+			return new ParameterizedTypeName(null, rawType, typeArgs, AnnotationSpec.from(this.pool, t));
 		}
 
 		@Override
@@ -479,7 +648,7 @@ public abstract class TypeName implements Writable {
 		public TypeName visitWildcard(WildcardType t, Void p) {
 			TypeName superBound = t.getSuperBound() == null ? null : t.getSuperBound().accept(this, p);
 			TypeName extendsBound = t.getExtendsBound() == null ? null : t.getExtendsBound().accept(this, p);
-			return new WildcardTypeName(superBound, extendsBound, AnnotationSpec.from(t));
+			return new WildcardTypeName(superBound, extendsBound, AnnotationSpec.from(this.pool, t));
 		}
 
 		@Override
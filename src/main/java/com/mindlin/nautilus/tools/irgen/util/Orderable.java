@@ -3,17 +3,15 @@ package com.mindlin.nautilus.tools.irgen.util;
 import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public interface Orderable<N> {
 	public static <N, T extends Orderable<N>> List<T> sorted(Collection<T> elements) {
@@ -26,7 +24,33 @@ public interface Orderable<N> {
 		throw new IllegalArgumentException();
 	}
 	
+	/**
+	 * Topologically sort elements.
+	 * <p>
+	 * When multiple elements are available, {@code selector} is asked to pick one of them.
+	 * The candidates are iterated in input order, so {@link #selectAny(Collection)} is stable.
+	 * </p>
+	 * @param elements Elements to sort
+	 * @param selector Picks the next element from a set of (more than one) candidates
+	 * @return Sorted elements
+	 * @throws IllegalArgumentException If the ordering constraints have a cycle
+	 */
 	public static <N, T extends Orderable<N>> List<T> sorted(Collection<T> elements, Function<Collection<? extends T>, ? extends T> selector) {
+		return build(elements).sort(null, selector);
+	}
+	
+	/**
+	 * Topologically sort elements.
+	 * @param elements Elements to sort
+	 * @param tieBreaker Order to pick in when multiple elements are available. Remaining ties are broken by input order.
+	 * @return Sorted elements
+	 * @throws IllegalArgumentException If the ordering constraints have a cycle
+	 */
+	public static <N, T extends Orderable<N>> List<T> sortedBy(Collection<T> elements, Comparator<? super T> tieBreaker) {
+		return build(elements).sort(Objects.requireNonNull(tieBreaker), null);
+	}
+	
+	static <N, T extends Orderable<N>> DAG<N, T> build(Collection<T> elements) {
 		// Put first/last
 		T first = null;
 		T last = null;
@@ -37,203 +61,222 @@ public interface Orderable<N> {
 				last = element;
 		}
 		
-		Set<T> remaining = new HashSet<>(elements);
-		if (first != null)
-			remaining.remove(first);
-		if (last != null)
-			remaining.remove(last);
-		
-		ConcurrentMap<N, Wrapper<T>> segments = new ConcurrentHashMap<>();
-		// Insert all segments
-		elements.parallelStream()
-			.forEach(elem -> segments.put(elem.getOrderName(), new Wrapper<>(elem)));
-		
-		// Insert before/after edges
-		for (T elem : remaining) {
-			Wrapper<T> segment = segments.get(elem.getOrderName());
-			
-			for (N beforeValue : elem.getBefore()) {
-				Wrapper<T> before = segments.get(beforeValue);
-				if (before == null)
-					continue;
-				segment.before.add(before);
-				before.after.add(segment);
-			}
-			
-			for (N afterValue : elem.getAfter()) {
-				Wrapper<T> after = segments.get(afterValue);
-				if (after == null)
-					continue;
-				segment.after.add(after);
-				after.before.add(segment);
-			}
-		}
-		// Insert 'last' edges
-		if (last != null) {
-			Wrapper<T> lastSegment = segments.get(last.getOrderName());
-			remaining.stream()
-				.map(Orderable::getOrderName)
-				.map(segments::get)
-				.forEach(segment -> {
-					segment.after.add(lastSegment);
-					lastSegment.before.add(segment);
-				});
-		}
-		
-		List<T> result = new ArrayList<>(elements.size());
-		if (first != null) {
-			result.add(first);
-			Wrapper<T> segment = segments.remove(first.getOrderName());
-			segments.values().forEach(s -> s.before.remove(segment));
-		}
-		
-		while (!segments.isEmpty()) {
-			Set<Wrapper<T>> available = segments.values()
-				.parallelStream()
-				.filter(segment -> segment.before.isEmpty())
-				.collect(Collectors.toSet());
-			
-			Wrapper<T> segment;
-			if (available.isEmpty()) {
-				throw new IllegalArgumentException("Topo failed (remaining: " + segments.keySet() + ")");
-			} else if (available.size() == 1) {
-				// Pick only value
-				segment = selectAny(available);
-			} else {
-				Collection<? extends T> candidateProxy = new AbstractCollection<T>() {
-					@Override
-					public Iterator<T> iterator() {
-						Iterator<Wrapper<T>> delegate = available.iterator();
-						return new Iterator<T>() {
-							@Override
-							public boolean hasNext() {
-								return delegate.hasNext();
-							}
-
-							@Override
-							public T next() {
-								return delegate.next().value;
-							}
-						};
-					}
-					
-					@Override
-					public int size() {
-						return available.size();
-					}
-				};
-				
-				T selected = selector.apply(candidateProxy);
-				Objects.requireNonNull(selected, "Selected null");
-				segment = segments.getOrDefault(selected.getOrderName(), null);
-				Objects.requireNonNull(segment, () -> String.format("Unable to find segment for selection %s from %d: %s", selected.getOrderName(), segments.size(), segments.keySet()));
-				if (!available.contains(segment))
-					throw new IllegalArgumentException();
-			}
-			
-			N name = segment.value.getOrderName();
-			segments.remove(name);
-			segment.after.parallelStream()
-					.forEach(s -> s.before.remove(segment));
-			result.add(segment.value);
-		}
-		
-		return result;
-	}
-	
-	public static <N, T extends Orderable<N>> List<T> sorted2(Collection<T> elements, Function<Collection<? extends T>, ? extends T> selector) {
-		Map<N, T> nameLookup = new HashMap<>();
-		DAG<N, T> graph = new DAG<>();
+		DAG<N, T> graph = new DAG<>(elements.size());
+		graph.first = first;
+		graph.last = last;
 		
 		// Add all nodes to graph
-		for (T element : elements) {
-			N name = element.getOrderName();
-			T prev = nameLookup.put(name, element);
-			if (prev != null)
-				throw new IllegalArgumentException(String.format("Duplicate name %s", name));
-			graph.add(name, element);
-		}
+		for (T element : elements)
+			if (element != first && element != last)
+				graph.add(element.getOrderName(), element);
 		
-		// Add all edges to graph
+		// Add all edges to graph (edges to first/last are implied)
 		for (T element : elements) {
+			if (element == first || element == last)
+				continue;
 			N name = element.getOrderName();
-			if (element.isFirst()) {
-				
-			}
-			if (element.isLast()) {
-				
-			}
 			for (N before : element.getBefore())
 				graph.connect(before, name);
 			for (N after : element.getAfter())
 				graph.connect(name, after);
 		}
 		
-		return null;
+		return graph;
 	}
 	
-	static class W2<N, T extends Orderable<N>> {
-		final N name;
-		final T value;
-		protected Set<N> before;
-		protected Set<N> after;
-		
-		public W2(T value) {
-			this.name = value.getOrderName();
-			this.value = value;
-			this.before = new HashSet<>(value.getBefore());
-			this.after = new HashSet<>(value.getAfter());
-		}
-	}
-	
-	static class DAG<T, V> {
-		protected Map<T, Node> nodes = new HashMap<>();
+	/**
+	 * Graph for Kahn's algorithm. Edges point from a node to the nodes that have to come after it.
+	 */
+	static class DAG<K, V extends Orderable<K>> {
+		protected final Map<K, Node<K, V>> nodes;
+		protected final List<Node<K, V>> order;
+		protected V first;
+		protected V last;
 		
-		public void add(T key, V value) {
-			nodes.computeIfAbsent(key, k -> new Node(key, value));
+		public DAG(int capacity) {
+			this.nodes = new HashMap<>(Math.max(16, capacity * 2));
+			this.order = new ArrayList<>(capacity);
 		}
 		
-		public V remove(T key) {
-			Node n = nodes.remove(key);
-			for (Node src : n.inEdges)
-				src.outEdges.remove(n);
-			for (Node dst : n.outEdges)
-				dst.inEdges.remove(n);
-			return n.value;
+		public void add(K key, V value) {
+			Node<K, V> node = new Node<>(key, value, this.order.size());
+			if (this.nodes.putIfAbsent(key, node) != null)
+				throw new IllegalArgumentException(String.format("Duplicate name %s", key));
+			this.order.add(node);
 		}
 		
-		public void connect(T source, T sink) {
-			Node n1 = nodes.get(source);
-			Node n2 = nodes.get(sink);
+		/**
+		 * Require that {@code source} comes before {@code sink}. Edges to unknown nodes are ignored.
+		 */
+		public void connect(K source, K sink) {
+			Node<K, V> n1 = this.nodes.get(source);
+			Node<K, V> n2 = this.nodes.get(sink);
+			if (n1 == null || n2 == null)
+				return;
 			n1.outEdges.add(n2);
 			n2.inEdges.add(n1);
+			n2.inDegree++;
 		}
 		
-		public void disconnect(T source, T sink) {
-			Node n1 = nodes.get(source);
-			Node n2 = nodes.get(sink);
-			n1.outEdges.add(n2);
-			n2.inEdges.add(n1);
+		/**
+		 * Sort graph. This consumes the in-degree counters, so may only be called once.
+		 * @param tieBreaker Comparator for ready nodes (may be null)
+		 * @param selector Selector for ready nodes (may be null)
+		 */
+		public List<V> sort(Comparator<? super V> tieBreaker, Function<Collection<? extends V>, ? extends V> selector) {
+			Comparator<Node<K, V>> cmp = Comparator.comparingInt(node -> node.index);
+			if (tieBreaker != null)
+				cmp = Comparator.<Node<K, V>, V>comparing(node -> node.value, tieBreaker).thenComparing(cmp);
+			
+			PriorityQueue<Node<K, V>> ready = new PriorityQueue<>(Math.max(1, this.order.size()), cmp);
+			for (Node<K, V> node : this.order)
+				if (node.inDegree == 0)
+					ready.add(node);
+			
+			List<V> result = new ArrayList<>(this.order.size() + 2);
+			if (this.first != null)
+				result.add(this.first);
+			
+			Collection<V> candidates = selector == null ? null : new ReadyView<>(ready);
+			while (!ready.isEmpty()) {
+				Node<K, V> next;
+				if (selector == null || ready.size() == 1) {
+					next = ready.poll();
+				} else {
+					V selected = selector.apply(candidates);
+					Objects.requireNonNull(selected, "Selected null");
+					next = ready.peek();
+					if (next.value == selected) {
+						ready.poll();
+					} else {
+						next = this.nodes.get(selected.getOrderName());
+						if (next == null || next.value != selected || !ready.remove(next))
+							throw new IllegalArgumentException(String.format("Selected %s, which is not a candidate", selected));
+					}
+				}
+				
+				result.add(next.value);
+				for (Node<K, V> successor : next.outEdges)
+					if (--successor.inDegree == 0)
+						ready.add(successor);
+			}
+			
+			if (result.size() < this.order.size() + (this.first == null ? 0 : 1))
+				throw new IllegalArgumentException(this.describeCycle());
+			
+			if (this.last != null)
+				result.add(this.last);
+			
+			return result;
+		}
+		
+		/**
+		 * Find a cycle in the nodes left over from {@link #sort(Comparator, Function)}.
+		 * Every unsorted node has an unsorted predecessor, so walking predecessors must eventually revisit a node.
+		 */
+		protected String describeCycle() {
+			Node<K, V> start = null;
+			List<K> remaining = new ArrayList<>();
+			for (Node<K, V> node : this.order) {
+				if (node.inDegree > 0) {
+					remaining.add(node.key);
+					if (start == null)
+						start = node;
+				}
+			}
+			
+			Map<Node<K, V>, Integer> visited = new HashMap<>();
+			List<Node<K, V>> path = new ArrayList<>();
+			Node<K, V> current = start;
+			while (current != null && !visited.containsKey(current)) {
+				visited.put(current, path.size());
+				path.add(current);
+				Node<K, V> pred = null;
+				for (Node<K, V> candidate : current.inEdges) {
+					if (candidate.inDegree > 0) {
+						pred = candidate;
+						break;
+					}
+				}
+				current = pred;
+			}
+			
+			StringBuilder sb = new StringBuilder("Topo failed: cycle ");
+			if (current != null) {
+				// Path was walked backwards, so print it reversed
+				List<Node<K, V>> cycle = path.subList(visited.get(current), path.size());
+				for (int i = cycle.size() - 1; i >= 0; i--)
+					sb.append(cycle.get(i).key).append(" -> ");
+				sb.append(cycle.get(cycle.size() - 1).key);
+			} else {
+				sb.append("unknown");
+			}
+			sb.append(" (remaining: ").append(remaining).append(')');
+			return sb.toString();
 		}
 		
-		class Node {
-			final T name;
+		static class Node<K, V> {
+			final K key;
 			final V value;
-			final Set<Node> inEdges = new HashSet<>();
-			final Set<Node> outEdges = new HashSet<>();
-			public Node(T name, V value) {
-				this.name = name;
+			/** Input order */
+			final int index;
+			final List<Node<K, V>> inEdges = new ArrayList<>(2);
+			final List<Node<K, V>> outEdges = new ArrayList<>(2);
+			/** Number of unsorted predecessors */
+			int inDegree = 0;
+			
+			public Node(K key, V value, int index) {
+				this.key = key;
 				this.value = value;
+				this.index = index;
 			}
 		}
 	}
 	
-	static class Wrapper<T extends Orderable<?>> {
-		final T value;
-		protected Set<Wrapper<T>> before = new HashSet<>();
-		protected Set<Wrapper<T>> after = new HashSet<>();
-		public Wrapper(T value) {
-			this.value = value;
+	/**
+	 * Read-only view of the ready queue, in input order.
+	 * Only valid while the queue is ordered by input order (i.e., there is no tie-breaker).
+	 */
+	static class ReadyView<V> extends AbstractCollection<V> {
+		final PriorityQueue<? extends DAG.Node<?, V>> ready;
+		
+		public ReadyView(PriorityQueue<? extends DAG.Node<?, V>> ready) {
+			this.ready = ready;
+		}
+		
+		@Override
+		public Iterator<V> iterator() {
+			// The queue head is the first candidate, so selectors that only look at the head don't have to pay for sorting
+			return new Iterator<V>() {
+				Iterator<DAG.Node<?, V>> rest = null;
+				boolean head = true;
+				
+				@Override
+				public boolean hasNext() {
+					if (this.head)
+						return !ReadyView.this.ready.isEmpty();
+					return this.rest == null ? ReadyView.this.ready.size() > 1 : this.rest.hasNext();
+				}
+				
+				@Override
+				public V next() {
+					if (this.head) {
+						this.head = false;
+						return ReadyView.this.ready.element().value;
+					}
+					if (this.rest == null) {
+						List<DAG.Node<?, V>> nodes = new ArrayList<>(ReadyView.this.ready);
+						nodes.sort(Comparator.comparingInt(node -> node.index));
+						this.rest = nodes.listIterator(1);
+					}
+					return this.rest.next().value;
+				}
+			};
+		}
+		
+		@Override
+		public int size() {
+			return this.ready.size();
 		}
 	}
 	
@@ -0,0 +1,284 @@
+package com.mindlin.nautilus.tools.irgen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager.Location;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+
+import org.junit.jupiter.api.Test;
+
+import com.mindlin.nautilus.tools.irgen.ir.ClassName;
+import com.mindlin.nautilus.tools.irgen.ir.TreeImplSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TreeSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TreeSpec.GetterSpec;
+import com.mindlin.nautilus.tools.irgen.ir.TypeName;
+
+/**
+ * Runs {@link IncrementalCache} over several builds, with an in-memory {@link Filer}
+ */
+public class IncrementalCacheTest {
+	protected static final String PACKAGE = "com.example.tree";
+	
+	/**
+	 * Filer that keeps resources in memory, across builds
+	 */
+	protected static class MemoryFiler implements Filer {
+		final Map<String, byte[]> files = new HashMap<>();
+		
+		static String path(Location location, CharSequence pkg, CharSequence relativeName) {
+			return location.getName() + "/" + pkg.toString().replace('.', '/') + "/" + relativeName;
+		}
+		
+		void put(Location location, String pkg, String relativeName) {
+			this.files.put(path(location, pkg, relativeName), new byte[0]);
+		}
+		
+		void remove(Location location, String pkg, String relativeName) {
+			this.files.remove(path(location, pkg, relativeName));
+		}
+		
+		protected FileObject open(String path) {
+			return new SimpleJavaFileObject(URI.create("mem:///" + path), JavaFileObject.Kind.OTHER) {
+				@Override
+				public InputStream openInputStream() throws FileNotFoundException {
+					byte[] content = MemoryFiler.this.files.get(path);
+					if (content == null)
+						throw new FileNotFoundException(path);
+					return new ByteArrayInputStream(content);
+				}
+				
+				@Override
+				public OutputStream openOutputStream() {
+					return new ByteArrayOutputStream() {
+						@Override
+						public void close() {
+							MemoryFiler.this.files.put(path, this.toByteArray());
+						}
+					};
+				}
+			};
+		}
+		
+		@Override
+		public JavaFileObject createSourceFile(CharSequence name, Element... originatingElements) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public JavaFileObject createClassFile(CharSequence name, Element... originatingElements) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public FileObject createResource(Location location, CharSequence pkg, CharSequence relativeName, Element... originatingElements) {
+			return this.open(path(location, pkg, relativeName));
+		}
+		
+		@Override
+		public FileObject getResource(Location location, CharSequence pkg, CharSequence relativeName) {
+			return this.open(path(location, pkg, relativeName));
+		}
+	}
+	
+	/**
+	 * Messager that collects warnings
+	 */
+	protected static class WarningCollector implements Messager {
+		final List<String> warnings = new ArrayList<>();
+		
+		@Override
+		public void printMessage(Kind kind, CharSequence msg) {
+			if (kind == Kind.WARNING || kind == Kind.MANDATORY_WARNING)
+				this.warnings.add(msg.toString());
+		}
+		
+		@Override
+		public void printMessage(Kind kind, CharSequence msg, Element e) {
+			this.printMessage(kind, msg);
+		}
+		
+		@Override
+		public void printMessage(Kind kind, CharSequence msg, Element e, AnnotationMirror a) {
+			this.printMessage(kind, msg);
+		}
+		
+		@Override
+		public void printMessage(Kind kind, CharSequence msg, Element e, AnnotationMirror a, AnnotationValue v) {
+			this.printMessage(kind, msg);
+		}
+	}
+	
+	protected static TreeSpec spec(String name, String...parents) {
+		TreeSpec result = new TreeSpec();
+		result.name = new ClassName(PACKAGE, name);
+		result.kind = TreeSpec.Kind.IMPL;
+		for (String parent : parents)
+			result.parents.add(new ClassName(PACKAGE, parent));
+		result.getters = new ArrayList<>();
+		return result;
+	}
+	
+	protected static TreeSpec withGetter(TreeSpec spec, String name) {
+		GetterSpec getter = new GetterSpec();
+		getter.owner = spec.name;
+		getter.name = name;
+		getter.fName = name;
+		getter.type = TypeName.INT;
+		spec.getters.add(getter);
+		return spec;
+	}
+	
+	protected final MemoryFiler filer = new MemoryFiler();
+	protected final WarningCollector messager = new WarningCollector();
+	protected Map<String, String> options = Collections.singletonMap(ProcessorOptions.INCREMENTAL, "true");
+	
+	/**
+	 * Run a build: select the impls to build, write the stale ones, and save the cache
+	 * @param built Gets the names of the impls that had to be built (stale, or the parent of one)
+	 * @param specs Specs in build order (parents first)
+	 */
+	protected IncrementalCache build(List<String> built, TreeSpec...specs) throws Exception {
+		IncrementalCache cache = IncrementalCache.load(this.filer, new Logger(this.messager), new ProcessorOptions(this.options));
+		Map<String, TreeSpec> byName = new HashMap<>();
+		for (TreeSpec spec : specs)
+			byName.put(spec.getName().toString(), spec);
+		
+		List<TreeSpec> required = cache.retainStale(this.filer, Arrays.asList(specs), name -> byName.get(name.toString()));
+		Map<String, TreeImplSpec> impls = new LinkedHashMap<>();
+		for (TreeSpec spec : required) {
+			built.add(spec.getName().getSimpleName());
+			TreeImplSpec impl = new TreeImplSpec(null, ImplProcessor.getImplName(spec.getName()));
+			impl.baseType = spec.getName();
+			impls.put(spec.getName().toString(), impl);
+		}
+		for (TreeImplSpec impl : cache.filterStale(impls))
+			this.filer.put(StandardLocation.SOURCE_OUTPUT, IRTypes.IMPL_PACKAGE, impl.getClassName().getSimpleName() + ".java");
+		cache.save(this.filer);
+		return cache;
+	}
+	
+	/**
+	 * Names of the impls that were written by a build
+	 */
+	protected List<String> written(IncrementalCache cache, List<String> built) {
+		List<String> result = new ArrayList<>();
+		for (String name : built)
+			if (cache.stale.contains(PACKAGE + "." + name))
+				result.add(name);
+		return result;
+	}
+	
+	@Test
+	public void testFirstBuild() throws Exception {
+		List<String> built = new ArrayList<>();
+		IncrementalCache cache = this.build(built, spec("ExpressionTree"), spec("BinaryTree", "ExpressionTree"));
+		assertEquals(Arrays.asList("ExpressionTree", "BinaryTree"), built);
+		assertEquals(built, this.written(cache, built));
+		assertTrue(this.messager.warnings.isEmpty());
+	}
+	
+	@Test
+	public void testUnchanged() throws Exception {
+		this.build(new ArrayList<>(), spec("ExpressionTree"), spec("BinaryTree", "ExpressionTree"));
+		
+		List<String> built = new ArrayList<>();
+		this.build(built, spec("ExpressionTree"), spec("BinaryTree", "ExpressionTree"));
+		assertEquals(Collections.emptyList(), built);
+		
+		// Still hits after a build that didn't write anything
+		this.build(built, spec("ExpressionTree"), spec("BinaryTree", "ExpressionTree"));
+		assertEquals(Collections.emptyList(), built);
+	}
+	
+	@Test
+	public void testChangedChild() throws Exception {
+		this.build(new ArrayList<>(), spec("ExpressionTree"), spec("BinaryTree", "ExpressionTree"), spec("UnaryTree", "ExpressionTree"));
+		
+		List<String> built = new ArrayList<>();
+		IncrementalCache cache = this.build(built, spec("ExpressionTree"), withGetter(spec("BinaryTree", "ExpressionTree"), "getOperator"), spec("UnaryTree", "ExpressionTree"));
+		// The parent is built (to resolve the child), but isn't written
+		assertEquals(Arrays.asList("ExpressionTree", "BinaryTree"), built);
+		assertEquals(Arrays.asList("BinaryTree"), this.written(cache, built));
+	}
+	
+	@Test
+	public void testChangedParent() throws Exception {
+		this.build(new ArrayList<>(), spec("ExpressionTree"), spec("BinaryTree", "ExpressionTree"), spec("IdentifierTree"));
+		
+		List<String> built = new ArrayList<>();
+		IncrementalCache cache = this.build(built, withGetter(spec("ExpressionTree"), "getPrecedence"), spec("BinaryTree", "ExpressionTree"), spec("IdentifierTree"));
+		assertEquals(Arrays.asList("ExpressionTree", "BinaryTree"), built);
+		assertEquals(built, this.written(cache, built));
+	}
+	
+	@Test
+	public void testMissingOutput() throws Exception {
+		this.build(new ArrayList<>(), spec("ExpressionTree"), spec("IdentifierTree"));
+		this.filer.remove(StandardLocation.SOURCE_OUTPUT, IRTypes.IMPL_PACKAGE, "IdentifierTreeImpl.java");
+		
+		List<String> built = new ArrayList<>();
+		this.build(built, spec("ExpressionTree"), spec("IdentifierTree"));
+		assertEquals(Arrays.asList("IdentifierTree"), built);
+	}
+	
+	@Test
+	public void testDeletedTreePruned() throws Exception {
+		this.build(new ArrayList<>(), spec("ExpressionTree"), spec("IdentifierTree"));
+		
+		List<String> built = new ArrayList<>();
+		IncrementalCache cache = this.build(built, spec("ExpressionTree"));
+		assertEquals(Collections.emptyList(), built);
+		assertFalse(cache.next.containsKey(PACKAGE + ".IdentifierTree"));
+		
+		// Re-adding the tree rebuilds it (even though the old output is still there)
+		this.build(built, spec("ExpressionTree"), spec("IdentifierTree"));
+		assertEquals(Arrays.asList("IdentifierTree"), built);
+	}
+	
+	@Test
+	public void testOptionsChanged() throws Exception {
+		this.build(new ArrayList<>(), spec("ExpressionTree"), spec("IdentifierTree"));
+		
+		this.options = new HashMap<>(this.options);
+		this.options.put(ProcessorOptions.CHILD_LISTS, "true");
+		List<String> built = new ArrayList<>();
+		this.build(built, spec("ExpressionTree"), spec("IdentifierTree"));
+		assertEquals(Arrays.asList("ExpressionTree", "IdentifierTree"), built);
+	}
+	
+	@Test
+	public void testCorruptCache() throws Exception {
+		this.build(new ArrayList<>(), spec("ExpressionTree"));
+		this.filer.files.put(MemoryFiler.path(StandardLocation.CLASS_OUTPUT, "", IncrementalCache.CACHE_PATH), "\\u00".getBytes("ISO-8859-1"));
+		
+		List<String> built = new ArrayList<>();
+		this.build(built, spec("ExpressionTree"));
+		assertEquals(Arrays.asList("ExpressionTree"), built);
+		assertEquals(1, this.messager.warnings.size());
+	}
+}
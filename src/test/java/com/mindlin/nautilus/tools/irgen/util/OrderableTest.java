@@ -0,0 +1,157 @@
+package com.mindlin.nautilus.tools.irgen.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class OrderableTest {
+	protected static class Item implements Orderable<String> {
+		final String name;
+		final Set<String> before = new HashSet<>();
+		final Set<String> after = new HashSet<>();
+		boolean first = false;
+		boolean last = false;
+		
+		Item(String name) {
+			this.name = name;
+		}
+		
+		/** This item comes after {@code names} */
+		Item after(String...names) {
+			this.before.addAll(Arrays.asList(names));
+			return this;
+		}
+		
+		/** This item comes before {@code names} */
+		Item before(String...names) {
+			this.after.addAll(Arrays.asList(names));
+			return this;
+		}
+		
+		@Override
+		public boolean isFirst() {
+			return this.first;
+		}
+		
+		@Override
+		public boolean isLast() {
+			return this.last;
+		}
+		
+		@Override
+		public Set<String> getBefore() {
+			return this.before;
+		}
+		
+		@Override
+		public Set<String> getAfter() {
+			return this.after;
+		}
+		
+		@Override
+		public String getOrderName() {
+			return this.name;
+		}
+		
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+	
+	protected static List<String> names(List<Item> items) {
+		List<String> result = new ArrayList<>(items.size());
+		for (Item item : items)
+			result.add(item.name);
+		return result;
+	}
+	
+	@Test
+	public void testSortedInputOrder() {
+		List<Item> items = Arrays.asList(new Item("a").after("c"), new Item("b"), new Item("c"), new Item("d").before("b"));
+		assertEquals(Arrays.asList("c", "a", "d", "b"), names(Orderable.sorted(items)));
+		// Same input, same order
+		assertEquals(names(Orderable.sorted(items)), names(Orderable.sorted(new ArrayList<>(items))));
+	}
+	
+	@Test
+	public void testSortedFirstLast() {
+		Item first = new Item("first");
+		first.first = true;
+		Item last = new Item("last");
+		last.last = true;
+		List<Item> items = Arrays.asList(new Item("a"), last, new Item("b").before("a"), first);
+		assertEquals(Arrays.asList("first", "b", "a", "last"), names(Orderable.sorted(items)));
+	}
+	
+	@Test
+	public void testSortedSelector() {
+		List<Collection<String>> seen = new ArrayList<>();
+		List<Item> items = Arrays.asList(new Item("a"), new Item("b"), new Item("c").after("a"));
+		// Always pick the last candidate
+		List<Item> sorted = Orderable.sorted(items, candidates -> {
+			List<Item> list = new ArrayList<>(candidates);
+			seen.add(names(list));
+			return list.get(list.size() - 1);
+		});
+		assertEquals(Arrays.asList("b", "a", "c"), names(sorted));
+		// Candidates are in input order
+		assertEquals(Arrays.asList(Arrays.asList("a", "b")), seen);
+	}
+	
+	@Test
+	public void testSortedSelectorNotCandidate() {
+		Item c = new Item("c").after("a");
+		List<Item> items = Arrays.asList(new Item("a"), new Item("b"), c);
+		assertThrows(IllegalArgumentException.class, () -> Orderable.sorted(items, candidates -> c));
+	}
+	
+	@Test
+	public void testSortedByTieBreaker() {
+		List<Item> items = Arrays.asList(new Item("bb"), new Item("a"), new Item("cc").before("a"), new Item("d"));
+		Comparator<Item> byLength = Comparator.comparingInt(item -> item.name.length());
+		// Ties (by length) are broken by input order, and constraints still apply
+		assertEquals(Arrays.asList("d", "bb", "cc", "a"), names(Orderable.sortedBy(items, byLength)));
+		
+		List<Item> reversed = new ArrayList<>(items);
+		Collections.reverse(reversed);
+		assertEquals(Arrays.asList("d", "cc", "a", "bb"), names(Orderable.sortedBy(reversed, byLength)));
+	}
+	
+	@Test
+	public void testUnknownNamesIgnored() {
+		List<Item> items = Arrays.asList(new Item("a").after("x"), new Item("b").before("y"));
+		assertEquals(Arrays.asList("a", "b"), names(Orderable.sorted(items)));
+	}
+	
+	@Test
+	public void testDuplicateName() {
+		List<Item> items = Arrays.asList(new Item("a"), new Item("a"));
+		assertThrows(IllegalArgumentException.class, () -> Orderable.sorted(items));
+	}
+	
+	@Test
+	public void testCycleMessage() {
+		// a <-> b is a cycle; c is only stuck behind it
+		List<Item> items = Arrays.asList(new Item("d"), new Item("a").after("b"), new Item("b").after("a"), new Item("c").after("b"));
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Orderable.sorted(items));
+		assertEquals("Topo failed: cycle b -> a -> b (remaining: [a, b, c])", e.getMessage());
+	}
+	
+	@Test
+	public void testCycleMessageLonger() {
+		List<Item> items = Arrays.asList(new Item("a").after("c"), new Item("b").after("a"), new Item("c").after("b"));
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Orderable.sortedBy(items, Comparator.comparing(item -> item.name)));
+		assertEquals("Topo failed: cycle b -> c -> a -> b (remaining: [a, b, c])", e.getMessage());
+	}
+}